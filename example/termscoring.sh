@@ -20,6 +20,7 @@ curl -s -XPUT "http://localhost:9200/termscore" -d'
          "properties": {
             "text": {
                "type": "string",
+               "term_vector": "yes",
                "fields": {
                   "text": {
                      "type": "string"
@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.benchmark;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.IOUtils;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressedXContent;
+import org.elasticsearch.common.lucene.index.ElasticsearchDirectoryReader;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.BigArrays;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.examples.nativescript.script.DenseVector;
+import org.elasticsearch.examples.nativescript.script.LeafScriptEngineService;
+import org.elasticsearch.examples.nativescript.script.QuantizedVector;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexFieldDataCache;
+import org.elasticsearch.index.fielddata.IndexFieldDataService;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.ParsedDocument;
+import org.elasticsearch.index.mapper.SourceToParse;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.index.similarity.SimilarityService;
+import org.elasticsearch.indices.IndicesModule;
+import org.elasticsearch.indices.analysis.AnalysisModule;
+import org.elasticsearch.indices.breaker.NoneCircuitBreakerService;
+import org.elasticsearch.indices.fielddata.cache.IndicesFieldDataCache;
+import org.elasticsearch.script.CompiledScript;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.script.LeafSearchScript;
+import org.elasticsearch.script.NativeScriptFactory;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.script.SearchScript;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.lookup.SearchLookup;
+import org.elasticsearch.test.TestSearchContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * In-memory single shard index that the benchmarks run the native scripts against.
+ * <p>
+ * Documents are parsed by the same mappers a node would use, so the scripts see the real doc values, norms,
+ * postings and term vectors. The content only depends on the seed and the size parameters, which makes the
+ * results comparable between runs and machines. Every document has the following fields:
+ * <ul>
+ * <li>{@code text}: {@code docLength} words drawn from a Zipf distribution over {@code vocabulary} words,
+ * indexed with term vectors</li>
+ * <li>{@code text_norm}: L2 norm of the term frequencies of {@code text}</li>
+ * <li>{@code word_count}: number of words in {@code text}</li>
+ * <li>{@code tags}: up to 16 distinct keywords drawn from the same distribution as {@code text}</li>
+ * <li>{@code number}: random long between 1 and {@code maxNumber}</li>
+ * <li>{@code type} and {@code amount}: the sale and cost transactions of the stock aggregation example</li>
+ * <li>{@code vector} and {@code vector_int8}: a random vector of {@code dims} dimensions encoded with floats and
+ * quantized to bytes, only if {@code dims} is greater than 0</li>
+ * </ul>
+ */
+public final class BenchmarkIndex implements Closeable {
+
+    public static final String INDEX = "benchmark";
+    public static final String TYPE = "doc";
+
+    private final Path home;
+    private final RAMDirectory directory;
+    private final DirectoryReader reader;
+    private final MapperService mapperService;
+    private final IndexFieldDataService fieldDataService;
+    private final SearchLookup lookup;
+    private final LeafScriptEngineService scriptEngine;
+    private final ScriptMetrics metrics;
+    private final String[] vocabulary;
+    private final double[] cumulativeFrequencies;
+
+    /**
+     * @param numDocs    number of documents in the index
+     * @param vocabulary number of distinct words
+     * @param docLength  number of words of every document
+     * @param dims       number of dimensions of the vectors, 0 for no vectors
+     * @param maxNumber  upper bound of the {@code number} field
+     * @param seed       seed of the random content
+     * @param metrics    metrics the scripts report to, published at the end of every pass over the index
+     * @param scripts    factories of the scripts that will be benchmarked
+     */
+    public BenchmarkIndex(int numDocs, int vocabulary, int docLength, int dims, long maxNumber, long seed, ScriptMetrics metrics,
+                          List<NativeScriptFactory> scripts) throws IOException {
+        this.metrics = metrics;
+        this.vocabulary = new String[vocabulary];
+        this.cumulativeFrequencies = new double[vocabulary];
+        double sum = 0;
+        for (int i = 0; i < vocabulary; i++) {
+            this.vocabulary[i] = "w" + i;
+            sum += 1.0 / (i + 1);
+            cumulativeFrequencies[i] = sum;
+        }
+        for (int i = 0; i < vocabulary; i++) {
+            cumulativeFrequencies[i] /= sum;
+        }
+
+        home = Files.createTempDirectory("native-script-benchmark");
+        Settings nodeSettings = Settings.builder().put(Environment.PATH_HOME_SETTING.getKey(), home.toString()).build();
+        Settings indexSettings = Settings.builder()
+            .put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
+            .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+            .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0)
+            .build();
+        IndexSettings settings = new IndexSettings(IndexMetaData.builder(INDEX).settings(indexSettings).build(), nodeSettings);
+        mapperService = new MapperService(settings,
+            new AnalysisModule(new Environment(nodeSettings), Collections.emptyList()).getAnalysisRegistry().build(settings),
+            NamedXContentRegistry.EMPTY, new SimilarityService(settings, Collections.emptyMap()),
+            new IndicesModule(Collections.emptyList()).getMapperRegistry(), () -> null);
+        mapperService.merge(TYPE, new CompressedXContent(mapping()), MapperService.MergeReason.MAPPING_UPDATE, false);
+
+        directory = new RAMDirectory();
+        Random random = new Random(seed);
+        // flushes by document count so the index always has the same four segments, like a shard being written to
+        IndexWriterConfig config = new IndexWriterConfig(mapperService.indexAnalyzer())
+            .setMaxBufferedDocs(Math.max(2, numDocs / 4 + 1))
+            .setRAMBufferSizeMB(IndexWriterConfig.DISABLE_AUTO_FLUSH)
+            .setMergePolicy(NoMergePolicy.INSTANCE);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < numDocs; i++) {
+                ParsedDocument doc = mapperService.documentMapper(TYPE).parse(SourceToParse.source(INDEX, TYPE, Integer.toString(i),
+                    document(random, docLength, dims, maxNumber), XContentType.JSON));
+                writer.addDocuments(doc.docs());
+            }
+        }
+        reader = ElasticsearchDirectoryReader.wrap(DirectoryReader.open(directory), new ShardId(INDEX, "_na_", 0));
+        fieldDataService = new IndexFieldDataService(settings,
+            new IndicesFieldDataCache(Settings.EMPTY, new IndexFieldDataCache.Listener() {
+            }), new NoneCircuitBreakerService(), mapperService);
+        lookup = new SearchLookup(mapperService, fieldDataService, new String[]{TYPE});
+        scriptEngine = new LeafScriptEngineService(Settings.EMPTY, scripts);
+    }
+
+    private static String mapping() throws IOException {
+        return XContentFactory.jsonBuilder().startObject().startObject(TYPE).startObject("properties")
+            .startObject("text").field("type", "text").field("term_vector", "yes").endObject()
+            .startObject("text_norm").field("type", "double").endObject()
+            .startObject("word_count").field("type", "long").endObject()
+            .startObject("tags").field("type", "keyword").endObject()
+            .startObject("number").field("type", "long").endObject()
+            .startObject("type").field("type", "keyword").endObject()
+            .startObject("amount").field("type", "long").endObject()
+            .startObject("vector").field("type", "binary").field("doc_values", true).endObject()
+            .startObject("vector_int8").field("type", "binary").field("doc_values", true).endObject()
+            .endObject().endObject().endObject().string();
+    }
+
+    private BytesReference document(Random random, int docLength, int dims, long maxNumber) throws IOException {
+        StringBuilder text = new StringBuilder();
+        int[] counts = new int[vocabulary.length];
+        for (int i = 0; i < docLength; i++) {
+            int word = randomWord(random);
+            counts[word]++;
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(vocabulary[word]);
+        }
+        double squares = 0;
+        for (int count : counts) {
+            squares += (double) count * count;
+        }
+        List<String> tags = randomTerms(random, 1 + random.nextInt(16));
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject()
+            .field("text", text.toString())
+            .field("text_norm", Math.sqrt(squares))
+            .field("word_count", docLength)
+            .field("tags", tags)
+            .field("number", 1 + (long) (random.nextDouble() * maxNumber))
+            .field("type", random.nextBoolean() ? "sale" : "cost")
+            .field("amount", 1 + random.nextInt(100));
+        if (dims > 0) {
+            float[] vector = randomVector(random, dims);
+            builder.field("vector", DenseVector.encode(vector));
+            builder.field("vector_int8", QuantizedVector.quantize(vector).encode());
+        }
+        return builder.endObject().bytes();
+    }
+
+    /**
+     * Returns a vector with normally distributed components
+     */
+    public static float[] randomVector(Random random, int dims) {
+        float[] vector = new float[dims];
+        for (int i = 0; i < dims; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private int randomWord(Random random) {
+        int index = Arrays.binarySearch(cumulativeFrequencies, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, vocabulary.length - 1);
+    }
+
+    /**
+     * Returns {@code count} distinct words of the vocabulary, frequent words are more likely to be picked.
+     */
+    public List<String> randomTerms(Random random, int count) {
+        List<String> terms = new ArrayList<>(count);
+        while (terms.size() < Math.min(count, vocabulary.length)) {
+            String term = vocabulary[randomWord(random)];
+            if (terms.contains(term) == false) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    public DirectoryReader reader() {
+        return reader;
+    }
+
+    /**
+     * Returns the field data of a field, like queries that read doc values get it on every shard.
+     */
+    public IndexFieldData<?> fieldData(String field) {
+        return fieldDataService.getForField(mapperService.fullName(field));
+    }
+
+    /**
+     * Returns a search context over the index, with just what the aggregations need to resolve their fields
+     * and allocate their big arrays. The aggregators register themselves with it, so the releasables of the
+     * phase must be cleared once they are done.
+     */
+    public SearchContext searchContext() {
+        BigArrays bigArrays = new BigArrays(null, new NoneCircuitBreakerService(), false);
+        return new TestSearchContext(null) {
+            @Override
+            public BigArrays bigArrays() {
+                return bigArrays;
+            }
+
+            @Override
+            public IndexFieldDataService fieldData() {
+                return fieldDataService;
+            }
+
+            @Override
+            public MappedFieldType smartNameFieldType(String name) {
+                return mapperService.fullName(name);
+            }
+        };
+    }
+
+    /**
+     * Creates the search script like a search request would on every shard.
+     */
+    public SearchScript searchScript(String name, Map<String, Object> params) {
+        return scriptEngine.search(compile(name), lookup, params);
+    }
+
+    /**
+     * Creates an executable script like the init, combine and reduce phases of the scripted metric aggregation.
+     */
+    public ExecutableScript executableScript(String name, Map<String, Object> params) {
+        return scriptEngine.executable(compile(name), params);
+    }
+
+    private CompiledScript compile(String name) {
+        return new CompiledScript(ScriptType.INLINE, name, LeafScriptEngineService.NAME,
+            scriptEngine.compile(name, name, Collections.emptyMap()));
+    }
+
+    /**
+     * Returns a cursor that runs a search script document by document over the whole index.
+     */
+    public DocumentCursor cursor(String name, Map<String, Object> params) {
+        return cursor(() -> searchScript(name, params));
+    }
+
+    /**
+     * Returns a cursor that runs the search scripts returned by the supplier document by document over the
+     * whole index, the supplier is called at the start of every pass.
+     */
+    public DocumentCursor cursor(Supplier<SearchScript> scripts) {
+        return new DocumentCursor(scripts);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+        directory.close();
+        scriptEngine.close();
+        IOUtils.rm(home);
+    }
+
+    /**
+     * Walks the documents of the index in order, segment by segment, and positions a leaf script on every one
+     * of them. A new search script is created every time the cursor wraps around, so the per search work of the
+     * script is part of the measurement, amortized over the documents of the index like in a real search.
+     */
+    public final class DocumentCursor {
+
+        private final Supplier<SearchScript> scripts;
+        private SearchScript script;
+        private long started;
+        private LeafSearchScript leafScript;
+        private int leaf = -1;
+        private int doc;
+        private int maxDoc;
+
+        private DocumentCursor(Supplier<SearchScript> scripts) {
+            this.scripts = scripts;
+        }
+
+        /**
+         * Moves to the next document and returns the leaf script positioned on it.
+         */
+        public LeafSearchScript next() throws IOException {
+            while (doc >= maxDoc) {
+                List<LeafReaderContext> leaves = reader.leaves();
+                if (leaf < 0 || leaf + 1 >= leaves.size()) {
+                    if (script != null) {
+                        // what the node does when the query phase of the shard is over
+                        metrics.searchOperationListener().onQueryPhase(null, System.nanoTime() - started);
+                    }
+                    started = System.nanoTime();
+                    script = scripts.get();
+                    leaf = 0;
+                } else {
+                    leaf++;
+                }
+                leafScript = script.getLeafSearchScript(leaves.get(leaf));
+                doc = 0;
+                maxDoc = leaves.get(leaf).reader().maxDoc();
+            }
+            leafScript.setDocument(doc++);
+            return leafScript;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.benchmark;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.examples.nativescript.script.IsPrimeSearchScriptFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per document throughput of the {@code is_prime} script for small and large numbers.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class IsPrimeBenchmark {
+
+    @Param({"1000", "1000000000", "1000000000000000000"})
+    public long maxNumber;
+
+    @Param({"10000"})
+    public int numDocs;
+
+    @Param({"42"})
+    public long seed;
+
+    private BenchmarkIndex index;
+
+    private BenchmarkIndex.DocumentCursor cursor;
+
+    @Setup
+    public void setup() throws IOException {
+        index = new BenchmarkIndex(numDocs, 100, 10, 0, maxNumber, seed, new ScriptMetrics(),
+            Collections.singletonList(new IsPrimeSearchScriptFactory(Settings.EMPTY)));
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "number");
+        cursor = index.cursor("is_prime", params);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Benchmark
+    public Object isPrime() throws IOException {
+        return cursor.next().run();
+    }
+}
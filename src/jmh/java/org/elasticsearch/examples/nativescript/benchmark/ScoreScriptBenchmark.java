@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.benchmark;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.examples.nativescript.script.CosineSimilarityScoreScript;
+import org.elasticsearch.examples.nativescript.script.JaccardSimilarityScoreScript;
+import org.elasticsearch.examples.nativescript.script.LanguageModelScoreScript;
+import org.elasticsearch.examples.nativescript.script.QueryVectorCache;
+import org.elasticsearch.examples.nativescript.script.TFIDFScoreScript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per document throughput of the term based scoring scripts. Every operation scores a single document, the
+ * documents of the index are visited in order and a new script is created for every pass over the index.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ScoreScriptBenchmark {
+
+    /**
+     * The script and the way it is used: {@code cosine} reads the term vectors, {@code cosine_norm} the norm
+     * field and the postings of the query terms, {@code language_model} smoothes by linear interpolation and
+     * {@code dirichlet} with a Dirichlet prior, {@code language_model_norms} reads the document length from the
+     * norms instead of the word count field.
+     */
+    @Param({"cosine", "cosine_norm", "tfidf", "language_model", "language_model_norms", "dirichlet", "jaccard"})
+    public String script;
+
+    @Param({"1", "4", "16", "64"})
+    public int queryTerms;
+
+    @Param({"10000"})
+    public int numDocs;
+
+    @Param({"10000"})
+    public int vocabulary;
+
+    @Param({"100"})
+    public int docLength;
+
+    @Param({"42"})
+    public long seed;
+
+    private BenchmarkIndex index;
+
+    private BenchmarkIndex.DocumentCursor cursor;
+
+    @Setup
+    public void setup() throws IOException {
+        ScriptMetrics metrics = new ScriptMetrics();
+        QueryVectorCache queryVectors = new QueryVectorCache(QueryVectorCache.MAX_BYTES_SETTING.get(Settings.EMPTY));
+        index = new BenchmarkIndex(numDocs, vocabulary, docLength, 0, 1000, seed, metrics, Arrays.asList(
+            new CosineSimilarityScoreScript.Factory(metrics, queryVectors),
+            new TFIDFScoreScript.Factory(metrics, queryVectors),
+            new LanguageModelScoreScript.Factory(metrics, queryVectors),
+            new JaccardSimilarityScoreScript.Factory(metrics, queryVectors)));
+
+        Random random = new Random(seed);
+        List<String> terms = index.randomTerms(random, queryTerms);
+        List<Double> weights = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            weights.add(1.0 + random.nextInt(4));
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("terms", terms);
+        params.put("weights", weights);
+        switch (script) {
+            case "cosine":
+                params.put("field", "text");
+                cursor = index.cursor(CosineSimilarityScoreScript.SCRIPT_NAME, params);
+                break;
+            case "cosine_norm":
+                params.put("field", "text");
+                params.put("norm_field", "text_norm");
+                cursor = index.cursor(CosineSimilarityScoreScript.SCRIPT_NAME, params);
+                break;
+            case "tfidf":
+                params.put("field", "text");
+                cursor = index.cursor(TFIDFScoreScript.SCRIPT_NAME, params);
+                break;
+            case "language_model":
+                params.put("field", "text");
+                params.put("word_count_field", "word_count");
+                params.put("lambda", 0.9);
+                cursor = index.cursor(LanguageModelScoreScript.SCRIPT_NAME, params);
+                break;
+            case "language_model_norms":
+                params.put("field", "text");
+                params.put("lambda", 0.9);
+                cursor = index.cursor(LanguageModelScoreScript.SCRIPT_NAME, params);
+                break;
+            case "dirichlet":
+                params.put("field", "text");
+                params.put("word_count_field", "word_count");
+                params.put("mu", 2000);
+                cursor = index.cursor(LanguageModelScoreScript.SCRIPT_NAME, params);
+                break;
+            case "jaccard":
+                params.put("field", "tags");
+                cursor = index.cursor(JaccardSimilarityScoreScript.SCRIPT_NAME, params);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown script [" + script + "]");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Benchmark
+    public double score() throws IOException {
+        return cursor.next().runAsDouble();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.benchmark;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.examples.nativescript.aggregation.StockProfitAggregationBuilder;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.examples.nativescript.script.stockaggs.CombineScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.InitScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.MapScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.ReduceScriptFactory;
+import org.elasticsearch.script.LeafSearchScript;
+import org.elasticsearch.script.SearchScript;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.internal.SearchContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stock aggregation scripts: {@link #map()} measures the map script per document, {@link #aggregate()}
+ * runs the whole init, map, combine and reduce chain over the index like a single shard scripted metric
+ * aggregation. {@link #nativeAggregation()} computes the same profit with the {@code stock_profit} aggregation.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class StockAggsBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int numDocs;
+
+    @Param({"42"})
+    public long seed;
+
+    // whether the scripts also summarize the sizes of the transactions
+    @Param({"false", "true"})
+    public boolean stats;
+
+    // fraction of the documents that the native aggregation reads
+    @Param({"1", "0.1", "0.01"})
+    public double sampleRate;
+
+    private BenchmarkIndex index;
+
+    private BenchmarkIndex.DocumentCursor cursor;
+
+    private SearchContext searchContext;
+
+    @Setup
+    public void setup() throws IOException {
+        index = new BenchmarkIndex(numDocs, 100, 1, 0, 1000, seed, new ScriptMetrics(), Arrays.asList(
+            new InitScriptFactory(), new MapScriptFactory(), new CombineScriptFactory(), new ReduceScriptFactory()));
+        // the state of the aggregation is reset for every pass over the index
+        cursor = index.cursor(() -> mapScript(newAggregation()));
+        searchContext = index.searchContext();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    private Map<String, Object> newAggregation() {
+        Map<String, Object> agg = new HashMap<>();
+        Map<String, Object> params = new HashMap<>();
+        params.put("_agg", agg);
+        params.put("stats", stats);
+        index.executableScript("stockaggs_init", params).run();
+        return agg;
+    }
+
+    private SearchScript mapScript(Map<String, Object> agg) {
+        return index.searchScript("stockaggs_map", Collections.singletonMap("_agg", agg));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object map() throws IOException {
+        return cursor.next().run();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object aggregate() throws IOException {
+        Map<String, Object> agg = newAggregation();
+        SearchScript map = mapScript(agg);
+        for (LeafReaderContext leaf : index.reader().leaves()) {
+            LeafSearchScript leafScript = map.getLeafSearchScript(leaf);
+            int maxDoc = leaf.reader().maxDoc();
+            for (int doc = 0; doc < maxDoc; doc++) {
+                leafScript.setDocument(doc);
+                leafScript.run();
+            }
+        }
+        Object shardResult = index.executableScript("stockaggs_combine", Collections.singletonMap("_agg", agg)).run();
+        return index.executableScript("stockaggs_reduce", Collections.singletonMap("_aggs", new ArrayList<>(Collections.singletonList(shardResult))))
+            .run();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object nativeAggregation() throws IOException {
+        Aggregator aggregator = new StockProfitAggregationBuilder("profit").sampleRate(sampleRate).build(searchContext, null).create(null, true);
+        try {
+            aggregator.preCollection();
+            for (LeafReaderContext leaf : index.reader().leaves()) {
+                LeafBucketCollector collector = aggregator.getLeafCollector(leaf);
+                int maxDoc = leaf.reader().maxDoc();
+                for (int doc = 0; doc < maxDoc; doc++) {
+                    collector.collect(doc, 0);
+                }
+            }
+            aggregator.postCollection();
+            return aggregator.buildAggregation(0);
+        } finally {
+            // closes the aggregator like the end of the query phase
+            searchContext.clearReleasables(SearchContext.Lifetime.PHASE);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.benchmark;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.lucene.search.function.FunctionScoreQuery;
+import org.elasticsearch.common.lucene.search.function.ScriptScoreFunction;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.examples.nativescript.query.TermSimilarityQuery;
+import org.elasticsearch.examples.nativescript.script.CosineSimilarityScoreScript;
+import org.elasticsearch.examples.nativescript.script.LeafScriptEngineService;
+import org.elasticsearch.examples.nativescript.script.QueryVector;
+import org.elasticsearch.examples.nativescript.script.QueryVectorCache;
+import org.elasticsearch.examples.nativescript.script.TFIDFScoreScript;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top 10 searches with the term similarities, either scored by the script in a {@code function_score} query
+ * over the matching documents ({@code script}), by the {@link TermSimilarityQuery} that skips documents which
+ * cannot enter the top 10 ({@code query}), or by the same query scoring every matching document
+ * ({@code query_all}). The setup prints how many documents each of them scores.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class TermSimilarityBenchmark {
+
+    @Param({"cosine", "tfidf"})
+    public String similarity;
+
+    @Param({"script", "query", "query_all"})
+    public String mode;
+
+    @Param({"4", "16"})
+    public int queryTerms;
+
+    @Param({"100000"})
+    public int numDocs;
+
+    @Param({"10000"})
+    public int vocabulary;
+
+    @Param({"100"})
+    public int docLength;
+
+    @Param({"42"})
+    public long seed;
+
+    private BenchmarkIndex index;
+
+    private IndexSearcher searcher;
+
+    private Query query;
+
+    @Setup
+    public void setup() throws IOException {
+        ScriptMetrics metrics = new ScriptMetrics();
+        QueryVectorCache queryVectors = new QueryVectorCache(QueryVectorCache.MAX_BYTES_SETTING.get(Settings.EMPTY));
+        index = new BenchmarkIndex(numDocs, vocabulary, docLength, 0, 1000, seed, metrics, Arrays.asList(
+            new CosineSimilarityScoreScript.Factory(metrics, queryVectors),
+            new TFIDFScoreScript.Factory(metrics, queryVectors)));
+        searcher = new IndexSearcher(index.reader());
+
+        Random random = new Random(seed);
+        List<String> terms = index.randomTerms(random, queryTerms);
+        List<Double> weights = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            weights.add(1.0 + random.nextInt(4));
+        }
+        query = query(mode, terms, weights);
+        if ("query".equals(mode)) {
+            System.out.printf(Locale.ROOT, "%n%s over %d terms scores %d documents, %d without skipping%n", similarity, queryTerms,
+                searcher.search(query, 10).totalHits, searcher.search(query("query_all", terms, weights), 10).totalHits);
+        }
+    }
+
+    private Query query(String mode, List<String> terms, List<Double> weights) {
+        boolean cosine = "cosine".equals(similarity);
+        if ("script".equals(mode)) {
+            Map<String, Object> params = new HashMap<>();
+            params.put("field", "text");
+            params.put("terms", new ArrayList<>(terms));
+            params.put("weights", weights);
+            params.put("norm_field", "text_norm");
+            String name = cosine ? CosineSimilarityScoreScript.SCRIPT_NAME : TFIDFScoreScript.SCRIPT_NAME;
+            BooleanQuery.Builder matches = new BooleanQuery.Builder();
+            for (String term : terms) {
+                matches.add(new TermQuery(new Term("text", term)), BooleanClause.Occur.SHOULD);
+            }
+            Script script = new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, name, params);
+            return new FunctionScoreQuery(matches.build(), new ScriptScoreFunction(script,
+                index.searchScript(name, params)), null, CombineFunction.REPLACE, Float.MAX_VALUE);
+        }
+        int k = "query".equals(mode) ? 10 : 0;
+        double[] queryWeights = new double[terms.size()];
+        for (int i = 0; i < queryWeights.length; i++) {
+            queryWeights[i] = weights.get(i);
+        }
+        QueryVector vector = new QueryVector(terms.toArray(new String[terms.size()]), queryWeights);
+        return cosine ? TermSimilarityQuery.cosine("text", vector, (IndexNumericFieldData) index.fieldData("text_norm"), false, k)
+            : TermSimilarityQuery.tfidf("text", vector, k);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Benchmark
+    public TopDocs search() throws IOException {
+        return searcher.search(query, 10);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.benchmark;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.examples.nativescript.script.DenseVectorScoreScript;
+import org.elasticsearch.examples.nativescript.script.QuantizedVectorScoreScript;
+import org.elasticsearch.script.LeafSearchScript;
+import org.elasticsearch.script.SearchScript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per document throughput of the cosine similarity of float and int8 quantized vectors.
+ * <p>
+ * For the {@code int8} encoding the setup also prints the recall of the quantized scores: the fraction of the
+ * exact top {@code k} documents of the float vectors that are found in the top {@code k} of the quantized
+ * vectors, and in the top {@code k} after rescoring the quantized top {@code window} documents with the float
+ * vectors.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class VectorBenchmark {
+
+    @Param({"float", "int8"})
+    public String encoding;
+
+    @Param({"128", "768"})
+    public int dims;
+
+    @Param({"10000"})
+    public int numDocs;
+
+    @Param({"10"})
+    public int k;
+
+    @Param({"100"})
+    public int window;
+
+    @Param({"42"})
+    public long seed;
+
+    private BenchmarkIndex index;
+
+    private BenchmarkIndex.DocumentCursor cursor;
+
+    @Setup
+    public void setup() throws IOException {
+        ScriptMetrics metrics = new ScriptMetrics();
+        index = new BenchmarkIndex(numDocs, 100, 1, dims, 1000, seed, metrics, Arrays.asList(
+            new DenseVectorScoreScript.Factory(metrics, true),
+            new QuantizedVectorScoreScript.Factory(metrics, true)));
+
+        Random random = new Random(seed);
+        switch (encoding) {
+            case "float":
+                cursor = index.cursor(DenseVectorScoreScript.COSINE_SCRIPT_NAME, params("vector", random));
+                break;
+            case "int8":
+                cursor = index.cursor(QuantizedVectorScoreScript.COSINE_SCRIPT_NAME, params("vector_int8", random));
+                printRecall(random, 20);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown encoding [" + encoding + "]");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Benchmark
+    public double score() throws IOException {
+        return cursor.next().runAsDouble();
+    }
+
+    private Map<String, Object> params(String field, Random random) {
+        List<Float> vector = new ArrayList<>(dims);
+        for (float value : BenchmarkIndex.randomVector(random, dims)) {
+            vector.add(value);
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", field);
+        params.put("vector", vector);
+        return params;
+    }
+
+    private void printRecall(Random random, int queries) throws IOException {
+        double recall = 0;
+        double rescoredRecall = 0;
+        for (int i = 0; i < queries; i++) {
+            Map<String, Object> params = params("vector", random);
+            double[] exact = scores(index.searchScript(DenseVectorScoreScript.COSINE_SCRIPT_NAME, params));
+            params.put("field", "vector_int8");
+            double[] quantized = scores(index.searchScript(QuantizedVectorScoreScript.COSINE_SCRIPT_NAME, params));
+
+            int[] expected = top(exact, k);
+            recall += overlap(expected, top(quantized, k));
+            // the rescore window is ranked by the quantized scores and reordered by the exact ones
+            int[] candidates = top(quantized, window);
+            double[] rescored = new double[numDocs];
+            Arrays.fill(rescored, Double.NEGATIVE_INFINITY);
+            for (int doc : candidates) {
+                rescored[doc] = exact[doc];
+            }
+            rescoredRecall += overlap(expected, top(rescored, k));
+        }
+        System.out.printf(Locale.ROOT, "%nrecall@%d of int8 cosine over %d dims: %.3f, %.3f after rescoring the top %d%n", k, dims,
+            recall / queries, rescoredRecall / queries, window);
+    }
+
+    /**
+     * Scores of all documents of the index, by global doc id
+     */
+    private double[] scores(SearchScript script) throws IOException {
+        double[] scores = new double[numDocs];
+        for (LeafReaderContext leaf : index.reader().leaves()) {
+            LeafSearchScript leafScript = script.getLeafSearchScript(leaf);
+            int maxDoc = leaf.reader().maxDoc();
+            for (int doc = 0; doc < maxDoc; doc++) {
+                leafScript.setDocument(doc);
+                scores[leaf.docBase + doc] = leafScript.runAsDouble();
+            }
+        }
+        return scores;
+    }
+
+    private static int[] top(double[] scores, int n) {
+        Integer[] docs = new Integer[scores.length];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = i;
+        }
+        Arrays.sort(docs, (a, b) -> Double.compare(scores[b], scores[a]));
+        int[] top = new int[Math.min(n, docs.length)];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = docs[i];
+        }
+        return top;
+    }
+
+    private static double overlap(int[] expected, int[] actual) {
+        int found = 0;
+        for (int doc : expected) {
+            for (int other : actual) {
+                if (doc == other) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        return (double) found / expected.length;
+    }
+}
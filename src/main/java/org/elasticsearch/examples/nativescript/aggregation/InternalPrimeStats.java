@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.aggregation;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.metrics.InternalNumericMetricsAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of the {@code prime_stats} aggregation of a bucket.
+ */
+public class InternalPrimeStats extends InternalNumericMetricsAggregation.MultiValue {
+
+    enum Metrics {
+        count, min, max, density;
+
+        static Metrics resolve(String name) {
+            return Metrics.valueOf(name);
+        }
+    }
+
+    private final long count;
+    private final long valueCount;
+    private final long min;
+    private final long max;
+
+    public InternalPrimeStats(String name, long count, long valueCount, long min, long max, DocValueFormat format,
+                              List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+        super(name, pipelineAggregators, metaData);
+        this.count = count;
+        this.valueCount = valueCount;
+        this.min = min;
+        this.max = max;
+        this.format = format;
+    }
+
+    public InternalPrimeStats(StreamInput in) throws IOException {
+        super(in);
+        format = in.readNamedWriteable(DocValueFormat.class);
+        count = in.readVLong();
+        valueCount = in.readVLong();
+        min = in.readLong();
+        max = in.readLong();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeNamedWriteable(format);
+        out.writeVLong(count);
+        out.writeVLong(valueCount);
+        out.writeLong(min);
+        out.writeLong(max);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return PrimeStatsAggregationBuilder.NAME;
+    }
+
+    /**
+     * Returns the number of prime values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of values, prime or not
+     */
+    public long getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * Returns the smallest prime value, {@link Long#MAX_VALUE} if there are none
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest prime value, {@link Long#MIN_VALUE} if there are none
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the fraction of the values that are prime
+     */
+    public double getDensity() {
+        return (double) count / valueCount;
+    }
+
+    @Override
+    public double value(String name) {
+        return metric(Metrics.resolve(name), count, valueCount, min, max);
+    }
+
+    static double metric(Metrics metric, long count, long valueCount, long min, long max) {
+        switch (metric) {
+            case count:
+                return count;
+            case min:
+                return count == 0 ? Double.POSITIVE_INFINITY : min;
+            case max:
+                return count == 0 ? Double.NEGATIVE_INFINITY : max;
+            case density:
+                return (double) count / valueCount;
+            default:
+                throw new IllegalArgumentException("Unknown value [" + metric + "] in prime stats aggregation");
+        }
+    }
+
+    @Override
+    public InternalPrimeStats doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+        long count = 0;
+        long valueCount = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (InternalAggregation aggregation : aggregations) {
+            InternalPrimeStats stats = (InternalPrimeStats) aggregation;
+            count += stats.count;
+            valueCount += stats.valueCount;
+            min = Math.min(min, stats.min);
+            max = Math.max(max, stats.max);
+        }
+        return new InternalPrimeStats(name, count, valueCount, min, max, format, pipelineAggregators(), getMetaData());
+    }
+
+    @Override
+    public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+        builder.field("count", count);
+        builder.field("value_count", valueCount);
+        if (count != 0) {
+            builder.field("min", min);
+            builder.field("max", max);
+            if (format != DocValueFormat.RAW) {
+                builder.field("min_as_string", format.format(min));
+                builder.field("max_as_string", format.format(max));
+            }
+        } else {
+            builder.nullField("min");
+            builder.nullField("max");
+        }
+        if (valueCount != 0) {
+            builder.field("density", getDensity());
+        } else {
+            builder.nullField("density");
+        }
+        return builder;
+    }
+}
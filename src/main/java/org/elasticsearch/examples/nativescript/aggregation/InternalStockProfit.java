@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.aggregation;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.examples.nativescript.script.stockaggs.WideSum;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.metrics.InternalNumericMetricsAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of the {@code stock_profit} aggregation of a bucket.
+ * <p>
+ * The profit is kept as a {@link WideSum}, so it stays exact when it overflows a long. If the profit was
+ * estimated from a sample of the transactions, it keeps the sum of the signed amounts of the
+ * sample and of their squares, which add up across shards, and scales them by the sample rate when read.
+ */
+public class InternalStockProfit extends InternalNumericMetricsAggregation.SingleValue {
+
+    static final String ERROR_FIELD = "error";
+    static final String SAMPLE_RATE_FIELD = "sample_rate";
+
+    // the wrapped 64 bits of the profit and the number of wrap arounds, see WideSum
+    private final long profit;
+    private final long wraps;
+    private final double squares;
+    private final double sampleRate;
+
+    public InternalStockProfit(String name, long[] profit, double squares, double sampleRate, DocValueFormat format,
+                               List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+        super(name, pipelineAggregators, metaData);
+        this.profit = profit[0];
+        this.wraps = profit[1];
+        this.squares = squares;
+        this.sampleRate = sampleRate;
+        this.format = format;
+    }
+
+    public InternalStockProfit(StreamInput in) throws IOException {
+        super(in);
+        format = in.readNamedWriteable(DocValueFormat.class);
+        profit = in.readLong();
+        wraps = in.readLong();
+        squares = in.readDouble();
+        sampleRate = in.readDouble();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeNamedWriteable(format);
+        out.writeLong(profit);
+        out.writeLong(wraps);
+        out.writeDouble(squares);
+        out.writeDouble(sampleRate);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return StockProfitAggregationBuilder.NAME;
+    }
+
+    /**
+     * Returns the amount of the sales minus the amount of the other transactions, rounded if it is estimated
+     * from a sample
+     */
+    public BigInteger getProfit() {
+        if (isSampled()) {
+            return new BigDecimal(value()).setScale(0, RoundingMode.HALF_UP).toBigInteger();
+        }
+        return WideSum.toBigInteger(sum());
+    }
+
+    private long[] sum() {
+        return new long[] {profit, wraps};
+    }
+
+    /**
+     * Returns whether the profit is estimated from a sample of the transactions
+     */
+    public boolean isSampled() {
+        return sampleRate < 1;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Returns the standard error of the estimated profit, 0 if the profit is exact
+     */
+    public double getError() {
+        // Horvitz-Thompson variance of a sum where every document is sampled with the same probability
+        return Math.sqrt((1 - sampleRate) / (sampleRate * sampleRate) * squares);
+    }
+
+    @Override
+    public double value() {
+        return isSampled() ? WideSum.toDouble(sum()) / sampleRate : WideSum.toDouble(sum());
+    }
+
+    @Override
+    public InternalStockProfit doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+        long[] profit = WideSum.newSum();
+        double squares = 0;
+        for (InternalAggregation aggregation : aggregations) {
+            InternalStockProfit shardProfit = (InternalStockProfit) aggregation;
+            WideSum.add(profit, shardProfit.profit, shardProfit.wraps);
+            squares += shardProfit.squares;
+        }
+        return new InternalStockProfit(name, profit, squares, sampleRate, format, pipelineAggregators(), getMetaData());
+    }
+
+    @Override
+    public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+        if (isSampled()) {
+            builder.field(CommonFields.VALUE.getPreferredName(), value());
+            builder.field(ERROR_FIELD, getError());
+            builder.field(SAMPLE_RATE_FIELD, sampleRate);
+        } else {
+            // a string if the profit overflows a long, like the profit of the scripts
+            builder.field(CommonFields.VALUE.getPreferredName(), WideSum.toValue(sum()));
+        }
+        if (format != DocValueFormat.RAW) {
+            builder.field(CommonFields.VALUE_AS_STRING.getPreferredName(),
+                isSampled() || WideSum.fitsInLong(sum()) == false ? format.format(value()) : format.format(profit));
+        }
+        return builder;
+    }
+}
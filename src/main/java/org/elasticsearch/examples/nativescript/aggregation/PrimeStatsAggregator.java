@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.aggregation;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.elasticsearch.common.lease.Releasables;
+import org.elasticsearch.common.util.BigArrays;
+import org.elasticsearch.common.util.LongArray;
+import org.elasticsearch.examples.nativescript.script.PrimeCache;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.metrics.NumericMetricsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.aggregations.support.ValuesSource;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the prime statistics of every owning bucket into big arrays indexed by the bucket
+ * ordinal, so a {@code terms} parent with many buckets doesn't create an object per bucket
+ * or per document.
+ */
+public class PrimeStatsAggregator extends NumericMetricsAggregator.MultiValue {
+
+    private final ValuesSource.Numeric valuesSource;
+    private final DocValueFormat format;
+
+    private LongArray counts;
+    private LongArray valueCounts;
+    private LongArray mins;
+    private LongArray maxes;
+
+    public PrimeStatsAggregator(String name, ValuesSource.Numeric valuesSource, DocValueFormat format, SearchContext context,
+                                Aggregator parent, List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData)
+        throws IOException {
+        super(name, context, parent, pipelineAggregators, metaData);
+        this.valuesSource = valuesSource;
+        this.format = format;
+        if (valuesSource != null) {
+            BigArrays bigArrays = context.bigArrays();
+            counts = bigArrays.newLongArray(1, true);
+            valueCounts = bigArrays.newLongArray(1, true);
+            mins = bigArrays.newLongArray(1, false);
+            mins.fill(0, mins.size(), Long.MAX_VALUE);
+            maxes = bigArrays.newLongArray(1, false);
+            maxes.fill(0, maxes.size(), Long.MIN_VALUE);
+        }
+    }
+
+    @Override
+    public boolean needsScores() {
+        return valuesSource != null && valuesSource.needsScores();
+    }
+
+    @Override
+    public LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+        if (valuesSource == null) {
+            return LeafBucketCollector.NO_OP_COLLECTOR;
+        }
+        final BigArrays bigArrays = context.bigArrays();
+        final SortedNumericDocValues values = valuesSource.longValues(ctx);
+        return new LeafBucketCollectorBase(sub, values) {
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                if (bucket >= counts.size()) {
+                    long from = counts.size();
+                    long overSize = BigArrays.overSize(bucket + 1);
+                    counts = bigArrays.resize(counts, overSize);
+                    valueCounts = bigArrays.resize(valueCounts, overSize);
+                    mins = bigArrays.resize(mins, overSize);
+                    maxes = bigArrays.resize(maxes, overSize);
+                    mins.fill(from, overSize, Long.MAX_VALUE);
+                    maxes.fill(from, overSize, Long.MIN_VALUE);
+                }
+                values.setDocument(doc);
+                int valuesCount = values.count();
+                if (valuesCount == 0) {
+                    return;
+                }
+                valueCounts.increment(bucket, valuesCount);
+                long count = 0;
+                long min = mins.get(bucket);
+                long max = maxes.get(bucket);
+                for (int i = 0; i < valuesCount; i++) {
+                    long value = values.valueAt(i);
+                    if (PrimeCache.isPrime(value)) {
+                        count++;
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                    }
+                }
+                if (count > 0) {
+                    counts.increment(bucket, count);
+                    mins.set(bucket, min);
+                    maxes.set(bucket, max);
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean hasMetric(String name) {
+        try {
+            InternalPrimeStats.Metrics.resolve(name);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public double metric(String name, long owningBucketOrd) {
+        if (valuesSource == null || owningBucketOrd >= counts.size()) {
+            return InternalPrimeStats.metric(InternalPrimeStats.Metrics.resolve(name), 0, 0, Long.MAX_VALUE, Long.MIN_VALUE);
+        }
+        return InternalPrimeStats.metric(InternalPrimeStats.Metrics.resolve(name), counts.get(owningBucketOrd),
+            valueCounts.get(owningBucketOrd), mins.get(owningBucketOrd), maxes.get(owningBucketOrd));
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long bucket) {
+        if (valuesSource == null || bucket >= counts.size()) {
+            return buildEmptyAggregation();
+        }
+        return new InternalPrimeStats(name, counts.get(bucket), valueCounts.get(bucket), mins.get(bucket), maxes.get(bucket), format,
+            pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        return new InternalPrimeStats(name, 0, 0, Long.MAX_VALUE, Long.MIN_VALUE, format, pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public void doClose() {
+        Releasables.close(counts, valueCounts, mins, maxes);
+    }
+}
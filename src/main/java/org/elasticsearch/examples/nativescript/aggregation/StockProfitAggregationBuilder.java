@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.aggregation;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.examples.nativescript.script.stockaggs.MapScriptFactory;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Native version of the {@code stockaggs_*} scripted metric aggregation: the sum of the
+ * amounts of the sales minus the sum of the amounts of all other transactions.
+ * <pre>
+ * {
+ *   "aggs": {
+ *     "profit": {
+ *       "stock_profit": {
+ *         "amount_field": "amount",
+ *         "type_field": "type",
+ *         "sale_type": "sale"
+ *       }
+ *     }
+ *   }
+ * }
+ * </pre>
+ * All the parameters are optional and default to the fields of the scripts. Instead of
+ * {@code sale_type}, {@code signs} maps the types of the transactions to the sign of their
+ * amount like the {@code signs} parameter of the scripts, see {@link MapScriptFactory#parseSigns},
+ * and transactions of the other types are subtracted. Like the scripts the profit is exact
+ * even if it overflows a long, it is then returned as a string. The doc values
+ * of both fields are bound once per segment and the profit of every parent bucket is kept in
+ * a big array, so the aggregation can be nested in {@code terms} or {@code date_histogram}
+ * aggregations. Like the scripts it uses the first amount and the first type of a document.
+ * <p>
+ * On large indices an approximate profit can be computed from a sample of the transactions by setting
+ * {@code sample_rate} to the fraction of the documents to read. Documents are picked by a hash of their
+ * id within the segment, so the same documents are sampled on every request, and the sum of the sample is
+ * scaled back by the rate. The result then also has the standard {@code error} of the estimate.
+ */
+public class StockProfitAggregationBuilder extends AbstractAggregationBuilder<StockProfitAggregationBuilder> {
+
+    public static final String NAME = "stock_profit";
+
+    public static final String DEFAULT_AMOUNT_FIELD = "amount";
+    public static final String DEFAULT_TYPE_FIELD = "type";
+    public static final String DEFAULT_SALE_TYPE = "sale";
+
+    private static final ParseField AMOUNT_FIELD_FIELD = new ParseField("amount_field");
+    private static final ParseField TYPE_FIELD_FIELD = new ParseField("type_field");
+    private static final ParseField SALE_TYPE_FIELD = new ParseField("sale_type");
+    private static final ParseField SIGNS_FIELD = new ParseField("signs");
+    private static final ParseField SAMPLE_RATE_FIELD = new ParseField("sample_rate");
+
+    private static final ObjectParser<StockProfitAggregationBuilder, QueryParseContext> PARSER = new ObjectParser<>(NAME);
+
+    static {
+        PARSER.declareString(StockProfitAggregationBuilder::amountField, AMOUNT_FIELD_FIELD);
+        PARSER.declareString(StockProfitAggregationBuilder::typeField, TYPE_FIELD_FIELD);
+        PARSER.declareString(StockProfitAggregationBuilder::saleType, SALE_TYPE_FIELD);
+        PARSER.declareObject(StockProfitAggregationBuilder::signs, (p, c) -> MapScriptFactory.parseSigns(p.map()), SIGNS_FIELD);
+        PARSER.declareDouble(StockProfitAggregationBuilder::sampleRate, SAMPLE_RATE_FIELD);
+    }
+
+    public static AggregationBuilder parse(String aggregationName, QueryParseContext context) throws IOException {
+        return PARSER.parse(context.parser(), new StockProfitAggregationBuilder(aggregationName), context);
+    }
+
+    private String amountField = DEFAULT_AMOUNT_FIELD;
+    private String typeField = DEFAULT_TYPE_FIELD;
+    // at most one of them is set
+    private String saleType;
+    private Map<String, Integer> signs;
+    private double sampleRate = 1;
+
+    public StockProfitAggregationBuilder(String name) {
+        super(name);
+    }
+
+    public StockProfitAggregationBuilder(StreamInput in) throws IOException {
+        super(in);
+        amountField = in.readString();
+        typeField = in.readString();
+        saleType = in.readOptionalString();
+        if (in.readBoolean()) {
+            int size = in.readVInt();
+            signs = new HashMap<>(size);
+            for (int i = 0; i < size; i++) {
+                signs.put(in.readString(), (int) in.readZLong());
+            }
+        }
+        sampleRate = in.readDouble();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(amountField);
+        out.writeString(typeField);
+        out.writeOptionalString(saleType);
+        out.writeBoolean(signs != null);
+        if (signs != null) {
+            out.writeVInt(signs.size());
+            for (Map.Entry<String, Integer> sign : signs.entrySet()) {
+                out.writeString(sign.getKey());
+                out.writeZLong(sign.getValue());
+            }
+        }
+        out.writeDouble(sampleRate);
+    }
+
+    /**
+     * Sets the numeric field with the amount of the transactions
+     */
+    public StockProfitAggregationBuilder amountField(String amountField) {
+        this.amountField = Objects.requireNonNull(amountField, "[amount_field] must not be null");
+        return this;
+    }
+
+    public String amountField() {
+        return amountField;
+    }
+
+    /**
+     * Sets the keyword field with the type of the transactions
+     */
+    public StockProfitAggregationBuilder typeField(String typeField) {
+        this.typeField = Objects.requireNonNull(typeField, "[type_field] must not be null");
+        return this;
+    }
+
+    public String typeField() {
+        return typeField;
+    }
+
+    /**
+     * Sets the type of the transactions that are added to the profit, the others are subtracted
+     */
+    public StockProfitAggregationBuilder saleType(String saleType) {
+        this.saleType = Objects.requireNonNull(saleType, "[sale_type] must not be null");
+        return this;
+    }
+
+    public String saleType() {
+        return saleType;
+    }
+
+    /**
+     * Sets the sign the amounts of the types of transactions are added to the profit with, instead of a sale type
+     */
+    public StockProfitAggregationBuilder signs(Map<String, Integer> signs) {
+        this.signs = MapScriptFactory.parseSigns(new HashMap<>(Objects.requireNonNull(signs, "[signs] must not be null")));
+        return this;
+    }
+
+    public Map<String, Integer> signs() {
+        return signs;
+    }
+
+    /**
+     * Sets the fraction of the documents that the profit is estimated from, 1 to read all of them
+     */
+    public StockProfitAggregationBuilder sampleRate(double sampleRate) {
+        if ((sampleRate > 0 && sampleRate <= 1) == false) {
+            throw new IllegalArgumentException("[" + SAMPLE_RATE_FIELD.getPreferredName() + "] must be greater than 0 and at most 1 but was ["
+                + sampleRate + "] in [" + name + "]");
+        }
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    public double sampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    protected AggregatorFactory<?> doBuild(SearchContext context, AggregatorFactory<?> parent,
+                                           AggregatorFactories.Builder subFactoriesBuilder) throws IOException {
+        if (saleType != null && signs != null) {
+            throw new IllegalArgumentException("[" + SALE_TYPE_FIELD.getPreferredName() + "] and [" + SIGNS_FIELD.getPreferredName()
+                + "] cannot both be set in [" + name + "]");
+        }
+        Map<String, Integer> typeSigns = signs != null ? signs
+            : Collections.singletonMap(saleType != null ? saleType : DEFAULT_SALE_TYPE, 1);
+        return new StockProfitAggregatorFactory(name, amountField, typeField, typeSigns, sampleRate, context, parent,
+            subFactoriesBuilder, metaData);
+    }
+
+    @Override
+    protected XContentBuilder internalXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field(AMOUNT_FIELD_FIELD.getPreferredName(), amountField);
+        builder.field(TYPE_FIELD_FIELD.getPreferredName(), typeField);
+        if (saleType != null) {
+            builder.field(SALE_TYPE_FIELD.getPreferredName(), saleType);
+        }
+        if (signs != null) {
+            builder.field(SIGNS_FIELD.getPreferredName(), signs);
+        }
+        builder.field(SAMPLE_RATE_FIELD.getPreferredName(), sampleRate);
+        builder.endObject();
+        return builder;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(amountField, typeField, saleType, signs, sampleRate);
+    }
+
+    @Override
+    protected boolean doEquals(Object obj) {
+        StockProfitAggregationBuilder other = (StockProfitAggregationBuilder) obj;
+        return amountField.equals(other.amountField) && typeField.equals(other.typeField) && Objects.equals(saleType, other.saleType)
+            && Objects.equals(signs, other.signs) && sampleRate == other.sampleRate;
+    }
+
+    @Override
+    public String getType() {
+        return NAME;
+    }
+}
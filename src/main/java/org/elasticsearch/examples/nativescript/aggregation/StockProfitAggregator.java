@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.aggregation;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import com.carrotsearch.hppc.BitMixer;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.lease.Releasables;
+import org.elasticsearch.common.util.BigArrays;
+import org.elasticsearch.common.util.DoubleArray;
+import org.elasticsearch.common.util.LongArray;
+import org.elasticsearch.examples.nativescript.script.stockaggs.WideSum;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.fielddata.IndexOrdinalsFieldData;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.metrics.NumericMetricsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sums the signed amounts of the transactions of every owning bucket. The type of a transaction
+ * is compared by ordinal: the ordinals of the signed types are looked up once per segment, so the
+ * documents never turn their type into a string. The profit of a bucket is a {@link WideSum} whose
+ * wrapped 64 bits and wrap arounds are kept in two big arrays, the second one only grows once a
+ * profit overflows.
+ * <p>
+ * When sampling, a document is read only if the hash of its id within the segment falls below the sample
+ * rate. The signed amounts of the sample are summed up together with their squares, which give the variance
+ * of the Horvitz-Thompson estimate of the profit.
+ */
+public class StockProfitAggregator extends NumericMetricsAggregator.SingleValue {
+
+    private final IndexNumericFieldData amounts;
+    private final IndexOrdinalsFieldData typeFieldData;
+    private final BytesRef[] types;
+    private final int[] typeSigns;
+    private final double sampleRate;
+    // documents whose unsigned hash is below the threshold are sampled
+    private final long sampleThreshold;
+
+    private LongArray profits;
+    private LongArray wraps;
+    private DoubleArray squares;
+
+    public StockProfitAggregator(String name, IndexNumericFieldData amounts, IndexOrdinalsFieldData typeFieldData,
+                                 Map<String, Integer> signs, double sampleRate, SearchContext context, Aggregator parent,
+                                 List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) throws IOException {
+        super(name, context, parent, pipelineAggregators, metaData);
+        this.amounts = amounts;
+        this.typeFieldData = typeFieldData;
+        this.types = new BytesRef[signs.size()];
+        this.typeSigns = new int[signs.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> sign : signs.entrySet()) {
+            types[i] = new BytesRef(sign.getKey());
+            typeSigns[i] = sign.getValue();
+            i++;
+        }
+        this.sampleRate = sampleRate;
+        this.sampleThreshold = (long) Math.ceil(sampleRate * (1L << 32));
+        if (amounts != null) {
+            profits = context.bigArrays().newLongArray(1, true);
+            wraps = context.bigArrays().newLongArray(1, true);
+            if (sampleRate < 1) {
+                squares = context.bigArrays().newDoubleArray(1, true);
+            }
+        }
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    @Override
+    public LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+        if (amounts == null) {
+            return LeafBucketCollector.NO_OP_COLLECTOR;
+        }
+        final BigArrays bigArrays = context.bigArrays();
+        final SortedNumericDocValues amountValues = amounts.load(ctx).getLongValues();
+        final NumericDocValues singleAmounts = DocValues.unwrapSingleton(amountValues);
+        final SortedSetDocValues typeValues = typeFieldData.load(ctx).getOrdinalsValues();
+        final SortedDocValues singleTypes = DocValues.unwrapSingleton(typeValues);
+        // -1 if no document of the segment has the type
+        final long[] typeOrds = new long[types.length];
+        for (int i = 0; i < types.length; i++) {
+            typeOrds[i] = Math.max(-1, typeValues.lookupTerm(types[i]));
+        }
+        final boolean sampled = squares != null;
+        final long threshold = sampleThreshold;
+        return new LeafBucketCollectorBase(sub, null) {
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                if (sampled && (BitMixer.mix32(doc) & 0xFFFFFFFFL) >= threshold) {
+                    return;
+                }
+                profits = bigArrays.grow(profits, bucket + 1);
+                long amount;
+                if (singleAmounts != null) {
+                    // 0 if the document has no amount, like the scripts
+                    amount = singleAmounts.get(doc);
+                } else {
+                    amountValues.setDocument(doc);
+                    amount = amountValues.count() == 0 ? 0 : amountValues.valueAt(0);
+                }
+                long typeOrd;
+                if (singleTypes != null) {
+                    typeOrd = singleTypes.getOrd(doc);
+                } else {
+                    typeValues.setDocument(doc);
+                    typeOrd = typeValues.nextOrd();
+                }
+                int sign = -1;
+                if (typeOrd >= 0) {
+                    for (int i = 0; i < typeOrds.length; i++) {
+                        if (typeOrds[i] == typeOrd) {
+                            sign = typeSigns[i];
+                            break;
+                        }
+                    }
+                }
+                if (sign == 0) {
+                    return;
+                }
+                long low = profits.get(bucket);
+                long wrapped = sign > 0 ? WideSum.addWraps(low, amount) : WideSum.subtractWraps(low, amount);
+                profits.set(bucket, sign > 0 ? low + amount : low - amount);
+                if (wrapped != 0) {
+                    wraps = bigArrays.grow(wraps, bucket + 1);
+                    wraps.increment(bucket, wrapped);
+                }
+                if (sampled) {
+                    squares = bigArrays.grow(squares, bucket + 1);
+                    squares.increment(bucket, (double) amount * amount);
+                }
+            }
+        };
+    }
+
+    @Override
+    public double metric(long owningBucketOrd) {
+        return amounts == null || owningBucketOrd >= profits.size() ? 0 : WideSum.toDouble(profit(owningBucketOrd)) / sampleRate;
+    }
+
+    private long[] profit(long bucket) {
+        long[] profit = WideSum.newSum();
+        WideSum.add(profit, profits.get(bucket), bucket < wraps.size() ? wraps.get(bucket) : 0);
+        return profit;
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long bucket) {
+        if (amounts == null || bucket >= profits.size()) {
+            return buildEmptyAggregation();
+        }
+        double bucketSquares = squares == null || bucket >= squares.size() ? 0 : squares.get(bucket);
+        return new InternalStockProfit(name, profit(bucket), bucketSquares, sampleRate, DocValueFormat.RAW, pipelineAggregators(),
+            metaData());
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        return new InternalStockProfit(name, WideSum.newSum(), 0, sampleRate, DocValueFormat.RAW, pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public void doClose() {
+        Releasables.close(profits, wraps, squares);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.aggregation;
+
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.fielddata.IndexOrdinalsFieldData;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.search.aggregations.AggregationExecutionException;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class StockProfitAggregatorFactory extends AggregatorFactory<StockProfitAggregatorFactory> {
+
+    private final String amountField;
+    private final String typeField;
+    private final Map<String, Integer> signs;
+    private final double sampleRate;
+
+    public StockProfitAggregatorFactory(String name, String amountField, String typeField, Map<String, Integer> signs, double sampleRate,
+                                        SearchContext context, AggregatorFactory<?> parent, AggregatorFactories.Builder subFactoriesBuilder,
+                                        Map<String, Object> metaData) throws IOException {
+        super(name, context, parent, subFactoriesBuilder, metaData);
+        this.amountField = amountField;
+        this.typeField = typeField;
+        this.signs = signs;
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    protected Aggregator createInternal(Aggregator parent, boolean collectsFromSingleBucket, List<PipelineAggregator> pipelineAggregators,
+                                        Map<String, Object> metaData) throws IOException {
+        IndexFieldData<?> amounts = fieldData(amountField);
+        IndexFieldData<?> types = fieldData(typeField);
+        if (amounts == null || types == null) {
+            // nothing to aggregate on this shard
+            return new StockProfitAggregator(name, null, null, signs, sampleRate, context, parent, pipelineAggregators, metaData);
+        }
+        if (amounts instanceof IndexNumericFieldData == false
+            || ((IndexNumericFieldData) amounts).getNumericType().isFloatingPoint()) {
+            throw new AggregationExecutionException("[" + StockProfitAggregationBuilder.NAME + "] aggregation [" + name
+                + "] requires an integral amount field but [" + amountField + "] is not");
+        }
+        if (types instanceof IndexOrdinalsFieldData == false) {
+            throw new AggregationExecutionException("[" + StockProfitAggregationBuilder.NAME + "] aggregation [" + name
+                + "] requires a keyword type field but [" + typeField + "] is not");
+        }
+        return new StockProfitAggregator(name, (IndexNumericFieldData) amounts, (IndexOrdinalsFieldData) types, signs,
+            sampleRate, context, parent, pipelineAggregators, metaData);
+    }
+
+    private IndexFieldData<?> fieldData(String field) {
+        MappedFieldType fieldType = context.smartNameFieldType(field);
+        return fieldType == null ? null : context.fieldData().getForField(fieldType);
+    }
+}
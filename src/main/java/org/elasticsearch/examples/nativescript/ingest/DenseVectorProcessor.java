@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.ingest;
+
+import org.elasticsearch.examples.nativescript.script.DenseVector;
+import org.elasticsearch.examples.nativescript.script.QuantizedVector;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ingest processor that encodes an array of numbers as a dense vector and stores it in
+ * another field, which should be mapped as a {@code binary} field with
+ * {@code "doc_values": true}:
+ * <pre>
+ * {
+ *   "dense_vector": {
+ *     "field": "embedding",
+ *     "target_field": "embedding_vector",
+ *     "dims": 128
+ *   }
+ * }
+ * </pre>
+ * The optional {@code dims} setting rejects documents whose vector has a different
+ * number of dimensions. The vectors are scored by the
+ * {@link org.elasticsearch.examples.nativescript.script.DenseVectorScoreScript}.
+ * <p>
+ * With {@code "quantize": true} the vector is stored with one byte per dimension
+ * instead of four, see {@link QuantizedVector}, and is scored by the
+ * {@link org.elasticsearch.examples.nativescript.script.QuantizedVectorScoreScript}.
+ */
+public final class DenseVectorProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "dense_vector";
+
+    private final String field;
+    private final String targetField;
+    private final int dims;
+    private final boolean quantize;
+    private final boolean ignoreMissing;
+
+    DenseVectorProcessor(String tag, String field, String targetField, int dims, boolean quantize, boolean ignoreMissing) {
+        super(tag);
+        this.field = field;
+        this.targetField = targetField;
+        this.dims = dims;
+        this.quantize = quantize;
+        this.ignoreMissing = ignoreMissing;
+    }
+
+    @Override
+    public void execute(IngestDocument document) throws Exception {
+        List<?> values = document.getFieldValue(field, List.class, ignoreMissing);
+        if (values == null) {
+            if (ignoreMissing) {
+                return;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot encode it as a vector");
+        }
+        if (dims > 0 && values.size() != dims) {
+            throw new IllegalArgumentException("field [" + field + "] has " + values.size() + " dimensions but " + dims + " are expected");
+        }
+        float[] vector = DenseVector.parse(values);
+        document.setFieldValue(targetField, quantize ? QuantizedVector.quantize(vector).encode() : DenseVector.encode(vector));
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        @Override
+        public DenseVectorProcessor create(Map<String, Processor.Factory> registry, String tag, Map<String, Object> config) throws Exception {
+            String field = ConfigurationUtils.readStringProperty(TYPE, tag, config, "field");
+            String targetField = ConfigurationUtils.readStringProperty(TYPE, tag, config, "target_field", field + "_vector");
+            int dims = ConfigurationUtils.readIntProperty(TYPE, tag, config, "dims", 0);
+            boolean quantize = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "quantize", false);
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
+            return new DenseVectorProcessor(tag, field, targetField, dims, quantize, ignoreMissing);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.ingest;
+
+import org.elasticsearch.examples.nativescript.script.DenseVector;
+import org.elasticsearch.examples.nativescript.script.RandomHyperplaneLsh;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ingest processor that computes the random hyperplane LSH bucket tokens of a vector
+ * and stores them in another field, which should be mapped as a {@code keyword} field:
+ * <pre>
+ * {
+ *   "lsh": {
+ *     "field": "embedding",
+ *     "target_field": "embedding_lsh",
+ *     "tables": 8,
+ *     "bits": 8
+ *   }
+ * }
+ * </pre>
+ * An array of numbers is hashed as a dense vector. A string or an array of strings is
+ * hashed as a term vector weighted by the number of occurrences of every term. Zero
+ * vectors and documents without terms don't get buckets. The buckets are matched by the
+ * {@link org.elasticsearch.examples.nativescript.query.LshQueryBuilder} with the same
+ * number of tables and bits, see {@link RandomHyperplaneLsh}.
+ */
+public final class LshProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "lsh";
+
+    private final String field;
+    private final String targetField;
+    private final int tables;
+    private final int bits;
+    private final boolean ignoreMissing;
+
+    LshProcessor(String tag, String field, String targetField, int tables, int bits, boolean ignoreMissing) {
+        super(tag);
+        this.field = field;
+        this.targetField = targetField;
+        this.tables = tables;
+        this.bits = bits;
+        this.ignoreMissing = ignoreMissing;
+    }
+
+    @Override
+    public void execute(IngestDocument document) throws Exception {
+        Object value = document.getFieldValue(field, Object.class, ignoreMissing);
+        if (value == null) {
+            if (ignoreMissing) {
+                return;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot compute its lsh buckets");
+        }
+        Collection<?> values = value instanceof Collection ? (Collection<?>) value : Collections.singletonList(value);
+        if (values.isEmpty()) {
+            return;
+        }
+        List<String> buckets;
+        if (values.iterator().next() instanceof Number) {
+            buckets = RandomHyperplaneLsh.buckets(DenseVector.parse(new ArrayList<>(values)), tables, bits);
+        } else {
+            Map<String, Integer> counts = new HashMap<>();
+            for (Object term : values) {
+                counts.merge(term.toString(), 1, Integer::sum);
+            }
+            buckets = RandomHyperplaneLsh.buckets(counts, tables, bits);
+        }
+        if (buckets.isEmpty() == false) {
+            document.setFieldValue(targetField, buckets);
+        }
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        @Override
+        public LshProcessor create(Map<String, Processor.Factory> registry, String tag, Map<String, Object> config) throws Exception {
+            String field = ConfigurationUtils.readStringProperty(TYPE, tag, config, "field");
+            String targetField = ConfigurationUtils.readStringProperty(TYPE, tag, config, "target_field", field + "_lsh");
+            int tables = ConfigurationUtils.readIntProperty(TYPE, tag, config, "tables", RandomHyperplaneLsh.DEFAULT_TABLES);
+            int bits = ConfigurationUtils.readIntProperty(TYPE, tag, config, "bits", RandomHyperplaneLsh.DEFAULT_BITS);
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
+            try {
+                RandomHyperplaneLsh.checkParameters(tables, bits);
+            } catch (IllegalArgumentException ex) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, tables < 1 || tables > RandomHyperplaneLsh.MAX_TABLES
+                    ? "tables" : "bits", ex.getMessage());
+            }
+            return new LshProcessor(tag, field, targetField, tables, bits, ignoreMissing);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.ingest;
+
+import org.elasticsearch.examples.nativescript.script.MinHash;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Ingest processor that computes the MinHash signature of the terms of a field and
+ * stores it in another field, which should be mapped as a {@code binary} field with
+ * {@code "doc_values": true}:
+ * <pre>
+ * {
+ *   "minhash": {
+ *     "field": "attributes",
+ *     "target_field": "attributes_minhash",
+ *     "num_hashes": 128
+ *   }
+ * }
+ * </pre>
+ * Documents without terms don't get a signature. The signatures are scored by the
+ * {@link org.elasticsearch.examples.nativescript.script.MinHashJaccardScoreScript}.
+ */
+public final class MinHashProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "minhash";
+
+    private final String field;
+    private final String targetField;
+    private final int numHashes;
+    private final boolean ignoreMissing;
+
+    MinHashProcessor(String tag, String field, String targetField, int numHashes, boolean ignoreMissing) {
+        super(tag);
+        this.field = field;
+        this.targetField = targetField;
+        this.numHashes = numHashes;
+        this.ignoreMissing = ignoreMissing;
+    }
+
+    @Override
+    public void execute(IngestDocument document) throws Exception {
+        Object value = document.getFieldValue(field, Object.class, ignoreMissing);
+        if (value == null) {
+            if (ignoreMissing) {
+                return;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot compute its minhash signature");
+        }
+        Collection<?> terms = value instanceof Collection ? (Collection<?>) value : Collections.singletonList(value);
+        if (terms.isEmpty()) {
+            return;
+        }
+        // the bytes are written base64 encoded in json and as raw binary in smile and cbor sources
+        document.setFieldValue(targetField, MinHash.encode(MinHash.signature(terms, numHashes)));
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        @Override
+        public MinHashProcessor create(Map<String, Processor.Factory> registry, String tag, Map<String, Object> config) throws Exception {
+            String field = ConfigurationUtils.readStringProperty(TYPE, tag, config, "field");
+            String targetField = ConfigurationUtils.readStringProperty(TYPE, tag, config, "target_field", field + "_minhash");
+            int numHashes = ConfigurationUtils.readIntProperty(TYPE, tag, config, "num_hashes", MinHash.DEFAULT_NUM_HASHES);
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
+            try {
+                MinHash.checkNumHashes(numHashes);
+            } catch (IllegalArgumentException ex) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "num_hashes", ex.getMessage());
+            }
+            return new MinHashProcessor(tag, field, targetField, numHashes, ignoreMissing);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.ingest;
+
+import org.elasticsearch.common.joda.FormatDateTimeFormatter;
+import org.elasticsearch.common.joda.Joda;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.examples.nativescript.script.stockaggs.MapScriptFactory;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Ingest processor that adds the signed amount of every transaction to the profit of its time bucket in a
+ * rollup index, and indexes the transaction unchanged:
+ * <pre>
+ * {
+ *   "stock_rollup": {
+ *     "rollup_index": "transactions_hourly",
+ *     "interval": "1h",
+ *     "date_field": "date",
+ *     "amount_field": "amount",
+ *     "type_field": "type",
+ *     "signs": { "sale": 1 }
+ *   }
+ * }
+ * </pre>
+ * The amounts are signed like in the {@code stockaggs_map} script, see {@link MapScriptFactory#sign}, and must
+ * be integral. A transaction without amount counts as 0. The date is either a number of milliseconds since the
+ * epoch or a date in the {@code strict_date_optional_time} format, and buckets start at multiples of the interval
+ * since the epoch, in UTC. The profits are added to the rollup documents in the background, see
+ * {@link StockRollups}, so use a {@link StockRollupSearch} to read them.
+ */
+public final class StockRollupProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "stock_rollup";
+
+    private static final FormatDateTimeFormatter DATE_FORMAT = Joda.forPattern("strict_date_optional_time||epoch_millis");
+
+    private final StockRollups rollups;
+    private final String rollupIndex;
+    private final long interval;
+    private final String dateField;
+    private final String amountField;
+    private final String typeField;
+    private final Map<String, Integer> signs;
+    private final boolean ignoreMissing;
+
+    StockRollupProcessor(String tag, StockRollups rollups, String rollupIndex, long interval, String dateField, String amountField,
+                         String typeField, Map<String, Integer> signs, boolean ignoreMissing) {
+        super(tag);
+        this.rollups = rollups;
+        this.rollupIndex = rollupIndex;
+        this.interval = interval;
+        this.dateField = dateField;
+        this.amountField = amountField;
+        this.typeField = typeField;
+        this.signs = signs;
+        this.ignoreMissing = ignoreMissing;
+    }
+
+    @Override
+    public void execute(IngestDocument document) throws Exception {
+        Object date = document.getFieldValue(dateField, Object.class, ignoreMissing);
+        if (date == null) {
+            if (ignoreMissing) {
+                return;
+            }
+            throw new IllegalArgumentException("field [" + dateField + "] is null, cannot find the rollup of the transaction");
+        }
+        long millis = date instanceof Number ? ((Number) date).longValue() : DATE_FORMAT.parser().parseMillis(date.toString());
+        Object amount = document.getFieldValue(amountField, Object.class, true);
+        int sign = MapScriptFactory.sign(signs, document.getFieldValue(typeField, String.class, true));
+        rollups.add(rollupIndex, bucket(millis, interval), interval, sign, amount(amount));
+    }
+
+    private long amount(Object amount) {
+        if (amount == null) {
+            return 0;
+        }
+        if (amount instanceof Number) {
+            long value = ((Number) amount).longValue();
+            if (value == ((Number) amount).doubleValue()) {
+                return value;
+            }
+        } else {
+            try {
+                return Long.parseLong(amount.toString());
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+        }
+        throw new IllegalArgumentException("field [" + amountField + "] must be an integral amount but was [" + amount + "]");
+    }
+
+    /**
+     * Returns the start of the bucket of a date, in milliseconds since the epoch
+     */
+    public static long bucket(long millis, long interval) {
+        return Math.floorDiv(millis, interval) * interval;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        private final Supplier<StockRollups> rollups;
+
+        /**
+         * The rollups are only created with the other components of the node, after the processors are registered
+         */
+        public Factory(Supplier<StockRollups> rollups) {
+            this.rollups = rollups;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public StockRollupProcessor create(Map<String, Processor.Factory> registry, String tag, Map<String, Object> config)
+            throws Exception {
+            String rollupIndex = ConfigurationUtils.readStringProperty(TYPE, tag, config, "rollup_index");
+            String intervalString = ConfigurationUtils.readStringProperty(TYPE, tag, config, "interval", "1h");
+            String dateField = ConfigurationUtils.readStringProperty(TYPE, tag, config, "date_field", "date");
+            String amountField = ConfigurationUtils.readStringProperty(TYPE, tag, config, "amount_field",
+                MapScriptFactory.DEFAULT_AMOUNT_FIELD);
+            String typeField = ConfigurationUtils.readStringProperty(TYPE, tag, config, "type_field",
+                MapScriptFactory.DEFAULT_TYPE_FIELD);
+            Map<String, Object> signsConfig = ConfigurationUtils.readOptionalMap(TYPE, tag, config, "signs");
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
+            long interval;
+            try {
+                interval = TimeValue.parseTimeValue(intervalString, "interval").millis();
+            } catch (IllegalArgumentException ex) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "interval", ex.getMessage());
+            }
+            if (interval <= 0) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "interval", "must be positive but was [" + intervalString + "]");
+            }
+            Map<String, Integer> signs;
+            try {
+                signs = MapScriptFactory.parseSigns(signsConfig);
+            } catch (IllegalArgumentException ex) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "signs", ex.getMessage());
+            }
+            return new StockRollupProcessor(tag, rollups.get(), rollupIndex, interval, dateField, amountField, typeField, signs,
+                ignoreMissing);
+        }
+    }
+}
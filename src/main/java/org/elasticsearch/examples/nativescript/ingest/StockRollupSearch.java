@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.ingest;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.examples.nativescript.script.LeafScriptEngineService;
+import org.elasticsearch.examples.nativescript.script.stockaggs.MapScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.RollupScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.WideSum;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.metrics.scripted.ScriptedMetric;
+import org.elasticsearch.search.sort.SortOrder;
+import org.joda.time.DateTime;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.elasticsearch.search.aggregations.AggregationBuilders.dateHistogram;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.scriptedMetric;
+
+/**
+ * Reads the profit of time buckets from the rollup index of a {@link StockRollupProcessor}, and from the
+ * transactions for the buckets that may still change.
+ * <p>
+ * A bucket is closed once its end is more than the lag in the past. The lag must cover the delay between the
+ * date of the transactions and their ingestion, plus the {@link StockRollups#FLUSH_INTERVAL_SETTING} and the
+ * refresh interval of the rollup index. The profit of the closed buckets is read from their rollup documents,
+ * the profit of the open buckets is aggregated from the transactions with the {@code stockaggs_*} scripts and
+ * the same fields and signs as the processor. The profits are exact, the reduce script returns them as strings once they
+ * overflow a long. Transactions that are ingested after their bucket closed are only counted
+ * in the rollups, the rollups of a node that stops before flushing are lost, and transactions that fail to be
+ * indexed after the processor counted them are only in the rollups, see {@link StockRollups}.
+ */
+public final class StockRollupSearch {
+
+    // rollup documents read per request
+    private static final int PAGE_SIZE = 1000;
+
+    private final Client client;
+    private final String tradesIndex;
+    private final String rollupIndex;
+    private final long interval;
+    private final long lag;
+    private final String dateField;
+    private final String amountField;
+    private final String typeField;
+    private final Map<String, Object> signs;
+
+    /**
+     * @param interval the interval of the {@link StockRollupProcessor}
+     * @param dateField the date field of the {@link StockRollupProcessor}
+     * @param amountField the amount field of the {@link StockRollupProcessor}
+     * @param typeField the type field of the {@link StockRollupProcessor}
+     * @param signs the signs of the {@link StockRollupProcessor}, see {@link MapScriptFactory#parseSigns}
+     */
+    public StockRollupSearch(Client client, String tradesIndex, String rollupIndex, TimeValue interval, TimeValue lag, String dateField,
+                             String amountField, String typeField, Map<String, Integer> signs) {
+        if (interval.millis() <= 0) {
+            throw new IllegalArgumentException("[interval] must be positive but was [" + interval + "]");
+        }
+        if (lag.millis() < 0) {
+            throw new IllegalArgumentException("[lag] must not be negative but was [" + lag + "]");
+        }
+        this.client = client;
+        this.tradesIndex = tradesIndex;
+        this.rollupIndex = rollupIndex;
+        this.interval = interval.millis();
+        this.lag = lag.millis();
+        this.dateField = dateField;
+        this.amountField = amountField;
+        this.typeField = typeField;
+        this.signs = Collections.unmodifiableMap(new HashMap<>(signs));
+    }
+
+    /**
+     * Returns the profit of the buckets that start between {@code from}, inclusive, and {@code to}, exclusive, by
+     * start of bucket. Buckets without transactions are missing.
+     *
+     * @param now the current time in milliseconds since the epoch, which decides the closed buckets
+     */
+    public SortedMap<Long, BigInteger> profits(long from, long to, long now) {
+        from = StockRollupProcessor.bucket(from, interval);
+        long closedEnd = Math.min(to, StockRollupProcessor.bucket(now - lag, interval));
+        SortedMap<Long, BigInteger> profits = new TreeMap<>();
+        if (from < closedEnd) {
+            readRollups(from, closedEnd, profits);
+        }
+        long openStart = Math.max(from, closedEnd);
+        if (openStart < to) {
+            aggregateTrades(openStart, to, profits);
+        }
+        return profits;
+    }
+
+    private void readRollups(long from, long to, SortedMap<Long, BigInteger> profits) {
+        long next = from;
+        while (true) {
+            SearchResponse response = client.prepareSearch(rollupIndex)
+                .setQuery(QueryBuilders.boolQuery()
+                    .filter(QueryBuilders.termQuery(StockRollups.INTERVAL_FIELD, interval))
+                    .filter(QueryBuilders.rangeQuery(StockRollups.START_FIELD).gte(next).lt(to)))
+                .addSort(StockRollups.START_FIELD, SortOrder.ASC)
+                .setSize(PAGE_SIZE)
+                .get();
+            SearchHit[] hits = response.getHits().getHits();
+            for (SearchHit hit : hits) {
+                Map<String, Object> source = hit.getSourceAsMap();
+                long start = ((Number) source.get(StockRollups.START_FIELD)).longValue();
+                profits.put(start, WideSum.toBigInteger(RollupScriptFactory.profit(source)));
+                next = start + 1;
+            }
+            if (hits.length < PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+
+    private void aggregateTrades(long from, long to, SortedMap<Long, BigInteger> profits) {
+        Map<String, Object> aggParams = new HashMap<>();
+        aggParams.put("_agg", new HashMap<>());
+        aggParams.put(MapScriptFactory.SIGNS_PARAM, signs);
+        aggParams.put(MapScriptFactory.AMOUNT_FIELD_PARAM, amountField);
+        aggParams.put(MapScriptFactory.TYPE_FIELD_PARAM, typeField);
+        SearchResponse response = client.prepareSearch(tradesIndex)
+            .setSize(0)
+            .setQuery(QueryBuilders.rangeQuery(dateField).gte(from).lt(to))
+            .addAggregation(dateHistogram("buckets").field(dateField).interval(interval).minDocCount(1)
+                .subAggregation(scriptedMetric("profit")
+                    .params(aggParams)
+                    .initScript(new Script(ScriptType.INLINE, "native", "stockaggs_init", Collections.emptyMap()))
+                    .mapScript(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, "stockaggs_map", Collections.emptyMap()))
+                    .combineScript(new Script(ScriptType.INLINE, "native", "stockaggs_combine", Collections.emptyMap()))
+                    .reduceScript(new Script(ScriptType.INLINE, "native", "stockaggs_reduce", Collections.emptyMap()))))
+            .get();
+        Histogram histogram = response.getAggregations().get("buckets");
+        for (Histogram.Bucket bucket : histogram.getBuckets()) {
+            ScriptedMetric profit = bucket.getAggregations().get("profit");
+            profits.put(((DateTime) bucket.getKey()).getMillis(), toBigInteger(profit.aggregation()));
+        }
+    }
+
+    // the reduce script returns a long, or a string if the profit does not fit in a long
+    private static BigInteger toBigInteger(Object profit) {
+        if (profit instanceof Long || profit instanceof Integer) {
+            return BigInteger.valueOf(((Number) profit).longValue());
+        }
+        return new BigInteger(profit.toString());
+    }
+}
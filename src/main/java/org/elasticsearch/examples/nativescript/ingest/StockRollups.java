@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.ingest;
+
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.UUIDs;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.examples.nativescript.script.stockaggs.RollupScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.WideSum;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Running profit of the time buckets that the {@link StockRollupProcessor}s of the node received transactions
+ * for, waiting to be added to their rollup documents.
+ * <p>
+ * Updating the rollup document of the current bucket for every transaction would make all the indexing
+ * threads fight over the same document. Instead the processors add the transactions to the pending profit of
+ * their bucket in memory, and every {@link #FLUSH_INTERVAL_SETTING} the pending profits are added to the rollup
+ * documents with a single update per bucket. The update creates the document of a new bucket and otherwise adds
+ * to it with the {@link RollupScriptFactory} script, so the processors of several nodes can update the same
+ * buckets.
+ * <p>
+ * Every update carries a random id of this instance and a sequence number, so the script can ignore an update it
+ * already applied. An update that fails is sent again with the same sequence number with the next flush, even if
+ * it failed after it was applied, and the later transactions of its bucket wait until it succeeds. The rollups are
+ * still counted at least once rather than exactly once: the processors count a transaction before it is indexed,
+ * so a transaction whose indexing fails, or that a client sends again, is counted anyway.
+ * <p>
+ * Rollup documents have the {@code start} and {@code end} of their bucket in milliseconds since the epoch, its
+ * {@code interval}, the {@code profit} and the {@code count} of its transactions. Their id is the start and the
+ * interval of the bucket, so rollups of several intervals can share an index. The profits are added up exactly
+ * like by the {@code stockaggs_*} scripts, see {@link RollupScriptFactory}.
+ */
+public final class StockRollups implements Closeable {
+
+    public static final Setting<TimeValue> FLUSH_INTERVAL_SETTING = Setting.timeSetting("my_scripts.stock_rollup.flush_interval",
+        TimeValue.timeValueSeconds(1), TimeValue.timeValueMillis(10), Setting.Property.NodeScope);
+
+    public static final String TYPE = "doc";
+    public static final String START_FIELD = "start";
+    public static final String END_FIELD = "end";
+    public static final String INTERVAL_FIELD = "interval";
+
+    // the rollups of a bucket are updated by every node that ingests transactions
+    private static final int RETRY_ON_CONFLICT = 10;
+
+    private static final Logger logger = Loggers.getLogger(StockRollups.class);
+
+    private final Client client;
+    // the profit as a WideSum followed by the count of transactions
+    private final ConcurrentMap<Bucket, long[]> pending = new ConcurrentHashMap<>();
+    // updates that were sent and not acknowledged yet, at most one per bucket
+    private final ConcurrentMap<Bucket, Update> unacknowledged = new ConcurrentHashMap<>();
+    private final String writer = UUIDs.randomBase64UUID();
+    private long seq;
+    private final ThreadPool.Cancellable flusher;
+
+    public StockRollups(Settings settings, Client client, ThreadPool threadPool) {
+        this.client = client;
+        this.flusher = threadPool.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_SETTING.get(settings), ThreadPool.Names.GENERIC);
+    }
+
+    /**
+     * Adds a transaction to the pending profit of a bucket
+     *
+     * @param sign the sign of the amount in the profit, see {@link StockRollupProcessor}
+     */
+    public void add(String index, long start, long interval, int sign, long amount) {
+        pending.compute(new Bucket(index, start, interval), (bucket, sum) -> {
+            if (sum == null) {
+                sum = new long[3];
+            }
+            if (sign > 0) {
+                WideSum.add(sum, amount);
+            } else if (sign < 0) {
+                WideSum.subtract(sum, amount);
+            }
+            sum[2]++;
+            return sum;
+        });
+    }
+
+    /**
+     * Sends the failed updates again and the pending profits of the other buckets to the rollup documents,
+     * without waiting for the updates
+     */
+    public synchronized void flush() {
+        for (Map.Entry<Bucket, Update> entry : unacknowledged.entrySet()) {
+            Update update = entry.getValue();
+            if (update.inFlight == false) {
+                send(entry.getKey(), update);
+            }
+        }
+        for (Bucket bucket : pending.keySet()) {
+            if (unacknowledged.containsKey(bucket)) {
+                // the document may not have the previous update yet, whose sequence number is lower
+                continue;
+            }
+            // later transactions of the bucket go to a new pending profit
+            long[] sum = pending.remove(bucket);
+            if (sum != null) {
+                Update update = new Update(sum, ++seq);
+                unacknowledged.put(bucket, update);
+                send(bucket, update);
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the rollup document of a bucket
+     */
+    public static String id(long start, long interval) {
+        return start + "_" + interval;
+    }
+
+    private void send(Bucket bucket, Update update) {
+        update.inFlight = true;
+        long[] sum = update.sum;
+        Map<String, Object> params = new HashMap<>();
+        params.put(RollupScriptFactory.PROFIT_FIELD, sum[0]);
+        params.put(RollupScriptFactory.PROFIT_WRAPS_FIELD, sum[1]);
+        params.put(RollupScriptFactory.COUNT_FIELD, sum[2]);
+        params.put(RollupScriptFactory.WRITER_PARAM, writer);
+        params.put(RollupScriptFactory.SEQ_PARAM, update.seq);
+        Map<String, Object> upsert = new HashMap<>();
+        upsert.put(RollupScriptFactory.PROFIT_FIELD, sum[0]);
+        upsert.put(RollupScriptFactory.PROFIT_WRAPS_FIELD, sum[1]);
+        upsert.put(RollupScriptFactory.COUNT_FIELD, sum[2]);
+        upsert.put(RollupScriptFactory.FLUSHES_FIELD, RollupScriptFactory.recordFlush(null, writer, update.seq));
+        upsert.put(START_FIELD, bucket.start);
+        upsert.put(END_FIELD, bucket.start + bucket.interval);
+        upsert.put(INTERVAL_FIELD, bucket.interval);
+        String id = id(bucket.start, bucket.interval);
+        client.prepareUpdate(bucket.index, TYPE, id)
+            .setScript(new Script(ScriptType.INLINE, "native", RollupScriptFactory.NAME, params))
+            .setUpsert(upsert)
+            .setRetryOnConflict(RETRY_ON_CONFLICT)
+            .execute(new ActionListener<UpdateResponse>() {
+                @Override
+                public void onResponse(UpdateResponse response) {
+                    unacknowledged.remove(bucket, update);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    // the update may have been applied, so it is sent again as is rather than added to the pending profit
+                    if (ExceptionsHelper.status(e) == RestStatus.BAD_REQUEST) {
+                        logger.error("failed to update the rollup [" + bucket.index + "/" + id + "] with [" + sum[2]
+                            + "] transactions, retrying with the next flush until the request is fixed", e);
+                    } else {
+                        logger.warn("failed to update the rollup [" + bucket.index + "/" + id + "], retrying with the next flush", e);
+                    }
+                    update.inFlight = false;
+                }
+            });
+    }
+
+    @Override
+    public void close() {
+        flusher.cancel();
+        flush();
+    }
+
+    private static final class Update {
+
+        private final long[] sum;
+        private final long seq;
+        private volatile boolean inFlight;
+
+        private Update(long[] sum, long seq) {
+            this.sum = sum;
+            this.seq = seq;
+        }
+    }
+
+    private static final class Bucket {
+
+        private final String index;
+        private final long start;
+        private final long interval;
+
+        private Bucket(String index, long start, long interval) {
+            this.index = index;
+            this.start = start;
+            this.interval = interval;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Bucket bucket = (Bucket) o;
+            return start == bucket.start && interval == bucket.interval && index.equals(bucket.index);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(index, start, interval);
+        }
+    }
+}
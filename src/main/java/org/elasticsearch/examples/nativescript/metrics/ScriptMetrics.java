@@ -0,0 +1,246 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.shard.SearchOperationListener;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node level metrics of the native scripts: how many times every script was executed on a shard, how many
+ * documents it processed, how many times it failed and a histogram of the time spent in the shard level
+ * search phases that used the script. The histogram times the whole phase and not only the script.
+ * <p>
+ * Every script instance gets its own {@link ScriptRecorder} that counts documents in a plain field. The counts
+ * are published to the shared counters when the script moves to the next segment and when the search phase
+ * completes, so nothing but a field increment happens per document. The start and completion of the query
+ * and fetch phases are reported by the {@link SearchOperationListener} returned by
+ * {@link #searchOperationListener()} which has to be registered on every index. Scripts that run outside of
+ * these phases, like the ones of the explain API, add every document to the shared counters right away.
+ */
+public class ScriptMetrics implements ToXContent {
+
+    private final ConcurrentMap<String, ScriptStats> stats = new ConcurrentHashMap<>();
+
+    // recorders that processed documents in the search phase of the current thread and still need to be
+    // published, null outside of the query and fetch phases so nothing piles up on the other thread pools
+    private final ThreadLocal<List<ScriptRecorder>> active = new ThreadLocal<>();
+
+    private final SearchOperationListener listener = new SearchOperationListener() {
+        @Override
+        public void onPreQueryPhase(SearchContext searchContext) {
+            active.set(new ArrayList<>());
+        }
+
+        @Override
+        public void onQueryPhase(SearchContext searchContext, long tookInNanos) {
+            publish(tookInNanos);
+        }
+
+        @Override
+        public void onFailedQueryPhase(SearchContext searchContext) {
+            publish(-1);
+        }
+
+        @Override
+        public void onPreFetchPhase(SearchContext searchContext) {
+            active.set(new ArrayList<>());
+        }
+
+        @Override
+        public void onFetchPhase(SearchContext searchContext, long tookInNanos) {
+            publish(tookInNanos);
+        }
+
+        @Override
+        public void onFailedFetchPhase(SearchContext searchContext) {
+            publish(-1);
+        }
+    };
+
+    /**
+     * Creates a recorder for a new instance of the script. Should be called every time a script is
+     * created on a shard.
+     */
+    public ScriptRecorder recorder(String scriptName) {
+        ScriptStats scriptStats = stats.computeIfAbsent(scriptName, name -> new ScriptStats());
+        scriptStats.executions.increment();
+        return new ScriptRecorder(scriptStats);
+    }
+
+    /**
+     * Listener that publishes the counts of the scripts when a search phase of a shard is over.
+     */
+    public SearchOperationListener searchOperationListener() {
+        return listener;
+    }
+
+    private void publish(long tookInNanos) {
+        List<ScriptRecorder> recorders = active.get();
+        if (recorders == null) {
+            return;
+        }
+        active.remove();
+        for (int i = 0; i < recorders.size(); i++) {
+            ScriptRecorder recorder = recorders.get(i);
+            recorder.flush();
+            recorder.registered = false;
+            if (tookInNanos >= 0 && firstOccurrence(recorders, i)) {
+                // a script used twice in the same request is only timed once
+                recorder.stats.phaseTook.recordValue(TimeUnit.NANOSECONDS.toMicros(tookInNanos));
+            }
+        }
+    }
+
+    private static boolean firstOccurrence(List<ScriptRecorder> recorders, int index) {
+        for (int i = 0; i < index; i++) {
+            if (recorders.get(i).stats == recorders.get(index).stats) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of documents processed by the script so far, mostly useful in tests.
+     */
+    public long documents(String scriptName) {
+        ScriptStats scriptStats = stats.get(scriptName);
+        return scriptStats == null ? 0 : scriptStats.documents.sum();
+    }
+
+    /**
+     * Returns the number of failed script executions so far, mostly useful in tests.
+     */
+    public long errors(String scriptName) {
+        ScriptStats scriptStats = stats.get(scriptName);
+        return scriptStats == null ? 0 : scriptStats.errors.sum();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("scripts");
+        for (Map.Entry<String, ScriptStats> entry : new TreeMap<>(stats).entrySet()) {
+            builder.startObject(entry.getKey());
+            entry.getValue().toXContent(builder);
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * Counts of a single script for the whole node
+     */
+    static final class ScriptStats {
+        final LongAdder executions = new LongAdder();
+        final LongAdder documents = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        // per shard time of the search phases that ran the script in microseconds, including the rest of the phase
+        final Recorder phaseTook = new Recorder(3);
+        private final Histogram phaseTookTotal = new Histogram(3);
+
+        void toXContent(XContentBuilder builder) throws IOException {
+            builder.field("executions", executions.sum());
+            builder.field("documents", documents.sum());
+            builder.field("errors", errors.sum());
+            Histogram histogram;
+            synchronized (this) {
+                phaseTookTotal.add(phaseTook.getIntervalHistogram());
+                histogram = phaseTookTotal.copy();
+            }
+            builder.startObject("phase_took");
+            builder.field("count", histogram.getTotalCount());
+            if (histogram.getTotalCount() > 0) {
+                builder.field("min_micros", histogram.getMinValue());
+                builder.field("max_micros", histogram.getMaxValue());
+                builder.field("mean_micros", histogram.getMean());
+                builder.field("p50_micros", histogram.getValueAtPercentile(50.0));
+                builder.field("p90_micros", histogram.getValueAtPercentile(90.0));
+                builder.field("p99_micros", histogram.getValueAtPercentile(99.0));
+            }
+            builder.endObject();
+        }
+    }
+
+    /**
+     * Per script instance counters. Not thread safe, a script instance is only used by one thread at a time.
+     */
+    public final class ScriptRecorder {
+        private final ScriptStats stats;
+        private long documents;
+        private boolean registered;
+        // the script runs outside of a search phase, which would never publish its documents
+        private boolean outsidePhase;
+
+        private ScriptRecorder(ScriptStats stats) {
+            this.stats = stats;
+        }
+
+        /**
+         * Called for every document processed by the script
+         */
+        public void onDocument() {
+            if (outsidePhase) {
+                stats.documents.increment();
+            } else {
+                documents++;
+            }
+        }
+
+        /**
+         * Called when the script moves to the next segment
+         */
+        public void onNextReader() {
+            flush();
+            if (registered == false && outsidePhase == false) {
+                List<ScriptRecorder> recorders = active.get();
+                if (recorders == null) {
+                    outsidePhase = true;
+                } else {
+                    recorders.add(this);
+                    registered = true;
+                }
+            }
+        }
+
+        /**
+         * Called when the script fails to process a document
+         */
+        public void onFailure() {
+            stats.errors.increment();
+        }
+
+        private void flush() {
+            if (documents > 0) {
+                stats.documents.add(documents);
+                documents = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.plugin;
+
+import org.apache.lucene.util.SetOnce;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.examples.nativescript.aggregation.InternalPrimeStats;
+import org.elasticsearch.examples.nativescript.aggregation.InternalStockProfit;
+import org.elasticsearch.examples.nativescript.aggregation.PrimeStatsAggregationBuilder;
+import org.elasticsearch.examples.nativescript.aggregation.StockProfitAggregationBuilder;
+import org.elasticsearch.examples.nativescript.ingest.DenseVectorProcessor;
+import org.elasticsearch.examples.nativescript.ingest.LshProcessor;
+import org.elasticsearch.examples.nativescript.ingest.MinHashProcessor;
+import org.elasticsearch.examples.nativescript.ingest.StockRollupProcessor;
+import org.elasticsearch.examples.nativescript.ingest.StockRollups;
+import org.elasticsearch.examples.nativescript.metrics.RestScriptMetricsAction;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.examples.nativescript.query.IsPrimeQueryBuilder;
+import org.elasticsearch.examples.nativescript.query.LshQueryBuilder;
+import org.elasticsearch.examples.nativescript.query.TermSimilarityQueryBuilder;
+import org.elasticsearch.examples.nativescript.script.IsPrimeSearchScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.CombineScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.InitScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.MapScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.ReduceScriptFactory;
+import org.elasticsearch.examples.nativescript.script.stockaggs.RollupScriptFactory;
+import org.elasticsearch.examples.nativescript.script.CosineSimilarityScoreScript;
+import org.elasticsearch.examples.nativescript.script.DenseVectorScoreScript;
+import org.elasticsearch.examples.nativescript.script.JaccardSimilarityScoreScript;
+import org.elasticsearch.examples.nativescript.script.LanguageModelScoreScript;
+import org.elasticsearch.examples.nativescript.script.LeafScriptEngineService;
+import org.elasticsearch.examples.nativescript.script.MinHashJaccardScoreScript;
+import org.elasticsearch.examples.nativescript.script.QuantizedVectorScoreScript;
+import org.elasticsearch.examples.nativescript.script.QueryVectorCache;
+import org.elasticsearch.examples.nativescript.script.TFIDFScoreScript;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.plugins.ScriptPlugin;
+import org.elasticsearch.plugins.SearchPlugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.NativeScriptFactory;
+import org.elasticsearch.script.ScriptEngineService;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.elasticsearch.examples.nativescript.script.IsPrimeSearchScriptFactory.PRIME_SCRIPT_DEFAULT_FIELD_NAME;
+
+/**
+ * This class is instantiated when Elasticsearch loads the plugin for the
+ * first time. If you change the name of this plugin, make sure to update
+ * src/main/resources/es-plugin.properties file that points to this class.
+ */
+public class NativeScriptExamplesPlugin extends Plugin implements ScriptPlugin, ActionPlugin, IngestPlugin, SearchPlugin {
+
+    private final Settings settings;
+
+    // documents processed, failures and timings of the scripts on this node
+    private final ScriptMetrics metrics = new ScriptMetrics();
+
+    // query vectors of the term based scripts, shared by the searches of this node
+    private final QueryVectorCache queryVectors;
+
+    // pending profits of the stock_rollup processors, created with the other components of the node
+    private final SetOnce<StockRollups> rollups = new SetOnce<>();
+
+    public NativeScriptExamplesPlugin(Settings settings) {
+        this.settings = settings;
+        this.queryVectors = new QueryVectorCache(QueryVectorCache.MAX_BYTES_SETTING.get(settings));
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return Arrays.asList(PRIME_SCRIPT_DEFAULT_FIELD_NAME, StockRollups.FLUSH_INTERVAL_SETTING, QueryVectorCache.MAX_BYTES_SETTING);
+    }
+
+    @Override
+    public List<NativeScriptFactory> getNativeScripts() {
+        return Arrays.asList(
+            new IsPrimeSearchScriptFactory(settings),
+            new InitScriptFactory(),
+            new MapScriptFactory(),
+            new CombineScriptFactory(),
+            new ReduceScriptFactory(),
+            new RollupScriptFactory(),
+            new CosineSimilarityScoreScript.Factory(metrics, queryVectors),
+            new TFIDFScoreScript.Factory(metrics, queryVectors),
+            new LanguageModelScoreScript.Factory(metrics, queryVectors),
+            new JaccardSimilarityScoreScript.Factory(metrics, queryVectors),
+            new MinHashJaccardScoreScript.Factory(metrics),
+            new DenseVectorScoreScript.Factory(metrics, true),
+            new DenseVectorScoreScript.Factory(metrics, false),
+            new QuantizedVectorScoreScript.Factory(metrics, true),
+            new QuantizedVectorScoreScript.Factory(metrics, false)
+        );
+    }
+
+    @Override
+    public ScriptEngineService getScriptEngineService(Settings settings) {
+        // the scripts that read the segments directly run under their own language, see AbstractLeafSearchScript
+        return new LeafScriptEngineService(settings, getNativeScripts());
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry) {
+        rollups.set(new StockRollups(settings, client, threadPool));
+        return Collections.singletonList(rollups.get());
+    }
+
+    @Override
+    public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+        Map<String, Processor.Factory> processors = new HashMap<>();
+        processors.put(MinHashProcessor.TYPE, new MinHashProcessor.Factory());
+        processors.put(DenseVectorProcessor.TYPE, new DenseVectorProcessor.Factory());
+        processors.put(LshProcessor.TYPE, new LshProcessor.Factory());
+        processors.put(StockRollupProcessor.TYPE, new StockRollupProcessor.Factory(rollups::get));
+        return processors;
+    }
+
+    @Override
+    public List<QuerySpec<?>> getQueries() {
+        return Arrays.asList(
+            new QuerySpec<>(IsPrimeQueryBuilder.NAME, IsPrimeQueryBuilder::new, IsPrimeQueryBuilder::fromXContent),
+            new QuerySpec<>(LshQueryBuilder.NAME, LshQueryBuilder::new, LshQueryBuilder::fromXContent),
+            new QuerySpec<>(TermSimilarityQueryBuilder.NAME, TermSimilarityQueryBuilder::new, TermSimilarityQueryBuilder::fromXContent)
+        );
+    }
+
+    @Override
+    public List<AggregationSpec> getAggregations() {
+        return Arrays.asList(
+            new AggregationSpec(PrimeStatsAggregationBuilder.NAME, PrimeStatsAggregationBuilder::new, PrimeStatsAggregationBuilder::parse)
+                .addResultReader(InternalPrimeStats::new),
+            new AggregationSpec(StockProfitAggregationBuilder.NAME, StockProfitAggregationBuilder::new, StockProfitAggregationBuilder::parse)
+                .addResultReader(InternalStockProfit::new)
+        );
+    }
+
+    @Override
+    public void onIndexModule(IndexModule indexModule) {
+        // publishes the script metrics at the end of every search phase
+        indexModule.addSearchOperationListener(metrics.searchOperationListener());
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Collections.singletonList(new RestScriptMetricsAction(settings, restController, metrics, queryVectors));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (rollups.get() != null) {
+            rollups.get().close();
+        }
+    }
+
+    public ScriptMetrics getMetrics() {
+        return metrics;
+    }
+
+    public QueryVectorCache getQueryVectors() {
+        return queryVectors;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.query;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitSetIterator;
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.examples.nativescript.script.PrimeCache;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+
+import java.io.IOException;
+
+/**
+ * Matches the documents that have a prime number in an integral numeric field.
+ * <p>
+ * Unlike a script filter the query only depends on the field, so Lucene's query cache can
+ * keep the matching documents of every segment and repeated searches don't test the
+ * numbers again. Without a cache hit the values of a segment are tested in a single pass
+ * into a bit set, going through the {@link PrimeCache} of recently tested values.
+ */
+public final class IsPrimeQuery extends Query {
+
+    private final IndexNumericFieldData fieldData;
+
+    public IsPrimeQuery(IndexNumericFieldData fieldData) {
+        if (fieldData.getNumericType().isFloatingPoint()) {
+            throw new IllegalArgumentException("field [" + fieldData.getFieldName() + "] is not an integral number");
+        }
+        this.fieldData = fieldData;
+    }
+
+    public String getField() {
+        return fieldData.getFieldName();
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        return new ConstantScoreWeight(this) {
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                FixedBitSet matches = matches(context);
+                if (matches == null) {
+                    return null;
+                }
+                return new ConstantScoreScorer(this, score(), new BitSetIterator(matches, matches.cardinality()));
+            }
+        };
+    }
+
+    /**
+     * Returns the documents of the segment with a prime value, or {@code null} if there are none.
+     * Documents without a value read 0 from the single valued doc values, which is not prime.
+     */
+    private FixedBitSet matches(LeafReaderContext context) {
+        int maxDoc = context.reader().maxDoc();
+        SortedNumericDocValues values = fieldData.load(context).getLongValues();
+        FixedBitSet matches = null;
+        NumericDocValues singleValues = DocValues.unwrapSingleton(values);
+        if (singleValues != null) {
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (PrimeCache.isPrime(singleValues.get(doc))) {
+                    if (matches == null) {
+                        matches = new FixedBitSet(maxDoc);
+                    }
+                    matches.set(doc);
+                }
+            }
+            return matches;
+        }
+        for (int doc = 0; doc < maxDoc; doc++) {
+            values.setDocument(doc);
+            for (int i = 0; i < values.count(); i++) {
+                if (PrimeCache.isPrime(values.valueAt(i))) {
+                    if (matches == null) {
+                        matches = new FixedBitSet(maxDoc);
+                    }
+                    matches.set(doc);
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public String toString(String field) {
+        return "is_prime(" + getField() + ")";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) && getField().equals(((IsPrimeQuery) other).getField());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * classHash() + getField().hashCode();
+    }
+}
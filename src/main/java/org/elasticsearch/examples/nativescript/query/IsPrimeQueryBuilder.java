@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.query;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Query that matches the documents with a prime number in an integral numeric field, the
+ * cacheable counterpart of the {@code is_prime} script filter:
+ * <pre>
+ * {
+ *   "is_prime": {
+ *     "field": "number"
+ *   }
+ * }
+ * </pre>
+ * Multi-valued documents match if any of their values is prime, the sign of the values is ignored.
+ */
+public class IsPrimeQueryBuilder extends AbstractQueryBuilder<IsPrimeQueryBuilder> {
+
+    public static final String NAME = "is_prime";
+
+    private static final ParseField FIELD_FIELD = new ParseField("field");
+
+    private final String fieldName;
+
+    public IsPrimeQueryBuilder(String fieldName) {
+        if (fieldName == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a field");
+        }
+        this.fieldName = fieldName;
+    }
+
+    public IsPrimeQueryBuilder(StreamInput in) throws IOException {
+        super(in);
+        fieldName = in.readString();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(fieldName);
+    }
+
+    public String fieldName() {
+        return fieldName;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(FIELD_FIELD.getPreferredName(), fieldName);
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    public static Optional<IsPrimeQueryBuilder> fromXContent(QueryParseContext parseContext) throws IOException {
+        XContentParser parser = parseContext.parser();
+        String fieldName = null;
+        String queryName = null;
+        float boost = DEFAULT_BOOST;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName)) {
+                    fieldName = parser.text();
+                } else if (BOOST_FIELD.match(currentFieldName)) {
+                    boost = parser.floatValue();
+                } else if (NAME_FIELD.match(currentFieldName)) {
+                    queryName = parser.text();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+            }
+        }
+        try {
+            return Optional.of(new IsPrimeQueryBuilder(fieldName).boost(boost).queryName(queryName));
+        } catch (IllegalArgumentException ex) {
+            throw new ParsingException(parser.getTokenLocation(), ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) throws IOException {
+        MappedFieldType fieldType = context.fieldMapper(fieldName);
+        if (fieldType == null) {
+            return Queries.newMatchNoDocsQuery("unmapped field [" + fieldName + "]");
+        }
+        IndexFieldData<?> fieldData = context.getForField(fieldType);
+        if (fieldData instanceof IndexNumericFieldData == false
+            || ((IndexNumericFieldData) fieldData).getNumericType().isFloatingPoint()) {
+            throw new QueryShardException(context, "[" + NAME + "] field [" + fieldName + "] is not an integral number");
+        }
+        return new IsPrimeQuery((IndexNumericFieldData) fieldData);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    protected boolean doEquals(IsPrimeQueryBuilder other) {
+        return Objects.equals(fieldName, other.fieldName);
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(fieldName);
+    }
+}
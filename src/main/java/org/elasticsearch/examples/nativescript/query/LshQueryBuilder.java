@@ -0,0 +1,293 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.query;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.examples.nativescript.script.DenseVector;
+import org.elasticsearch.examples.nativescript.script.RandomHyperplaneLsh;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.TermsQueryBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Query that selects the candidate documents of a vector similarity search: the
+ * documents that share at least one random hyperplane LSH bucket with the query vector.
+ * The buckets of the documents are computed at index time by the
+ * {@link org.elasticsearch.examples.nativescript.ingest.LshProcessor}, the query must use
+ * the same number of tables and bits:
+ * <pre>
+ * {
+ *   "lsh": {
+ *     "field": "embedding_lsh",
+ *     "vector": [0.12, -0.5, 1.3],
+ *     "tables": 8,
+ *     "bits": 8
+ *   }
+ * }
+ * </pre>
+ * Term vectors are given with {@code terms} and optional {@code weights} instead of
+ * {@code vector}. The query is rewritten into a {@code terms} query on the bucket tokens,
+ * so the candidates are usually scored exactly by a script in a {@code function_score}
+ * query around it.
+ */
+public class LshQueryBuilder extends AbstractQueryBuilder<LshQueryBuilder> {
+
+    public static final String NAME = "lsh";
+
+    private static final ParseField FIELD_FIELD = new ParseField("field");
+    private static final ParseField VECTOR_FIELD = new ParseField("vector");
+    private static final ParseField TERMS_FIELD = new ParseField("terms");
+    private static final ParseField WEIGHTS_FIELD = new ParseField("weights");
+    private static final ParseField TABLES_FIELD = new ParseField("tables");
+    private static final ParseField BITS_FIELD = new ParseField("bits");
+
+    private final String fieldName;
+    // either a dense vector or terms with optional weights
+    private final float[] vector;
+    private final String[] terms;
+    private final double[] weights;
+    private int tables = RandomHyperplaneLsh.DEFAULT_TABLES;
+    private int bits = RandomHyperplaneLsh.DEFAULT_BITS;
+
+    /**
+     * Query for the buckets of a dense vector
+     */
+    public LshQueryBuilder(String fieldName, float[] vector) {
+        this(fieldName, requireValue(vector, "[" + NAME + "] requires a vector"), null, null);
+    }
+
+    /**
+     * Query for the buckets of a term vector, {@code weights} may be {@code null} for a weight of 1 per term
+     */
+    public LshQueryBuilder(String fieldName, String[] terms, double[] weights) {
+        this(fieldName, null, requireValue(terms, "[" + NAME + "] requires terms"), weights);
+    }
+
+    private LshQueryBuilder(String fieldName, float[] vector, String[] terms, double[] weights) {
+        if (fieldName == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a field");
+        }
+        if (terms != null && weights != null && terms.length != weights.length) {
+            throw new IllegalArgumentException("[" + NAME + "] requires as many weights as terms");
+        }
+        this.fieldName = fieldName;
+        this.vector = vector;
+        this.terms = terms;
+        this.weights = weights;
+    }
+
+    public LshQueryBuilder(StreamInput in) throws IOException {
+        super(in);
+        fieldName = in.readString();
+        vector = in.readBoolean() ? in.readFloatArray() : null;
+        terms = in.readOptionalStringArray();
+        weights = in.readBoolean() ? in.readDoubleArray() : null;
+        tables = in.readVInt();
+        bits = in.readVInt();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(fieldName);
+        out.writeBoolean(vector != null);
+        if (vector != null) {
+            out.writeFloatArray(vector);
+        }
+        out.writeOptionalStringArray(terms);
+        out.writeBoolean(weights != null);
+        if (weights != null) {
+            out.writeDoubleArray(weights);
+        }
+        out.writeVInt(tables);
+        out.writeVInt(bits);
+    }
+
+    public String fieldName() {
+        return fieldName;
+    }
+
+    /**
+     * Sets the number of tables, which must match the ingest processor
+     */
+    public LshQueryBuilder tables(int tables) {
+        RandomHyperplaneLsh.checkParameters(tables, bits);
+        this.tables = tables;
+        return this;
+    }
+
+    public int tables() {
+        return tables;
+    }
+
+    /**
+     * Sets the number of bits per table, which must match the ingest processor
+     */
+    public LshQueryBuilder bits(int bits) {
+        RandomHyperplaneLsh.checkParameters(tables, bits);
+        this.bits = bits;
+        return this;
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    /**
+     * Returns the bucket tokens of the query vector
+     */
+    public List<String> buckets() {
+        if (vector != null) {
+            return RandomHyperplaneLsh.buckets(vector, tables, bits);
+        }
+        Map<String, Double> termWeights = new HashMap<>();
+        for (int i = 0; i < terms.length; i++) {
+            termWeights.merge(terms[i], weights == null ? 1.0 : weights[i], Double::sum);
+        }
+        return RandomHyperplaneLsh.buckets(termWeights, tables, bits);
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(FIELD_FIELD.getPreferredName(), fieldName);
+        if (vector != null) {
+            builder.array(VECTOR_FIELD.getPreferredName(), vector);
+        }
+        if (terms != null) {
+            builder.array(TERMS_FIELD.getPreferredName(), terms);
+        }
+        if (weights != null) {
+            builder.array(WEIGHTS_FIELD.getPreferredName(), weights);
+        }
+        builder.field(TABLES_FIELD.getPreferredName(), tables);
+        builder.field(BITS_FIELD.getPreferredName(), bits);
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    public static Optional<LshQueryBuilder> fromXContent(QueryParseContext parseContext) throws IOException {
+        XContentParser parser = parseContext.parser();
+        String fieldName = null;
+        float[] vector = null;
+        String[] terms = null;
+        double[] weights = null;
+        int tables = RandomHyperplaneLsh.DEFAULT_TABLES;
+        int bits = RandomHyperplaneLsh.DEFAULT_BITS;
+        String queryName = null;
+        float boost = DEFAULT_BOOST;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                List<Object> values = parser.list();
+                try {
+                    if (VECTOR_FIELD.match(currentFieldName)) {
+                        vector = DenseVector.parse(values);
+                    } else if (TERMS_FIELD.match(currentFieldName)) {
+                        terms = values.stream().map(Object::toString).toArray(String[]::new);
+                    } else if (WEIGHTS_FIELD.match(currentFieldName)) {
+                        weights = parseWeights(values);
+                    } else {
+                        throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                    }
+                } catch (IllegalArgumentException ex) {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] failed to parse [" + currentFieldName + "]", ex);
+                }
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName)) {
+                    fieldName = parser.text();
+                } else if (TABLES_FIELD.match(currentFieldName)) {
+                    tables = parser.intValue();
+                } else if (BITS_FIELD.match(currentFieldName)) {
+                    bits = parser.intValue();
+                } else if (BOOST_FIELD.match(currentFieldName)) {
+                    boost = parser.floatValue();
+                } else if (NAME_FIELD.match(currentFieldName)) {
+                    queryName = parser.text();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+            }
+        }
+        if ((vector == null) == (terms == null)) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires either [vector] or [terms]");
+        }
+        try {
+            LshQueryBuilder builder = vector != null ? new LshQueryBuilder(fieldName, vector) : new LshQueryBuilder(fieldName, terms, weights);
+            return Optional.of(builder.tables(tables).bits(bits).boost(boost).queryName(queryName));
+        } catch (IllegalArgumentException ex) {
+            throw new ParsingException(parser.getTokenLocation(), ex.getMessage(), ex);
+        }
+    }
+
+    private static double[] parseWeights(List<Object> values) {
+        double[] weights = new double[values.size()];
+        for (int i = 0; i < weights.length; i++) {
+            if (values.get(i) instanceof Number == false) {
+                throw new IllegalArgumentException("weight [" + values.get(i) + "] is not a number");
+            }
+            weights[i] = ((Number) values.get(i)).doubleValue();
+        }
+        return weights;
+    }
+
+    @Override
+    protected QueryBuilder doRewrite(QueryRewriteContext queryRewriteContext) throws IOException {
+        // the buckets only depend on the query, the shards just look up the terms
+        return new TermsQueryBuilder(fieldName, buckets()).boost(boost).queryName(queryName);
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) throws IOException {
+        throw new UnsupportedOperationException("query must be rewritten first");
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    protected boolean doEquals(LshQueryBuilder other) {
+        return Objects.equals(fieldName, other.fieldName) && Arrays.equals(vector, other.vector) && Arrays.equals(terms, other.terms)
+            && Arrays.equals(weights, other.weights) && tables == other.tables && bits == other.bits;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(fieldName, Arrays.hashCode(vector), Arrays.hashCode(terms), Arrays.hashCode(weights), tables, bits);
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.query;
+
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.InPlaceMergeSorter;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.examples.nativescript.script.QueryVector;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.fielddata.SortedNumericDoubleValues;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Lucene query that scores the documents containing any of the query terms with the
+ * similarities of the term based scripts:
+ * <ul>
+ * <li>cosine: sum_t(q_t * w_t) / (|q| * |d|), where w_t is the tf, or the tf-idf with
+ * {@code idf}, of the term in the document and |d| is read from a numeric norm field as
+ * by the {@code cosine_sim_script_score} script</li>
+ * <li>tf-idf: sum_t(q_t * tf_t * idf_t), as by the {@code tfidf_script_score} script</li>
+ * </ul>
+ * with idf_t = log((#docs+2)/(df_t+1)).
+ * <p>
+ * Unlike the scripts, the query doesn't score every matching document. It keeps the
+ * {@code k} best scores that were collected so far on the shard and uses upper bounds of
+ * the contribution of every term to skip documents that cannot reach them, see Turtle
+ * and Flood, "Query evaluation: strategies and optimizations", 1995 (MaxScore). The
+ * terms are sorted by their bound: documents that only contain terms of the prefix whose
+ * bounds together stay below the k-th best score are never visited, and the postings
+ * of these terms are only advanced for documents that contain one of the other terms and
+ * can still become competitive.
+ * <p>
+ * For cosine the contributions of the terms are q_t / |q| * x_t with sum_t(x_t^2) <= 1, so
+ * by Cauchy-Schwarz the terms of a set together contribute at most the L2 norm of their
+ * q_t / |q|. This only holds if the stored norm is at least the norm of the query terms'
+ * weights in the document, i.e. if it is computed from the same tokens and weighting. For
+ * tf-idf a term contributes at most q_t * idf_t * (ttf_t - df_t + 1) in a segment.
+ * <p>
+ * Skipping is only correct if the search ranks the top {@code k} hits by the score of
+ * this query: the hits must be sorted by score with {@code from + size <= k}, and the
+ * query must not be combined with other scoring clauses. Only the scores the collector
+ * asks for count, so deleted documents and documents removed by a {@code post_filter} or
+ * {@code min_score} don't raise the threshold, but aggregations that read the score see
+ * documents the {@code post_filter} removes. Documents that are skipped don't count as
+ * hits and aren't seen by aggregations. With {@code k = 0} and when scores aren't needed
+ * every matching document is returned.
+ */
+public final class TermSimilarityQuery extends Query {
+
+    private final String field;
+    private final QueryVector query;
+    private final boolean cosine;
+    private final boolean idf;
+    // norm of the document vectors, only for cosine
+    private final IndexNumericFieldData normFieldData;
+    private final int k;
+
+    /**
+     * Creates a query that scores with the cosine similarity
+     *
+     * @param field         the field of the terms
+     * @param query         the query terms and weights
+     * @param normFieldData numeric field with the L2 norm of the document vector
+     * @param idf           whether the document vector is weighted by tf-idf instead of tf
+     * @param k             the number of top hits that are needed, 0 to score every document
+     */
+    public static TermSimilarityQuery cosine(String field, QueryVector query, IndexNumericFieldData normFieldData, boolean idf, int k) {
+        return new TermSimilarityQuery(field, query, true, idf, Objects.requireNonNull(normFieldData), k);
+    }
+
+    /**
+     * Creates a query that scores with tf-idf
+     *
+     * @param field the field of the terms
+     * @param query the query terms and weights
+     * @param k     the number of top hits that are needed, 0 to score every document
+     */
+    public static TermSimilarityQuery tfidf(String field, QueryVector query, int k) {
+        return new TermSimilarityQuery(field, query, false, true, null, k);
+    }
+
+    private TermSimilarityQuery(String field, QueryVector query, boolean cosine, boolean idf,
+                                @Nullable IndexNumericFieldData normFieldData, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must be positive or 0 but was [" + k + "]");
+        }
+        this.field = field;
+        this.query = query;
+        this.cosine = cosine;
+        this.idf = idf;
+        this.normFieldData = normFieldData;
+        this.k = k;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        double[] idfs = new double[query.size()];
+        Arrays.fill(idfs, 1.0);
+        if (idf) {
+            IndexReaderContext context = searcher.getTopReaderContext();
+            CollectionStatistics fieldStats = searcher.collectionStatistics(field);
+            for (int i = 0; i < query.size(); i++) {
+                Term term = new Term(field, query.bytes(i));
+                long df = searcher.termStatistics(term, TermContext.build(context, term)).docFreq();
+                idfs[i] = Math.log(((double) fieldStats.docCount() + 2.0) / ((double) df + 1.0));
+            }
+        }
+        return new TermSimilarityWeight(idfs, needsScores && k > 0 ? new TopScores(k) : null);
+    }
+
+    private final class TermSimilarityWeight extends Weight {
+
+        private final double[] idfs;
+        // best scores returned on the shard, null if every document is scored
+        private final TopScores topScores;
+        private float boost = 1.0f;
+
+        TermSimilarityWeight(double[] idfs, @Nullable TopScores topScores) {
+            super(TermSimilarityQuery.this);
+            this.idfs = idfs;
+            this.topScores = topScores;
+        }
+
+        @Override
+        public void extractTerms(Set<Term> terms) {
+            for (int i = 0; i < query.size(); i++) {
+                terms.add(new Term(field, query.bytes(i)));
+            }
+        }
+
+        @Override
+        public float getValueForNormalization() throws IOException {
+            return boost * boost;
+        }
+
+        @Override
+        public void normalize(float norm, float boost) {
+            // like the scripts the scores are not normalized by the query norm
+            this.boost = boost;
+        }
+
+        // contribution of a document term to the score, divided by the norm of the document for cosine
+        private double factor(int ord) {
+            return cosine ? query.weight(ord) / query.norm() : query.weight(ord) * idfs[ord];
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+            Terms terms = context.reader().terms(field);
+            if (terms == null || query.norm() == 0.0) {
+                return null;
+            }
+            TermsEnum termsEnum = terms.iterator();
+            List<TermScorer> termScorers = new ArrayList<>();
+            for (int i = 0; i < query.size(); i++) {
+                if (termsEnum.seekExact(query.bytes(i)) == false) {
+                    continue;
+                }
+                double factor = factor(i);
+                double bound;
+                if (cosine) {
+                    // squared, the bound of a set of terms is the square root of the sum
+                    bound = factor > 0 ? factor * factor : 0.0;
+                } else {
+                    long maxFreq = terms.hasFreqs() ? termsEnum.totalTermFreq() - termsEnum.docFreq() + 1 : 1;
+                    bound = factor > 0 ? factor * maxFreq : 0.0;
+                }
+                termScorers.add(new TermScorer(termsEnum.postings(null, PostingsEnum.FREQS), factor, idfs[i], bound));
+            }
+            if (termScorers.isEmpty()) {
+                return null;
+            }
+            SortedNumericDoubleValues norms = cosine ? normFieldData.load(context).getDoubleValues() : null;
+            return new MaxScoreScorer(this, termScorers.toArray(new TermScorer[termScorers.size()]), norms,
+                boost > 0 ? topScores : null, boost);
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            Terms terms = context.reader().terms(field);
+            if (terms == null) {
+                return Explanation.noMatch("no terms in field [" + field + "]");
+            }
+            double norm = 1.0;
+            if (cosine) {
+                SortedNumericDoubleValues norms = normFieldData.load(context).getDoubleValues();
+                norms.setDocument(doc);
+                norm = norms.count() == 0 ? 0.0 : norms.valueAt(0);
+            }
+            TermsEnum termsEnum = terms.iterator();
+            List<Explanation> details = new ArrayList<>();
+            double score = 0.0;
+            for (int i = 0; i < query.size(); i++) {
+                if (termsEnum.seekExact(query.bytes(i)) == false) {
+                    continue;
+                }
+                PostingsEnum postings = termsEnum.postings(null, PostingsEnum.FREQS);
+                if (postings.advance(doc) == doc) {
+                    int freq = postings.freq();
+                    double contribution = cosine ? (norm > 0 ? factor(i) * freq * idfs[i] / norm : 0.0) : factor(i) * freq;
+                    score += contribution;
+                    details.add(Explanation.match((float) contribution, "weight(" + field + ":" + query.term(i) + "), tf=" + freq
+                        + ", idf=" + idfs[i] + ", query weight=" + query.weight(i)));
+                }
+            }
+            if (details.isEmpty()) {
+                return Explanation.noMatch("no matching term");
+            }
+            if (cosine) {
+                details.add(Explanation.match((float) norm, "document norm"));
+            }
+            return Explanation.match((float) score * boost, (cosine ? "cosine" : "tfidf") + " similarity, boost=" + boost, details);
+        }
+    }
+
+    /**
+     * The postings of a query term and its contribution to the score
+     */
+    static final class TermScorer {
+
+        final PostingsEnum postings;
+        // multiplied by the term frequency and divided by the document norm for cosine
+        final double factor;
+        final double idf;
+        // upper bound of the contribution, squared for cosine
+        final double bound;
+
+        TermScorer(PostingsEnum postings, double factor, double idf, double bound) {
+            this.postings = postings;
+            this.factor = factor;
+            this.idf = idf;
+            this.bound = bound;
+        }
+    }
+
+    /**
+     * The scores of the best {@code k} documents collected on the shard, in a min heap. The
+     * segments of a shard are searched one after the other, so the weight shares it.
+     */
+    static final class TopScores {
+
+        private final float[] heap;
+        private int size;
+
+        TopScores(int k) {
+            this.heap = new float[k];
+        }
+
+        /**
+         * The score a document must exceed to enter the top k, negative infinity while
+         * there are less than k scores.
+         */
+        float threshold() {
+            return size < heap.length ? Float.NEGATIVE_INFINITY : heap[0];
+        }
+
+        void add(float score) {
+            if (size < heap.length) {
+                int i = size++;
+                heap[i] = score;
+                while (i > 0 && heap[(i - 1) >>> 1] > heap[i]) {
+                    swap(i, (i - 1) >>> 1);
+                    i = (i - 1) >>> 1;
+                }
+            } else if (score > heap[0]) {
+                heap[0] = score;
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && heap[child + 1] < heap[child]) {
+                        child++;
+                    }
+                    if (heap[child] >= heap[i]) {
+                        break;
+                    }
+                    swap(i, child);
+                    i = child;
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            float tmp = heap[i];
+            heap[i] = heap[j];
+            heap[j] = tmp;
+        }
+    }
+
+    /**
+     * MaxScore evaluation over the postings of the query terms of a segment.
+     */
+    final class MaxScoreScorer extends Scorer {
+
+        // sorted by ascending bound
+        private final TermScorer[] scorers;
+        // boundSums[i] is the sum of the bounds of the first i scorers
+        private final double[] boundSums;
+        private final SortedNumericDoubleValues norms;
+        private final TopScores topScores;
+        private final float boost;
+        private final long cost;
+
+        // scorers before this index are non essential, no document that only contains their terms can compete
+        private int firstEssential;
+        private float threshold = Float.NEGATIVE_INFINITY;
+
+        private int doc = -1;
+        // last document whose score was added to the top scores
+        private int collected = -1;
+        private double score;
+        private int freq;
+        // sum of the squared normalized document weights of the scored terms, for cosine
+        private double weightSquares;
+
+        MaxScoreScorer(Weight weight, TermScorer[] scorers, @Nullable SortedNumericDoubleValues norms, @Nullable TopScores topScores,
+                       float boost) {
+            super(weight);
+            this.scorers = scorers;
+            this.norms = norms;
+            this.topScores = topScores;
+            this.boost = boost;
+            new InPlaceMergeSorter() {
+                @Override
+                protected void swap(int i, int j) {
+                    TermScorer tmp = scorers[i];
+                    scorers[i] = scorers[j];
+                    scorers[j] = tmp;
+                }
+
+                @Override
+                protected int compare(int i, int j) {
+                    return Double.compare(scorers[i].bound, scorers[j].bound);
+                }
+            }.sort(0, scorers.length);
+            boundSums = new double[scorers.length + 1];
+            long cost = 0;
+            for (int i = 0; i < scorers.length; i++) {
+                boundSums[i + 1] = boundSums[i] + scorers[i].bound;
+                cost += scorers[i].postings.cost();
+            }
+            this.cost = cost;
+        }
+
+        private double setBound(double boundSum) {
+            return cosine ? Math.sqrt(boundSum) : boundSum;
+        }
+
+        // upper bound of the score of a document given the score of the terms scored so far and the bounds of the others
+        private double docBound(double partialScore, double remainingBounds) {
+            double bound = cosine ? partialScore + Math.sqrt(remainingBounds * Math.max(0.0, 1.0 - weightSquares))
+                : partialScore + remainingBounds;
+            // leaves room for rounding errors, the bounds are not computed like the scores
+            return bound + Math.abs(bound) * 1e-9;
+        }
+
+        private int nextCandidate(int target) throws IOException {
+            while (true) {
+                if (topScores != null && topScores.threshold() > threshold) {
+                    threshold = topScores.threshold();
+                    while (firstEssential < scorers.length && setBound(boundSums[firstEssential + 1]) < threshold) {
+                        firstEssential++;
+                    }
+                }
+                int candidate = DocIdSetIterator.NO_MORE_DOCS;
+                for (int i = firstEssential; i < scorers.length; i++) {
+                    PostingsEnum postings = scorers[i].postings;
+                    int current = postings.docID();
+                    if (current < target) {
+                        current = postings.advance(target);
+                    }
+                    candidate = Math.min(candidate, current);
+                }
+                if (candidate == DocIdSetIterator.NO_MORE_DOCS || score(candidate)) {
+                    doc = candidate;
+                    return candidate;
+                }
+                target = candidate + 1;
+            }
+        }
+
+        /**
+         * Scores a document, returns {@code false} if it was skipped because it can't compete.
+         */
+        private boolean score(int candidate) throws IOException {
+            double norm = 1.0;
+            if (cosine) {
+                norms.setDocument(candidate);
+                norm = norms.count() == 0 ? 0.0 : norms.valueAt(0);
+                if (norm <= 0.0) {
+                    score = 0.0;
+                    freq = 0;
+                    return threshold <= 0;
+                }
+            }
+            score = 0.0;
+            freq = 0;
+            weightSquares = 0.0;
+            for (int i = firstEssential; i < scorers.length; i++) {
+                if (scorers[i].postings.docID() == candidate) {
+                    add(scorers[i], norm);
+                }
+            }
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                if (docBound(score, boundSums[i + 1]) < threshold) {
+                    return false;
+                }
+                PostingsEnum postings = scorers[i].postings;
+                if (postings.docID() < candidate) {
+                    postings.advance(candidate);
+                }
+                if (postings.docID() == candidate) {
+                    add(scorers[i], norm);
+                }
+            }
+            return true;
+        }
+
+        private void add(TermScorer scorer, double norm) throws IOException {
+            int tf = scorer.postings.freq();
+            freq++;
+            if (cosine) {
+                double weight = tf * scorer.idf / norm;
+                weightSquares += weight * weight;
+                score += scorer.factor * weight;
+            } else {
+                score += scorer.factor * tf;
+            }
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public float score() throws IOException {
+            // only documents that are collected raise the threshold, deleted or filtered out candidates are never scored.
+            // Unlike for other scorers the call has a side effect, which is why skipping is opt-in with k > 0
+            if (topScores != null && collected != doc) {
+                collected = doc;
+                topScores.add((float) score);
+            }
+            return (float) score * boost;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return freq;
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return new DocIdSetIterator() {
+                @Override
+                public int docID() {
+                    return doc;
+                }
+
+                @Override
+                public int nextDoc() throws IOException {
+                    return nextCandidate(doc + 1);
+                }
+
+                @Override
+                public int advance(int target) throws IOException {
+                    return nextCandidate(target);
+                }
+
+                @Override
+                public long cost() {
+                    return cost;
+                }
+            };
+        }
+    }
+
+    @Override
+    public String toString(String defaultField) {
+        StringBuilder builder = new StringBuilder(cosine ? "cosine(" : "tfidf(");
+        for (int i = 0; i < query.size(); i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(field).append(':').append(query.term(i)).append('^').append(query.weight(i));
+        }
+        return builder.append(", k=").append(k).append(')').toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (sameClassAs(other) == false) {
+            return false;
+        }
+        TermSimilarityQuery that = (TermSimilarityQuery) other;
+        if (query.size() != that.query.size()) {
+            return false;
+        }
+        for (int i = 0; i < query.size(); i++) {
+            if (query.term(i).equals(that.query.term(i)) == false || query.weight(i) != that.query.weight(i)) {
+                return false;
+            }
+        }
+        return field.equals(that.field) && cosine == that.cosine && idf == that.idf && k == that.k
+            && Objects.equals(normFieldData == null ? null : normFieldData.getFieldName(),
+            that.normFieldData == null ? null : that.normFieldData.getFieldName());
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Objects.hash(classHash(), field, cosine, idf, k, normFieldData == null ? null : normFieldData.getFieldName());
+        for (int i = 0; i < query.size(); i++) {
+            hash = 31 * hash + query.term(i).hashCode();
+            hash = 31 * hash + Double.hashCode(query.weight(i));
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.query;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.examples.nativescript.script.QueryVector;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Builds a {@link TermSimilarityQuery}, the query counterpart of the
+ * {@code cosine_sim_script_score} and {@code tfidf_script_score} scripts that can skip
+ * documents which cannot enter the top {@code k} hits:
+ * <pre>
+ * {
+ *   "term_similarity": {
+ *     "field": "text",
+ *     "terms": ["foo", "bar"],
+ *     "weights": [2.0, 1.0],
+ *     "similarity": "cosine",
+ *     "norm_field": "text_norm",
+ *     "weighting": "tf",
+ *     "k": 10
+ *   }
+ * }
+ * </pre>
+ * The {@code weights} default to 1. The {@code cosine} similarity requires the
+ * {@code norm_field} with the precomputed norm of the document vector, weighted as
+ * given by {@code weighting}. The {@code tfidf} similarity ignores both.
+ * <p>
+ * {@code k} defaults to 0: every matching document is scored, like by the scripts. Skipping
+ * is opt-in: {@code k} must then be at least {@code from + size} of the search, the query
+ * must be the only scoring clause and the hits must be sorted by score. Skipped documents
+ * don't match, so the total hit count and aggregations only see the documents that could
+ * enter the top {@code k}, and aggregations that read the score must not be combined with
+ * a {@code post_filter}.
+ */
+public class TermSimilarityQueryBuilder extends AbstractQueryBuilder<TermSimilarityQueryBuilder> {
+
+    public static final String NAME = "term_similarity";
+
+    public static final int DEFAULT_K = 0;
+
+    private static final ParseField FIELD_FIELD = new ParseField("field");
+    private static final ParseField TERMS_FIELD = new ParseField("terms");
+    private static final ParseField WEIGHTS_FIELD = new ParseField("weights");
+    private static final ParseField SIMILARITY_FIELD = new ParseField("similarity");
+    private static final ParseField NORM_FIELD_FIELD = new ParseField("norm_field");
+    private static final ParseField WEIGHTING_FIELD = new ParseField("weighting");
+    private static final ParseField K_FIELD = new ParseField("k");
+
+    /**
+     * How the documents are scored
+     */
+    public enum Similarity {
+        COSINE, TFIDF;
+
+        public static Similarity fromString(String value) {
+            for (Similarity similarity : values()) {
+                if (similarity.toString().equals(value)) {
+                    return similarity;
+                }
+            }
+            throw new IllegalArgumentException("unknown similarity [" + value + "]");
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final String fieldName;
+    private final String[] terms;
+    private final double[] weights;
+    private Similarity similarity = Similarity.COSINE;
+    private String normField;
+    private boolean tfidfWeighting;
+    private int k = DEFAULT_K;
+
+    /**
+     * @param fieldName the field of the terms
+     * @param terms     the query terms
+     * @param weights   the weights of the terms or {@code null} for a weight of 1 per term
+     */
+    public TermSimilarityQueryBuilder(String fieldName, String[] terms, double[] weights) {
+        if (fieldName == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a field");
+        }
+        if (terms == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires terms");
+        }
+        if (weights != null && terms.length != weights.length) {
+            throw new IllegalArgumentException("[" + NAME + "] requires as many weights as terms");
+        }
+        this.fieldName = fieldName;
+        this.terms = terms;
+        this.weights = weights;
+    }
+
+    public TermSimilarityQueryBuilder(StreamInput in) throws IOException {
+        super(in);
+        fieldName = in.readString();
+        terms = in.readStringArray();
+        weights = in.readBoolean() ? in.readDoubleArray() : null;
+        similarity = Similarity.values()[in.readVInt()];
+        normField = in.readOptionalString();
+        tfidfWeighting = in.readBoolean();
+        k = in.readVInt();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(fieldName);
+        out.writeStringArray(terms);
+        out.writeBoolean(weights != null);
+        if (weights != null) {
+            out.writeDoubleArray(weights);
+        }
+        out.writeVInt(similarity.ordinal());
+        out.writeOptionalString(normField);
+        out.writeBoolean(tfidfWeighting);
+        out.writeVInt(k);
+    }
+
+    public TermSimilarityQueryBuilder similarity(Similarity similarity) {
+        this.similarity = Objects.requireNonNull(similarity);
+        return this;
+    }
+
+    public Similarity similarity() {
+        return similarity;
+    }
+
+    /**
+     * Sets the numeric field with the norm of the document vectors, required for cosine
+     */
+    public TermSimilarityQueryBuilder normField(String normField) {
+        this.normField = normField;
+        return this;
+    }
+
+    public String normField() {
+        return normField;
+    }
+
+    /**
+     * Whether the norm of the document vectors is computed with tf-idf instead of tf weights
+     */
+    public TermSimilarityQueryBuilder tfidfWeighting(boolean tfidfWeighting) {
+        this.tfidfWeighting = tfidfWeighting;
+        return this;
+    }
+
+    public boolean tfidfWeighting() {
+        return tfidfWeighting;
+    }
+
+    /**
+     * Sets the number of top hits the search needs, 0, the default, to score every matching
+     * document. Documents that cannot enter the top {@code k} are skipped and neither counted
+     * as hits nor aggregated, so only set it when hit counts and aggregations aren't needed.
+     */
+    public TermSimilarityQueryBuilder k(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("[" + NAME + "] requires k to be positive or 0 but was [" + k + "]");
+        }
+        this.k = k;
+        return this;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(FIELD_FIELD.getPreferredName(), fieldName);
+        builder.array(TERMS_FIELD.getPreferredName(), terms);
+        if (weights != null) {
+            builder.array(WEIGHTS_FIELD.getPreferredName(), weights);
+        }
+        builder.field(SIMILARITY_FIELD.getPreferredName(), similarity.toString());
+        if (normField != null) {
+            builder.field(NORM_FIELD_FIELD.getPreferredName(), normField);
+        }
+        builder.field(WEIGHTING_FIELD.getPreferredName(), tfidfWeighting ? "tfidf" : "tf");
+        builder.field(K_FIELD.getPreferredName(), k);
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    public static Optional<TermSimilarityQueryBuilder> fromXContent(QueryParseContext parseContext) throws IOException {
+        XContentParser parser = parseContext.parser();
+        String fieldName = null;
+        String[] terms = null;
+        double[] weights = null;
+        Similarity similarity = Similarity.COSINE;
+        String normField = null;
+        String weighting = "tf";
+        int k = DEFAULT_K;
+        String queryName = null;
+        float boost = DEFAULT_BOOST;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                List<Object> values = parser.list();
+                if (TERMS_FIELD.match(currentFieldName)) {
+                    terms = values.stream().map(Object::toString).toArray(String[]::new);
+                } else if (WEIGHTS_FIELD.match(currentFieldName)) {
+                    weights = new double[values.size()];
+                    for (int i = 0; i < weights.length; i++) {
+                        if (values.get(i) instanceof Number == false) {
+                            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] weight [" + values.get(i) + "] is not a number");
+                        }
+                        weights[i] = ((Number) values.get(i)).doubleValue();
+                    }
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName)) {
+                    fieldName = parser.text();
+                } else if (SIMILARITY_FIELD.match(currentFieldName)) {
+                    try {
+                        similarity = Similarity.fromString(parser.text());
+                    } catch (IllegalArgumentException ex) {
+                        throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + ex.getMessage(), ex);
+                    }
+                } else if (NORM_FIELD_FIELD.match(currentFieldName)) {
+                    normField = parser.text();
+                } else if (WEIGHTING_FIELD.match(currentFieldName)) {
+                    weighting = parser.text();
+                } else if (K_FIELD.match(currentFieldName)) {
+                    k = parser.intValue();
+                } else if (BOOST_FIELD.match(currentFieldName)) {
+                    boost = parser.floatValue();
+                } else if (NAME_FIELD.match(currentFieldName)) {
+                    queryName = parser.text();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+            }
+        }
+        if ("tf".equals(weighting) == false && "tfidf".equals(weighting) == false) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown weighting [" + weighting + "]");
+        }
+        if (similarity == Similarity.COSINE && normField == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] cosine similarity requires [norm_field]");
+        }
+        try {
+            TermSimilarityQueryBuilder builder = new TermSimilarityQueryBuilder(fieldName, terms, weights)
+                .similarity(similarity).normField(normField).tfidfWeighting("tfidf".equals(weighting)).k(k);
+            return Optional.of(builder.boost(boost).queryName(queryName));
+        } catch (IllegalArgumentException ex) {
+            throw new ParsingException(parser.getTokenLocation(), ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) throws IOException {
+        MappedFieldType fieldType = context.fieldMapper(fieldName);
+        if (fieldType == null) {
+            return Queries.newMatchNoDocsQuery("unmapped field [" + fieldName + "]");
+        }
+        double[] queryWeights = weights;
+        if (queryWeights == null) {
+            queryWeights = new double[terms.length];
+            Arrays.fill(queryWeights, 1.0);
+        }
+        QueryVector query = new QueryVector(terms, queryWeights);
+        if (similarity == Similarity.TFIDF) {
+            return TermSimilarityQuery.tfidf(fieldType.name(), query, k);
+        }
+        MappedFieldType normFieldType = normField == null ? null : context.fieldMapper(normField);
+        if (normFieldType == null) {
+            throw new QueryShardException(context, "[" + NAME + "] norm field [" + normField + "] is not mapped");
+        }
+        IndexFieldData<?> normFieldData = context.getForField(normFieldType);
+        if (normFieldData instanceof IndexNumericFieldData == false) {
+            throw new QueryShardException(context, "[" + NAME + "] norm field [" + normField + "] is not numeric");
+        }
+        return TermSimilarityQuery.cosine(fieldType.name(), query, (IndexNumericFieldData) normFieldData, tfidfWeighting, k);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    protected boolean doEquals(TermSimilarityQueryBuilder other) {
+        return Objects.equals(fieldName, other.fieldName) && Arrays.equals(terms, other.terms) && Arrays.equals(weights, other.weights)
+            && similarity == other.similarity && Objects.equals(normField, other.normField) && tfidfWeighting == other.tfidfWeighting
+            && k == other.k;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(fieldName, Arrays.hashCode(terms), Arrays.hashCode(weights), similarity, normField, tfidfWeighting, k);
+    }
+}
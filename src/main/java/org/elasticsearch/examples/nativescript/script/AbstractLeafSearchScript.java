@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.script.AbstractSearchScript;
+import org.elasticsearch.script.ScriptException;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Base class of the search scripts that work directly on the doc values or postings of a segment.
+ * <p>
+ * Native scripts only get the lookups of a segment and not the segment itself, so these scripts run under the
+ * {@link LeafScriptEngineService#NAME} language, whose engine passes the segment along. {@link #leafContext()}
+ * gives access to it and {@link #onNextReader()} is called before the first document of every segment, so
+ * subclasses can bind their per segment state once instead of going through the lookups for every document.
+ */
+public abstract class AbstractLeafSearchScript extends AbstractSearchScript {
+
+    private final String scriptName;
+
+    // the segment given by the engine, bound on the first document so subclasses see the switch in setDocument
+    private LeafReaderContext nextContext;
+
+    private LeafReaderContext leafContext;
+
+    private int docId = -1;
+
+    protected AbstractLeafSearchScript(String scriptName) {
+        this.scriptName = scriptName;
+    }
+
+    /**
+     * Returns the segment of the current document
+     */
+    protected LeafReaderContext leafContext() {
+        return leafContext;
+    }
+
+    /**
+     * Returns the id of the current document within its segment
+     */
+    protected int docId() {
+        return docId;
+    }
+
+    /**
+     * Called before the first document of every segment
+     */
+    protected void onNextReader() throws IOException {
+    }
+
+    @Override
+    public void setDocument(int doc) {
+        if (nextContext == null) {
+            throw new IllegalArgumentException("script [" + scriptName + "] reads the segment directly and must run with lang ["
+                + LeafScriptEngineService.NAME + "]");
+        }
+        super.setDocument(doc);
+        docId = doc;
+        if (nextContext != leafContext) {
+            leafContext = nextContext;
+            try {
+                onNextReader();
+            } catch (IOException ex) {
+                throw failure(ex);
+            }
+        }
+    }
+
+    /**
+     * Called by {@link LeafScriptEngineService} with the segment of the next documents
+     */
+    void setNextReader(LeafReaderContext context) {
+        nextContext = context;
+    }
+
+    /**
+     * Wraps a failure to read the segment into the exception of a failed script
+     */
+    protected ScriptException failure(IOException ex) {
+        return new ScriptException("Could not compute " + scriptName + ": " + ex.getMessage(), ex, Collections.emptyList(),
+            "exception on unknown var", scriptName);
+    }
+}
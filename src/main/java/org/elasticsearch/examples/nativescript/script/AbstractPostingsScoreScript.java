@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+
+import java.io.IOException;
+
+/**
+ * Base class of the scoring scripts that read the frequencies of the query terms from the postings of a field.
+ * <p>
+ * The statistics of the query terms and of the field are computed once per search from the whole shard, like
+ * the {@code _index} lookup does. In every segment the postings of the query terms are opened once from the
+ * term states collected with the statistics, so the terms are not looked up again, and {@link #tf(int)}
+ * advances them to the current document only when it is called. Subclasses can thus skip reading the terms
+ * that don't change the score. Documents are expected in increasing order within a segment, the postings are
+ * reopened if a script goes back.
+ */
+public abstract class AbstractPostingsScoreScript extends AbstractScoreScript {
+
+    // the field containing the terms that should be scored
+    protected final String field;
+    // terms that are used for scoring, compiled once per search
+    protected final QueryVector query;
+
+    // shard statistics, computed on the first segment
+    private TermContext[] termContexts;
+    private long docCount;
+    private long sumTotalTermFreq;
+
+    // postings of the query terms in the current segment, null if the segment doesn't have the term
+    private PostingsEnum[] postings;
+    private TermsEnum termsEnum;
+
+    protected AbstractPostingsScoreScript(String scriptName, ScriptMetrics.ScriptRecorder recorder, String field, QueryVector query) {
+        super(scriptName, recorder);
+        this.field = field;
+        this.query = query;
+    }
+
+    @Override
+    protected void onNextReader() throws IOException {
+        if (termContexts == null) {
+            collectStatistics(ReaderUtil.getTopLevelContext(leafContext()));
+        }
+        Terms terms = leafContext().reader().terms(field);
+        termsEnum = terms == null ? null : terms.iterator();
+        if (postings == null) {
+            postings = new PostingsEnum[query.size()];
+        }
+        for (int i = 0; i < postings.length; i++) {
+            postings[i] = postings(i, postings[i]);
+        }
+    }
+
+    @Override
+    public void setDocument(int doc) {
+        LeafReaderContext previousLeaf = leafContext();
+        int previousDoc = docId();
+        super.setDocument(doc);
+        if (leafContext() == previousLeaf && doc < previousDoc) {
+            // postings only move forward
+            try {
+                for (int i = 0; i < postings.length; i++) {
+                    postings[i] = postings(i, postings[i]);
+                }
+            } catch (IOException ex) {
+                throw failure(ex);
+            }
+        }
+    }
+
+    private void collectStatistics(IndexReaderContext topContext) throws IOException {
+        docCount = 0;
+        sumTotalTermFreq = 0;
+        for (LeafReaderContext leaf : topContext.leaves()) {
+            Terms terms = leaf.reader().terms(field);
+            if (terms != null) {
+                docCount += terms.getDocCount();
+                sumTotalTermFreq += terms.getSumTotalTermFreq();
+            }
+        }
+        TermContext[] contexts = new TermContext[query.size()];
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = TermContext.build(topContext, new Term(field, query.bytes(i)));
+        }
+        termContexts = contexts;
+    }
+
+    private PostingsEnum postings(int ord, PostingsEnum reuse) throws IOException {
+        TermState state = termsEnum == null ? null : termContexts[ord].get(leafContext().ord);
+        if (state == null) {
+            return null;
+        }
+        termsEnum.seekExact(query.bytes(ord), state);
+        return termsEnum.postings(reuse, PostingsEnum.FREQS);
+    }
+
+    /**
+     * Returns the frequency of a query term in the current document
+     */
+    protected final int tf(int ord) throws IOException {
+        PostingsEnum termPostings = postings[ord];
+        if (termPostings == null) {
+            return 0;
+        }
+        int target = docId();
+        int doc = termPostings.docID();
+        if (doc < target) {
+            doc = termPostings.advance(target);
+        }
+        return doc == target ? termPostings.freq() : 0;
+    }
+
+    /**
+     * Returns the number of documents of the shard that contain a query term
+     */
+    protected final long df(int ord) {
+        return termContexts[ord].docFreq();
+    }
+
+    /**
+     * Returns the number of occurrences of a query term in the shard
+     */
+    protected final long ttf(int ord) {
+        return termContexts[ord].totalTermFreq();
+    }
+
+    /**
+     * Returns the number of documents of the shard that have the field
+     */
+    protected final long docCount() {
+        return docCount;
+    }
+
+    /**
+     * Returns the number of terms of the field in the shard
+     */
+    protected final long sumTotalTermFreq() {
+        return sumTotalTermFreq;
+    }
+}
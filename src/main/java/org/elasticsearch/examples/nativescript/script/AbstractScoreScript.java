@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+
+import java.io.IOException;
+
+/**
+ * Base class of the scoring scripts.
+ * <p>
+ * Subclasses implement {@link #scoreDocument()}, the base class returns it without boxing from
+ * {@link #runAsDouble()}, records the processed documents and failures in the node's
+ * {@link ScriptMetrics} and notifies the script when it moves to the next segment.
+ */
+public abstract class AbstractScoreScript extends AbstractLeafSearchScript {
+
+    private final ScriptMetrics.ScriptRecorder recorder;
+
+    protected AbstractScoreScript(String scriptName, ScriptMetrics.ScriptRecorder recorder) {
+        super(scriptName);
+        this.recorder = recorder;
+    }
+
+    /**
+     * Computes the score of the current document
+     */
+    protected abstract double scoreDocument() throws IOException;
+
+    @Override
+    public void setDocument(int doc) {
+        LeafReaderContext previous = leafContext();
+        try {
+            super.setDocument(doc);
+        } catch (RuntimeException ex) {
+            recorder.onFailure();
+            throw ex;
+        }
+        if (leafContext() != previous) {
+            recorder.onNextReader();
+        }
+        recorder.onDocument();
+    }
+
+    @Override
+    public Object run() {
+        return runAsDouble();
+    }
+
+    @Override
+    public double runAsDouble() {
+        try {
+            return scoreDocument();
+        } catch (IOException ex) {
+            recorder.onFailure();
+            throw failure(ex);
+        } catch (RuntimeException ex) {
+            recorder.onFailure();
+            throw ex;
+        }
+    }
+}
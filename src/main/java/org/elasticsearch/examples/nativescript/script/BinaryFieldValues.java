@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.script.ScriptException;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Reads the first value of a {@code binary} field with doc values in a segment. The mapper stores
+ * the number of values of the document followed by the length and the bytes of every value, this
+ * class skips the header and exposes the bytes of the first value without copying them.
+ */
+final class BinaryFieldValues {
+
+    private final BinaryDocValues values;
+    private final ByteArrayDataInput in = new ByteArrayDataInput();
+    private byte[] bytes;
+    private int offset;
+    private int length;
+
+    private BinaryFieldValues(BinaryDocValues values) {
+        this.values = values;
+    }
+
+    /**
+     * Returns the values of the field in the segment.
+     *
+     * @throws ScriptException if the field isn't a binary field with doc values
+     */
+    static BinaryFieldValues of(LeafReader reader, String field, String scriptName) throws IOException {
+        FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(field);
+        if (fieldInfo != null && fieldInfo.getDocValuesType() != DocValuesType.BINARY) {
+            throw new ScriptException("Could not compute " + scriptName + ": field [" + field + "] must be a binary field with doc values",
+                null, Collections.emptyList(), "exception on unknown var", scriptName);
+        }
+        return new BinaryFieldValues(DocValues.getBinary(reader, field));
+    }
+
+    /**
+     * Positions on the document, returns {@code false} if the document has no value.
+     */
+    boolean advance(int doc) {
+        BytesRef value = values.get(doc);
+        if (value.length == 0) {
+            return false;
+        }
+        in.reset(value.bytes, value.offset, value.length);
+        if (in.readVInt() == 0) {
+            return false;
+        }
+        length = in.readVInt();
+        offset = in.getPosition();
+        bytes = value.bytes;
+        return true;
+    }
+
+    /**
+     * Array that holds the value of the current document
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * Start of the value of the current document in {@link #bytes()}
+     */
+    int offset() {
+        return offset;
+    }
+
+    /**
+     * Length of the value of the current document
+     */
+    int length() {
+        return length;
+    }
+}
@@ -15,42 +15,48 @@
 package org.elasticsearch.examples.nativescript.script;
 
 import java.io.IOException;
-import java.util.*;
-import java.util.function.BiConsumer;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.apache.lucene.search.Scorer;
-import org.elasticsearch.script.ScriptException;
+import java.util.Collections;
+import java.util.Map;
 
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.common.Nullable;
-import org.elasticsearch.script.AbstractSearchScript;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.index.fielddata.ScriptDocValues;
 import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.NativeScriptFactory;
-import org.elasticsearch.search.lookup.IndexField;
-import org.elasticsearch.search.lookup.IndexFieldTerm;
+import org.elasticsearch.script.ScriptException;
 
 /**
  * Script that scores documents with cosine similarity, see Manning et al.,
  * "Information Retrieval", Chapter 6, Eq. 6.12 (link:
  * http://nlp.stanford.edu/IR-book/). This implementation only scores a list of
  * terms on one field.
+ * <p>
+ * By default the document vector is read from the term vectors of the field, so
+ * the field has to be indexed with {@code "term_vector": "yes"}. If the L2 norm
+ * of the document vector is computed at index time and stored in a numeric
+ * field with doc values, the {@code norm_field} parameter makes the script read
+ * it from there and only look up the query terms in the document. In this mode
+ * the document vector can be weighted either by raw term frequency
+ * ({@code "weighting": "tf"}, the default) or by tf-idf
+ * ({@code "weighting": "tfidf"}, tf * log((#docs+2)/(df+1)) as in
+ * {@link TFIDFScoreScript}), the stored norm has to be computed the same way.
+ * The frequencies of the query terms are read from their postings, see
+ * {@link AbstractPostingsScoreScript}.
  */
-public class CosineSimilarityScoreScript extends AbstractSearchScript {
+public class CosineSimilarityScoreScript extends AbstractPostingsScoreScript {
 
-    // the field containing the terms that should be scored, must be initialized
-    // in constructor from parameters.
-    String field = null;
-    // terms that are used for scoring, must be unique
-    ArrayList<String> terms = null;
-    // weights, in case we want to put emphasis on a specific term. In the most
-    // simple case, 1.0 for every term.
-    ArrayList<Double> weights = null;
+    // numeric doc values field with the L2 norm of the document vector, optional
+    final String normField;
+    // weight the document terms with tf-idf instead of raw tf, requires normField
+    final boolean tfidf;
+    // idf of the query terms, only computed in tf-idf mode on the first segment of the shard
+    double[] idf = null;
 
     final static public String SCRIPT_NAME = "cosine_sim_script_score";
 
-    private final static Logger logger = LogManager.getLogger(CosineSimilarityScoreScript.class);
-
     /**
      * Factory that is registered in
      * {@link org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin#onModule(org.elasticsearch.script.ScriptModule)}
@@ -58,16 +64,48 @@ public class CosineSimilarityScoreScript extends AbstractSearchScript {
      */
     public static class Factory implements NativeScriptFactory {
 
+        private final ScriptMetrics metrics;
+        private final QueryVectorCache queryVectors;
+
+        public Factory(ScriptMetrics metrics, QueryVectorCache queryVectors) {
+            this.metrics = metrics;
+            this.queryVectors = queryVectors;
+        }
+
         /**
          * This method is called for every search on every shard.
-         * 
+         *
          * @param params
          *            list of script parameters passed with the query
          * @return new native script
          */
         @Override
         public ExecutableScript newScript(@Nullable Map<String, Object> params) throws ScriptException {
-            return new CosineSimilarityScoreScript(params);
+            // get the field
+            String field = params == null ? null : (String) params.get("field");
+            if (field == null) {
+                throw new ScriptException(
+                    "cannot initialize " + CosineSimilarityScoreScript.SCRIPT_NAME + ": field parameter missing!", null, Collections.emptyList(),
+                    "exception on unknown var", CosineSimilarityScoreScript.SCRIPT_NAME
+                );
+            }
+            String normField = (String) params.get("norm_field");
+            String weighting = params.containsKey("weighting") ? (String) params.get("weighting") : "tf";
+            if ("tf".equals(weighting) == false && "tfidf".equals(weighting) == false) {
+                throw new ScriptException(
+                    "cannot initialize " + CosineSimilarityScoreScript.SCRIPT_NAME + ": unknown weighting [" + weighting + "]!", null, Collections.emptyList(),
+                    "exception on unknown var", CosineSimilarityScoreScript.SCRIPT_NAME
+                );
+            }
+            if ("tfidf".equals(weighting) && normField == null) {
+                throw new ScriptException(
+                    "cannot initialize " + CosineSimilarityScoreScript.SCRIPT_NAME + ": tfidf weighting requires the norm_field parameter!", null, Collections.emptyList(),
+                    "exception on unknown var", CosineSimilarityScoreScript.SCRIPT_NAME
+                );
+            }
+            // the terms and weights are parsed and hashed once and cached for later searches, run() only does lookups
+            return new CosineSimilarityScoreScript(metrics.recorder(CosineSimilarityScoreScript.SCRIPT_NAME), field,
+                queryVectors.get(CosineSimilarityScoreScript.SCRIPT_NAME, params, true), normField, "tfidf".equals(weighting));
         }
 
         @Override
@@ -88,112 +126,101 @@ public class CosineSimilarityScoreScript extends AbstractSearchScript {
     }
 
     /**
-     * @param params
-     *            terms that a scored are placed in this parameter. Initialize
-     *            them here.
-     * @throws ScriptException
+     * @param recorder
+     *            metrics of this script instance
+     * @param field
+     *            the field that holds the document vector
+     * @param query
+     *            compiled terms and weights of the query vector
+     * @param normField
+     *            numeric field with the precomputed document norm or {@code null}
+     * @param tfidf
+     *            whether the document vector is weighted by tf-idf
      */
-    private CosineSimilarityScoreScript(Map<String, Object> params) throws ScriptException {
-        params.entrySet();
-        // get the terms
-        terms = (ArrayList<String>) params.get("terms");
-
-        weights = (ArrayList<Double>) params.get("weights");
-        // get the field
-        field = (String) params.get("field");
-        //logger.info("calculating the similarity terms size:"+ terms.size()+" field:"+ field );
-        if (field == null || terms == null || weights == null) {
-            throw new ScriptException(
-                "cannot initialize " + CosineSimilarityScoreScript.SCRIPT_NAME + ": field, terms or weights parameter missing!", null, Collections.emptyList(),
-                "exception on unknown var", CosineSimilarityScoreScript.SCRIPT_NAME
-            );
-        }
-        if (weights.size() != terms.size()) {
-            throw new ScriptException(
-                "cannot initialize " + CosineSimilarityScoreScript.SCRIPT_NAME + ": terms and weights array must have same length!", null, Collections.emptyList(),
-                "exception on unknown var", CosineSimilarityScoreScript.SCRIPT_NAME
-            );
-        }
+    private CosineSimilarityScoreScript(ScriptMetrics.ScriptRecorder recorder, String field, QueryVector query,
+                                        @Nullable String normField, boolean tfidf) {
+        super(SCRIPT_NAME, recorder, field, query);
+        this.normField = normField;
+        this.tfidf = tfidf;
     }
 
-    private Double getPositionFromTerms(String key){
-        if( !key.isEmpty() ) {
-            for (int i = 0; i < terms.size(); i++) {
-                if (terms.get(i).equals(key))
-                    return weights.get(i);
+    @Override
+    protected void onNextReader() throws IOException {
+        super.onNextReader();
+        if (tfidf && idf == null) {
+            idf = new double[query.size()];
+            for (int i = 0; i < query.size(); i++) {
+                idf[i] = Math.log(((double) docCount() + 2.0) / ((double) df(i) + 1.0));
             }
         }
-        return 0.0;
     }
 
     @Override
-    public Object run() {
-        try {
-            int k = 0;
-            float score = 0;
-            // first, get the ShardTerms object for the field.
-            IndexField indexField = this.indexLookup().get(field);
-            double queryWeightSum = 0.0f;
-            double docWeightSum = 0.0f;
-            double scoreValue = 0.0f;
-            Map< String , Integer> allKeys = new HashMap<>( );
-            //1. 计算 Cosine 词
-            for (Map.Entry<String, IndexFieldTerm> entry : indexField.entrySet()) {
-                //IndexFieldTerm i = indexField.get(entry.getKey());
-                logger.info("calculating the cosine similarity Index keyword:"+ entry.getKey()  );
-                if(!allKeys.containsKey(entry.getKey())) {
-                    allKeys.put(entry.getKey(), k);
-                    k++;
-                }
-            }
-
-            for (int i = 0; i < terms.size(); i++) {
-                if(!allKeys.containsKey(terms.get(i))) {
-                    allKeys.put(terms.get(i), k);
-                    k++;
-                }
-                logger.info("calculating the cosine similarity terms keyword:"+ terms.get(i)  );
-            }
+    protected double scoreDocument() throws IOException {
+        if (query.norm() == 0.0) {
+            return 0.0;
+        }
+        return normField == null ? scoreTermVector() : scoreQueryTerms();
+    }
 
-            logger.info("calculating the cosine similarity terms length:"+ terms.size() +" Index length:"+ indexField.size() +" total length: " + allKeys.size() );
-
-            //2. 构造矩阵数组
-            double[] termsVector = new double[allKeys.size()];//query文档矩阵
-            double[] indexVector = new double[allKeys.size()];//被比较文档矩阵
-
-            //3.初始化矩阵
-            k = 0;
-            for (Map.Entry<String, Integer> entry : allKeys.entrySet()) {
-                //IndexFieldTerm i = indexField.get(entry.getKey());
-                int tf = 0;
-                IndexFieldTerm indexTermField = indexField.get( entry.getKey() );
-                if( indexTermField != null ){
-                     tf = indexTermField.tf();
-                }
-                indexVector[k] = tf;
-                termsVector[k] = getPositionFromTerms(entry.getKey());
+    /**
+     * Reads the whole document vector from the term vectors, every term is visited once
+     * and looked up in the query vector.
+     */
+    private double scoreTermVector() throws IOException {
+        double score = 0.0;
+        double docWeightSum = 0.0;
+        Terms docTerms = leafContext().reader().getTermVector(docId(), field);
+        if (docTerms == null) {
+            return 0.0;
+        }
+        TermsEnum termsEnum = docTerms.iterator();
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            long tf = termsEnum.totalTermFreq();
+            docWeightSum += (double) tf * tf;
+            int ord = query.ord(term);
+            if (ord >= 0) {
+                score += tf * query.weight(ord);
             }
+        }
+        if (docWeightSum == 0.0) {
+            return 0.0;
+        }
+        return score / (Math.sqrt(docWeightSum) * query.norm());
+    }
 
-            logger.info("calculating the cosine similarity matrix done  total length: " + allKeys.size() );
-
-            //4.计算相似度值
-            for (int i = 0; i < allKeys.size(); i++) {
-                double termscore = (double) indexVector[i] * termsVector[i] ;
-                score += termscore;
-                docWeightSum += Math.pow(indexVector[i] , 2.0);
-                queryWeightSum += Math.pow(termsVector[i], 2.0);
-
+    /**
+     * Reads the document norm from the norm field, only the query terms are looked up in
+     * the document, so the cost doesn't depend on the document length.
+     */
+    private double scoreQueryTerms() throws IOException {
+        double docNorm = docNorm();
+        if (docNorm <= 0.0) {
+            return 0.0;
+        }
+        double score = 0.0;
+        for (int i = 0; i < query.size(); i++) {
+            int tf = tf(i);
+            if (tf != 0) {
+                score += (tfidf ? tf * idf[i] : tf) * query.weight(i);
             }
+        }
+        return score / (docNorm * query.norm());
+    }
 
-            scoreValue = (double)(score / (Math.sqrt(docWeightSum) * Math.sqrt(queryWeightSum)));
-            logger.info("calculating the cosine similarity score:"+ score +" queryWeightSum:"+ queryWeightSum + " docWeightSum:"+ docWeightSum +" cosine:" + scoreValue);
-            return scoreValue;
-        } catch (IOException ex) {
-            throw new ScriptException(
-                "Could not compute cosine similarity: "+ex.getMessage(), null, Collections.emptyList(),
-                "exception on unknown var", CosineSimilarityScoreScript.SCRIPT_NAME
-            );
+    private double docNorm() {
+        ScriptDocValues<?> docValues = doc().get(normField);
+        if (docValues instanceof ScriptDocValues.Doubles) {
+            ScriptDocValues.Doubles doubles = (ScriptDocValues.Doubles) docValues;
+            return doubles.isEmpty() ? 0.0 : doubles.getValue();
+        } else if (docValues instanceof ScriptDocValues.Longs) {
+            ScriptDocValues.Longs longs = (ScriptDocValues.Longs) docValues;
+            return longs.isEmpty() ? 0.0 : longs.getValue();
         }
+        throw new ScriptException(
+            "Could not compute cosine similarity: norm field [" + normField + "] is not numeric", null, Collections.emptyList(),
+            "exception on unknown var", CosineSimilarityScoreScript.SCRIPT_NAME
+        );
     }
 
 }
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import java.util.List;
+
+/**
+ * Binary encoding of dense float vectors: the L2 norm of the vector followed by its
+ * components, all as big endian floats. The norm is computed once when the vector is
+ * encoded, so cosine similarity doesn't have to go over the document vector twice.
+ * <p>
+ * The {@code dense_vector} ingest processor encodes the vectors at index time and the
+ * {@link DenseVectorScoreScript} decodes them, both rely on this class.
+ */
+public final class DenseVector {
+
+    private DenseVector() {
+    }
+
+    /**
+     * Parses a vector from a list of numbers
+     *
+     * @throws IllegalArgumentException if an element isn't a number
+     */
+    public static float[] parse(List<?> values) {
+        float[] vector = new float[values.size()];
+        for (int i = 0; i < vector.length; i++) {
+            Object value = values.get(i);
+            if (value instanceof Number == false) {
+                throw new IllegalArgumentException("vector elements must be numbers but found [" + value + "]");
+            }
+            vector[i] = ((Number) value).floatValue();
+        }
+        return vector;
+    }
+
+    public static float norm(float[] vector) {
+        double squares = 0;
+        for (float value : vector) {
+            squares += value * value;
+        }
+        return (float) Math.sqrt(squares);
+    }
+
+    /**
+     * Returns the number of dimensions of an encoded vector of the given length in bytes
+     */
+    public static int dims(int length) {
+        return length / Float.BYTES - 1;
+    }
+
+    public static byte[] encode(float[] vector) {
+        byte[] bytes = new byte[(vector.length + 1) * Float.BYTES];
+        writeFloat(bytes, 0, norm(vector));
+        for (int i = 0; i < vector.length; i++) {
+            writeFloat(bytes, (i + 1) * Float.BYTES, vector[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the norm of an encoded vector
+     */
+    public static float decodeNorm(byte[] bytes, int offset) {
+        return Float.intBitsToFloat(readInt(bytes, offset));
+    }
+
+    /**
+     * Decodes the components of an encoded vector into {@code vector}, which must have the
+     * number of dimensions of the encoded vector.
+     */
+    public static void decode(byte[] bytes, int offset, float[] vector) {
+        for (int i = 0, o = offset + Float.BYTES; i < vector.length; i++, o += Float.BYTES) {
+            vector[i] = Float.intBitsToFloat(readInt(bytes, o));
+        }
+    }
+
+    /**
+     * Dot product of two vectors of the same length. A single sum would make every addition
+     * wait for the previous one, and the JIT doesn't reorder floating point additions, so
+     * the products are added to four independent sums that the CPU can update in parallel.
+     */
+    public static float dotProduct(float[] a, float[] b) {
+        float sum0 = 0;
+        float sum1 = 0;
+        float sum2 = 0;
+        float sum3 = 0;
+        int i = 0;
+        for (int end = a.length & ~3; i < end; i += 4) {
+            sum0 += a[i] * b[i];
+            sum1 += a[i + 1] * b[i + 1];
+            sum2 += a[i + 2] * b[i + 2];
+            sum3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            sum0 += a[i] * b[i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8)
+            | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void writeFloat(byte[] bytes, int offset, float value) {
+        int bits = Float.floatToIntBits(value);
+        bytes[offset] = (byte) (bits >>> 24);
+        bytes[offset + 1] = (byte) (bits >>> 16);
+        bytes[offset + 2] = (byte) (bits >>> 8);
+        bytes[offset + 3] = (byte) bits;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.script.NativeScriptFactory;
+import org.elasticsearch.script.ScriptException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scripts that score documents by the similarity of a dense float vector stored in
+ * a {@code binary} field with doc values and the query vector passed in the
+ * {@code vector} parameter. The document vectors are encoded by the
+ * {@code dense_vector} ingest processor together with their norm, see
+ * {@link DenseVector}.
+ * <p>
+ * Two scripts are registered: {@code dot_product} returns the dot product of the
+ * vectors and {@code dense_cosine} their cosine similarity. Documents without a
+ * vector or with a zero vector score 0, vectors with a different number of
+ * dimensions than the query fail the search.
+ */
+public class DenseVectorScoreScript extends AbstractScoreScript {
+
+    public static final String DOT_PRODUCT_SCRIPT_NAME = "dot_product";
+
+    public static final String COSINE_SCRIPT_NAME = "dense_cosine";
+
+    // binary field holding the document vectors
+    final String field;
+    // the query vector and its norm
+    final float[] query;
+    final float queryNorm;
+    // divide the dot product by the norms
+    final boolean cosine;
+    final String scriptName;
+
+    // doc values of the current segment
+    BinaryFieldValues values;
+    // the vector of the current document, decoded into the same array for every document
+    final float[] vector;
+
+    /**
+     * Factory that is registered in
+     * {@link org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin#getNativeScripts()}
+     * method when the plugin is loaded, once for every similarity.
+     */
+    public static class Factory implements NativeScriptFactory {
+
+        private final ScriptMetrics metrics;
+
+        private final boolean cosine;
+
+        /**
+         * @param metrics metrics of the node
+         * @param cosine  {@code true} for the {@code dense_cosine} script, {@code false} for {@code dot_product}
+         */
+        public Factory(ScriptMetrics metrics, boolean cosine) {
+            this.metrics = metrics;
+            this.cosine = cosine;
+        }
+
+        /**
+         * This method is called for every search on every shard.
+         *
+         * @param params
+         *            list of script parameters passed with the query
+         * @return new native script
+         */
+        @Override
+        public ExecutableScript newScript(@Nullable Map<String, Object> params) throws ScriptException {
+            String field = params == null ? null : (String) params.get("field");
+            List<?> vector = params == null ? null : (List<?>) params.get("vector");
+            if (field == null || vector == null) {
+                throw new ScriptException("cannot initialize " + getName() + ": field or vector parameter missing!", null,
+                    Collections.emptyList(), "exception on unknown var", getName());
+            }
+            float[] query;
+            try {
+                query = DenseVector.parse(vector);
+            } catch (IllegalArgumentException ex) {
+                throw new ScriptException("cannot initialize " + getName() + ": " + ex.getMessage(), ex,
+                    Collections.emptyList(), "exception on unknown var", getName());
+            }
+            return new DenseVectorScoreScript(getName(), metrics.recorder(getName()), field, query, cosine);
+        }
+
+        @Override
+        public String getName() {
+            return cosine ? COSINE_SCRIPT_NAME : DOT_PRODUCT_SCRIPT_NAME;
+        }
+
+        /**
+         * Indicates if document scores may be needed by the produced scripts.
+         *
+         * @return {@code true} if scores are needed.
+         */
+        @Override
+        public boolean needsScores() {
+            return false;
+        }
+    }
+
+    /**
+     * @param scriptName
+     *            name of the script
+     * @param recorder
+     *            metrics of this script instance
+     * @param field
+     *            the binary field that holds the document vectors
+     * @param query
+     *            the query vector
+     * @param cosine
+     *            whether the dot product is normalized by the norms of the vectors
+     */
+    private DenseVectorScoreScript(String scriptName, ScriptMetrics.ScriptRecorder recorder, String field, float[] query, boolean cosine) {
+        super(scriptName, recorder);
+        this.scriptName = scriptName;
+        this.field = field;
+        this.query = query;
+        this.queryNorm = DenseVector.norm(query);
+        this.cosine = cosine;
+        this.vector = new float[query.length];
+    }
+
+    @Override
+    protected void onNextReader() throws IOException {
+        values = BinaryFieldValues.of(leafContext().reader(), field, scriptName);
+    }
+
+    @Override
+    protected double scoreDocument() throws IOException {
+        if (values.advance(docId()) == false) {
+            return 0.0;
+        }
+        if (DenseVector.dims(values.length()) != query.length) {
+            throw new ScriptException("Could not compute " + scriptName + ": vector of " + DenseVector.dims(values.length())
+                + " dimensions found in field [" + field + "] but the query vector has " + query.length,
+                null, Collections.emptyList(), "exception on unknown var", scriptName);
+        }
+        if (cosine == false) {
+            DenseVector.decode(values.bytes(), values.offset(), vector);
+            return DenseVector.dotProduct(query, vector);
+        }
+        float norm = DenseVector.decodeNorm(values.bytes(), values.offset());
+        if (norm == 0 || queryNorm == 0) {
+            return 0.0;
+        }
+        DenseVector.decode(values.bytes(), values.offset(), vector);
+        return DenseVector.dotProduct(query, vector) / (norm * queryNorm);
+    }
+
+}
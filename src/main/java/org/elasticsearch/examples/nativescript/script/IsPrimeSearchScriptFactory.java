@@ -14,7 +14,6 @@
 
 package org.elasticsearch.examples.nativescript.script;
 
-import java.math.BigInteger;
 import java.util.Map;
 
 import org.elasticsearch.common.Strings;
@@ -61,9 +60,8 @@ public class IsPrimeSearchScriptFactory implements NativeScriptFactory {
             throw new IllegalArgumentException("Missing the field parameter");
         }
 
-        // Example of an optional integer  parameter
-        int certainty = params == null ? 10 : XContentMapValues.nodeIntegerValue(params.get("certainty"), 10);
-        return new IsPrimeSearchScript(fieldName, certainty);
+        // The certainty parameter of earlier versions is ignored, the test is exact for every long value
+        return new IsPrimeSearchScript(fieldName);
     }
 
     @Override
@@ -84,17 +82,13 @@ public class IsPrimeSearchScriptFactory implements NativeScriptFactory {
 
         private final String fieldName;
 
-        private final int certainty;
-
         /**
          * Factory creates this script on every
          *
          * @param fieldName the name of the field that should be checked
-         * @param certainty the required certainty for the number to be prime
          */
-        private IsPrimeSearchScript(String fieldName, int certainty) {
+        private IsPrimeSearchScript(String fieldName) {
             this.fieldName = fieldName;
-            this.certainty = certainty;
         }
 
         @Override
@@ -104,14 +98,8 @@ public class IsPrimeSearchScriptFactory implements NativeScriptFactory {
             ScriptDocValues<Long> docValue = (ScriptDocValues<Long>) doc().get(fieldName);
             // Check if field exists
             if (docValue != null && !docValue.isEmpty()) {
-                try {
-                    // Try to parse it as an integer
-                    BigInteger bigInteger = BigInteger.valueOf(((Longs) docValue).getValue());
-                    // Check if it's prime
-                    return bigInteger.isProbablePrime(certainty);
-                } catch (NumberFormatException ex) {
-                    return false;
-                }
+                // Check if it's prime
+                return PrimeCache.isPrime(((Longs) docValue).getValue());
             }
             return false;
         }
@@ -14,50 +14,69 @@
 
 package org.elasticsearch.examples.nativescript.script;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.InPlaceMergeSorter;
 import org.elasticsearch.common.Nullable;
-import org.elasticsearch.script.AbstractSearchScript;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
 import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.NativeScriptFactory;
 import org.elasticsearch.script.ScriptException;
-import org.elasticsearch.search.lookup.IndexField;
-import org.elasticsearch.search.lookup.IndexFieldTerm;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Script that scores documents with cosine similarity, see Manning et al.,
- * "Information Retrieval", Chapter 6, Eq. 6.12 (link:
- * http://nlp.stanford.edu/IR-book/). This implementation only scores a list of
- * terms on one field.
+ * Script that scores documents with the weighted Jaccard similarity between the
+ * query terms and the terms of a keyword field: the sum of the weights of the
+ * terms found in the document divided by the sum of the weights of the union of
+ * the query and document terms. Document terms that are not part of the query
+ * have the weight 1.0, so with the default weights the score is the plain
+ * Jaccard index |Q &cap; D| / |Q &cup; D|.
+ * <p>
+ * The field must have doc values ({@code keyword} fields have them by default).
+ * The query terms are resolved to the ordinals of every segment once, and every
+ * document is scored by merging its sorted ordinals with the sorted query
+ * ordinals, so no terms are compared or allocated per document.
  */
-public class JaccardSimilarityScoreScript extends AbstractSearchScript {
-
-    // the field containing the terms that should be scored, must be initialized
-    // in constructor from parameters.
-    String field = null;
-    // terms that are used for scoring, must be unique
-    ArrayList<String> terms = null;
-    // weights, in case we want to put emphasis on a specific term. In the most
-    // simple case, 1.0 for every term.
-    ArrayList<Double> weights = null;
+public class JaccardSimilarityScoreScript extends AbstractScoreScript {
+
+    // the keyword field containing the terms that should be scored, must be
+    // initialized in constructor from parameters.
+    final String field;
+    // terms that are used for scoring with their weights, compiled once per search
+    final QueryVector query;
+    // sum of the weights of all query terms, the query part of the union
+    final double queryWeightSum;
+
+    // doc values of the current segment
+    SortedSetDocValues values;
+    // ordinals of the query terms found in the current segment in ascending order and their weights
+    long[] queryOrds = new long[0];
+    double[] queryWeights = new double[0];
+    int numQueryOrds;
 
     final static public String SCRIPT_NAME = "jaccard_sim_script_score";
 
-    private final static Logger logger = LogManager.getLogger(JaccardSimilarityScoreScript.class);
-
     /**
      * Factory that is registered in
-     * {@link org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin#onModule(org.elasticsearch.script.ScriptModule)}
+     * {@link org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin#getNativeScripts()}
      * method when the plugin is loaded.
      */
     public static class Factory implements NativeScriptFactory {
 
+        private final ScriptMetrics metrics;
+        private final QueryVectorCache queryVectors;
+
+        public Factory(ScriptMetrics metrics, QueryVectorCache queryVectors) {
+            this.metrics = metrics;
+            this.queryVectors = queryVectors;
+        }
+
         /**
          * This method is called for every search on every shard.
          *
@@ -67,7 +86,17 @@ public class JaccardSimilarityScoreScript extends AbstractSearchScript {
          */
         @Override
         public ExecutableScript newScript(@Nullable Map<String, Object> params) throws ScriptException {
-            return new JaccardSimilarityScoreScript(params);
+            // get the field
+            String field = params == null ? null : (String) params.get("field");
+            if (field == null) {
+                throw new ScriptException(
+                    "cannot initialize " + JaccardSimilarityScoreScript.SCRIPT_NAME + ": field parameter missing!", null, Collections.emptyList(),
+                    "exception on unknown var", JaccardSimilarityScoreScript.SCRIPT_NAME
+                );
+            }
+            // weights are optional, every term weighs 1.0 by default
+            return new JaccardSimilarityScoreScript(metrics.recorder(JaccardSimilarityScoreScript.SCRIPT_NAME), field,
+                queryVectors.get(JaccardSimilarityScoreScript.SCRIPT_NAME, params, false));
         }
 
         @Override
@@ -88,65 +117,85 @@ public class JaccardSimilarityScoreScript extends AbstractSearchScript {
     }
 
     /**
-     * @param params
-     *            terms that a scored are placed in this parameter. Initialize
-     *            them here.
-     * @throws ScriptException
+     * @param recorder
+     *            metrics of this script instance
+     * @param field
+     *            the keyword field that holds the document terms
+     * @param query
+     *            compiled terms and weights of the query
      */
-    private JaccardSimilarityScoreScript(Map<String, Object> params) throws ScriptException {
-        params.entrySet();
-        // get the terms
-        terms = (ArrayList<String>) params.get("terms");
-
-        weights = (ArrayList<Double>) params.get("weights");
-        // get the field
-        field = (String) params.get("field");
-        //logger.info("calculating the similarity terms size:"+ terms.size()+" field:"+ field );
-        if (field == null || terms == null || weights == null) {
-            throw new ScriptException(
-                "cannot initialize " + JaccardSimilarityScoreScript.SCRIPT_NAME + ": field, terms or weights parameter missing!", null, Collections.emptyList(),
-                "exception on unknown var", JaccardSimilarityScoreScript.SCRIPT_NAME
-            );
-        }
-        if (weights.size() != terms.size()) {
-            throw new ScriptException(
-                "cannot initialize " + JaccardSimilarityScoreScript.SCRIPT_NAME + ": terms and weights array must have same length!", null, Collections.emptyList(),
-                "exception on unknown var", JaccardSimilarityScoreScript.SCRIPT_NAME
-            );
+    private JaccardSimilarityScoreScript(ScriptMetrics.ScriptRecorder recorder, String field, QueryVector query) {
+        super(SCRIPT_NAME, recorder);
+        this.field = field;
+        this.query = query;
+        double sum = 0.0;
+        for (int i = 0; i < query.size(); i++) {
+            sum += query.weight(i);
         }
+        this.queryWeightSum = sum;
     }
 
-    private Double getPositionFromTerms(String key){
-        if( !key.isEmpty() ) {
-            for (int i = 0; i < terms.size(); i++) {
-                if (terms.get(i).equals(key))
-                    return weights.get(i);
+    @Override
+    protected void onNextReader() throws IOException {
+        LeafReader reader = leafContext().reader();
+        FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(field);
+        if (fieldInfo != null && fieldInfo.getDocValuesType() != DocValuesType.SORTED_SET
+            && fieldInfo.getDocValuesType() != DocValuesType.SORTED) {
+            throw new ScriptException("Could not compute " + SCRIPT_NAME + ": field [" + field + "] must be a keyword field with doc values",
+                null, Collections.emptyList(), "exception on unknown var", SCRIPT_NAME);
+        }
+        values = DocValues.getSortedSet(reader, field);
+
+        if (queryOrds.length < query.size()) {
+            queryOrds = new long[query.size()];
+            queryWeights = new double[query.size()];
+        }
+        numQueryOrds = 0;
+        for (int i = 0; i < query.size(); i++) {
+            long ord = values.lookupTerm(query.bytes(i));
+            if (ord >= 0) {
+                queryOrds[numQueryOrds] = ord;
+                queryWeights[numQueryOrds] = query.weight(i);
+                numQueryOrds++;
             }
         }
-        return 0.0;
+        new InPlaceMergeSorter() {
+            @Override
+            protected int compare(int i, int j) {
+                return Long.compare(queryOrds[i], queryOrds[j]);
+            }
+
+            @Override
+            protected void swap(int i, int j) {
+                long ord = queryOrds[i];
+                queryOrds[i] = queryOrds[j];
+                queryOrds[j] = ord;
+                double weight = queryWeights[i];
+                queryWeights[i] = queryWeights[j];
+                queryWeights[j] = weight;
+            }
+        }.sort(0, numQueryOrds);
     }
 
     @Override
-    public Object run() {
-        try {
-            int k = 0;
-            float score = 0;
-            // first, get the ShardTerms object for the field.
-            IndexField indexField = this.indexLookup().get(field);
-            double queryWeightSum = 0.0f;
-            double docWeightSum = 0.0f;
-            double scoreValue = 0.0f;
-
-
-            scoreValue = (double)(score / (Math.sqrt(docWeightSum) * Math.sqrt(queryWeightSum)));
-            logger.info("calculating the cosine similarity score:"+ score +" queryWeightSum:"+ queryWeightSum + " docWeightSum:"+ docWeightSum +" cosine:" + scoreValue);
-            return scoreValue;
-        } catch (IOException ex) {
-            throw new ScriptException(
-                "Could not compute cosine similarity: "+ex.getMessage(), null, Collections.emptyList(),
-                "exception on unknown var", JaccardSimilarityScoreScript.SCRIPT_NAME
-            );
+    protected double scoreDocument() throws IOException {
+        values.setDocument(docId());
+        double intersection = 0.0;
+        long otherTerms = 0;
+        int i = 0;
+        // both the document ordinals and the query ordinals are sorted
+        for (long ord = values.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = values.nextOrd()) {
+            while (i < numQueryOrds && queryOrds[i] < ord) {
+                i++;
+            }
+            if (i < numQueryOrds && queryOrds[i] == ord) {
+                intersection += queryWeights[i++];
+            } else {
+                otherTerms++;
+            }
         }
+        double union = queryWeightSum + otherTerms;
+        return union <= 0.0 ? 0.0 : intersection / union;
     }
 
 }
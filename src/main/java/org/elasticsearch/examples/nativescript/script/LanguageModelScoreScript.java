@@ -15,48 +15,95 @@
 package org.elasticsearch.examples.nativescript.script;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Map;
 import java.util.Collections;
+import java.util.Map;
 
-import org.apache.lucene.search.Scorer;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.util.SmallFloat;
 import org.elasticsearch.common.Nullable;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
 import org.elasticsearch.index.fielddata.ScriptDocValues;
-import org.elasticsearch.script.AbstractSearchScript;
 import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.NativeScriptFactory;
 import org.elasticsearch.script.ScriptException;
-import org.elasticsearch.search.lookup.IndexField;
-import org.elasticsearch.search.lookup.IndexFieldTerm;
 
 /**
  * Script that scores documents with a language model similarity with linear
  * interpolation, see Manning et al., "Information Retrieval", Chapter 12,
  * Equation 12.12 (link: http://nlp.stanford.edu/IR-book/) This implementation
  * only scores a list of terms on one field.
+ * <p>
+ * The document model is smoothed either with the collection model by linear
+ * interpolation with the {@code lambda} parameter, or with a Dirichlet prior
+ * with the {@code mu} parameter:
+ * <pre>
+ * linear:    P(t|d) = (1 - lambda) * M_c + lambda * tf / L_d
+ * Dirichlet: P(t|d) = (tf + mu * M_c) / (L_d + mu)
+ * </pre>
+ * The collection model M_c = ttf / sumttf is computed once per search from the
+ * statistics of the shard. A term that is not in the document contributes the
+ * same log probability to every document (divided by L_d + mu for Dirichlet),
+ * so these contributions are added up once and scoring a document only takes a
+ * logarithm for the query terms that it contains. Terms that don't occur in the
+ * shard are ignored, their probability would be 0 in every document.
+ * <p>
+ * The document length L_d is read from the integral {@code word_count_field}.
+ * Without it, the length is decoded from the norms of the scored field, which
+ * the default similarities of the index store as 1/sqrt(L_d) rounded down to a
+ * single byte. The decoded length is at least the real one and up to 28% longer,
+ * which saves a doc values field at the cost of a coarser document model. The
+ * field must not disable norms or be boosted at index time. A document without
+ * the field has length 0.
  */
-public class LanguageModelScoreScript extends AbstractSearchScript {
+public class LanguageModelScoreScript extends AbstractPostingsScoreScript {
 
-    // the field containing the terms that should be scored, must be initialized
-    // in constructor from parameters.
-    String field;
     // name of the field that holds the word count of a field, see
     // http://www.elasticsearch.org/guide/en/elasticsearch/reference/current/mapping-core-types.html)
-    String docLengthField;
-    // terms that are used for scoring
-    ArrayList<String> terms;
-    // lambda parameter
-    float lambda;
+    // or null to read the length from the norms of the field
+    final String docLengthField;
+    // lambda parameter, NaN with Dirichlet smoothing
+    final double lambda;
+    // mu parameter, NaN with linear interpolation
+    final double mu;
+
+    // computed on the first document of the shard:
+    // sum of the log probabilities of the query terms that are not in the document
+    double missingScore;
+    // sum of the weights of the query terms that occur in the shard, Dirichlet only
+    double weightSum;
+    // log1p(tf * tfScales[i] / L_d) (linear) or log1p(tf * tfScales[i]) (Dirichlet) is added for the terms of the document
+    double[] tfScales = null;
+
+    ScriptDocValues.Longs docLengths;
+    NumericDocValues norms;
+
+    // document length by norm, inverse of the encoding of the default similarities
+    private static final double[] NORM_LENGTHS = new double[256];
+
+    static {
+        for (int i = 1; i < NORM_LENGTHS.length; i++) {
+            double f = SmallFloat.byte315ToFloat((byte) i);
+            NORM_LENGTHS[i] = 1.0 / (f * f);
+        }
+    }
 
     final static public String SCRIPT_NAME = "language_model_script_score";
 
     /**
      * Factory that is registered in
-     * {@link org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin#onModule(org.elasticsearch.script.ScriptModule)}
+     * {@link org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin#getNativeScripts()}
      * method when the plugin is loaded.
      */
     public static class Factory implements NativeScriptFactory {
 
+        private final ScriptMetrics metrics;
+        private final QueryVectorCache queryVectors;
+
+        public Factory(ScriptMetrics metrics, QueryVectorCache queryVectors) {
+            this.metrics = metrics;
+            this.queryVectors = queryVectors;
+        }
+
         /**
          * This method is called for every search on every shard.
          *
@@ -66,7 +113,31 @@ public class LanguageModelScoreScript extends AbstractSearchScript {
          */
         @Override
         public ExecutableScript newScript(@Nullable Map<String, Object> params) {
-            return new LanguageModelScoreScript(params);
+            String field = params == null ? null : (String) params.get("field");
+            // get the field holding the document length, the norms of the field are used without it
+            String docLengthField = params == null ? null : (String) params.get("word_count_field");
+            if (field == null || params.get("terms") == null) {
+                throw initFailure("field or terms parameter missing!");
+            }
+            Number lambda = (Number) params.get("lambda");
+            Number mu = (Number) params.get("mu");
+            if ((lambda == null) == (mu == null)) {
+                throw initFailure("exactly one of the lambda and mu parameters is required!");
+            }
+            if (lambda != null && (lambda.doubleValue() >= 0.0 && lambda.doubleValue() < 1.0) == false) {
+                throw initFailure("lambda must be at least 0 and smaller than 1 but was [" + lambda + "]!");
+            }
+            if (mu != null && mu.doubleValue() > 0.0 == false) {
+                throw initFailure("mu must be greater than 0 but was [" + mu + "]!");
+            }
+            return new LanguageModelScoreScript(metrics.recorder(SCRIPT_NAME), field, docLengthField,
+                queryVectors.get(SCRIPT_NAME, params, false), lambda == null ? Double.NaN : lambda.doubleValue(),
+                mu == null ? Double.NaN : mu.doubleValue());
+        }
+
+        private static ScriptException initFailure(String message) {
+            return new ScriptException("cannot initialize " + SCRIPT_NAME + ": " + message, null, Collections.emptyList(),
+                "exception on unknown var", LanguageModelScoreScript.SCRIPT_NAME);
         }
 
         @Override
@@ -82,81 +153,107 @@ public class LanguageModelScoreScript extends AbstractSearchScript {
 
     }
 
-    /**
-     * @param params
-     *            terms that a scored are placed in this parameter. Initialize
-     *            them here.
-     */
-    private LanguageModelScoreScript(Map<String, Object> params) {
-        params.entrySet();
-        // get the terms
-        terms = (ArrayList<String>) params.get("terms");
-        // get the field
-        field = (String) params.get("field");
-        // get the field holding the document length
-        docLengthField = (String) params.get("word_count_field");
-        // get lambda
-        lambda = ((Double) params.get("lambda")).floatValue();
-        if (field == null || terms == null || docLengthField == null) {
-            throw new ScriptException("cannot initialize " + SCRIPT_NAME + ": field, terms or length field parameter missing!", null, Collections.emptyList(),
-                "exception on unknown var", LanguageModelScoreScript.SCRIPT_NAME);
-        }
+    private LanguageModelScoreScript(ScriptMetrics.ScriptRecorder recorder, String field, @Nullable String docLengthField, QueryVector query,
+                                     double lambda, double mu) {
+        super(SCRIPT_NAME, recorder, field, query);
+        this.docLengthField = docLengthField;
+        this.lambda = lambda;
+        this.mu = mu;
+    }
+
+    private boolean dirichlet() {
+        return Double.isNaN(lambda);
     }
 
     @Override
-    public Object run() {
-        try {
-            double score = 0.0;
-            // first, get the ShardTerms object for the field.
-            IndexField indexField = indexLookup().get(field);
-            long T = indexField.sumttf();
+    protected void onNextReader() throws IOException {
+        super.onNextReader();
+        if (docLengthField == null) {
+            norms = leafContext().reader().getNormValues(field);
+            if (norms == null && leafContext().reader().getFieldInfos().fieldInfo(field) != null) {
+                throw new ScriptException("Could not compute language model score, field [" + field
+                    + "] has no norms, use a word count field.", null, Collections.emptyList(), "exception on unknown var", SCRIPT_NAME);
+            }
+        } else {
+            ScriptDocValues<?> docValues = doc().get(docLengthField);
+            if (docValues instanceof ScriptDocValues.Longs == false) {
+                throw new ScriptException("Could not compute language model score, word count field [" + docLengthField
+                    + "] is not an integral field.", null, Collections.emptyList(), "exception on unknown var", SCRIPT_NAME);
+            }
+            docLengths = (ScriptDocValues.Longs) docValues;
+        }
+        if (tfScales == null) {
+            collectionModel(sumTotalTermFreq());
+        }
+    }
+
+    private void collectionModel(long sumttf) {
+        tfScales = new double[query.size()];
+        for (int i = 0; i < tfScales.length; i++) {
             /*
-             * document length cannot be obtained by the shardTerms, we use the
-             * word_count field instead (link:
-             * http://www.elasticsearch.org/guide
-             * /en/elasticsearch/reference/current/mapping-core-types.html)
+             * compute M_c as ttf/T, see Manning et al.,
+             * "Information Retrieval", Chapter 12, Equation just before
+             * Equation 12.10 (link: http://nlp.stanford.edu/IR-book/)
              */
-            ScriptDocValues docValues = (ScriptDocValues) doc().get(docLengthField);
-            if (docValues == null || !docValues.isEmpty()) {
-                long L_d = ((ScriptDocValues.Longs) docValues).getValue();
-                for (int i = 0; i < terms.size(); i++) {
-                    // Now, get the ShardTerm object that can be used to access
-                    // all
-                    // the term statistics
-                    IndexFieldTerm indexFieldTerm = indexField.get(terms.get(i));
-
-                    /*
-                     * compute M_c as ttf/T, see Manning et al.,
-                     * "Information Retrieval", Chapter 12, Equation just before
-                     * Equation 12.10 (link: http://nlp.stanford.edu/IR-book/)
-                     */
-                    long cf_t = indexFieldTerm.ttf();
-                    double M_c = (double) cf_t / (double) T;
-                    /*
-                     * Compute M_d, see Manning et al., "Information Retrieval",
-                     * Chapter 12, Equation just before Equation 12.9 (link:
-                     * http://nlp.stanford.edu/IR-book/)
-                     */
-                    double M_d = (double) indexFieldTerm.tf() / (double) L_d;
-                    /*
-                     * compute score contribution for this term, but sum the log
-                     * to avoid underflow, see Manning et al.,
-                     * "Information Retrieval", Chapter 12, Equation 12.12
-                     * (link: http://nlp.stanford.edu/IR-book/)
-                     */
-                    score += Math.log((1.0 - lambda) * M_c + lambda * M_d);
-
-                }
-                return score;
+            double M_c = (double) ttf(i) / (double) sumttf;
+            if (M_c > 0.0 == false) {
+                // no document of the shard has the term, tf is always 0
+                continue;
+            }
+            double weight = query.weight(i);
+            if (dirichlet()) {
+                // log(tf + mu * M_c) = log(mu * M_c) + log1p(tf / (mu * M_c))
+                missingScore += weight * Math.log(mu * M_c);
+                weightSum += weight;
+                tfScales[i] = 1.0 / (mu * M_c);
             } else {
-                throw new ScriptException("Could not compute language model score, word count field missing.", null, Collections.emptyList(),
-                    "exception on unknown var", LanguageModelScoreScript.SCRIPT_NAME);
+                // log((1 - lambda) * M_c + lambda * M_d) = log((1 - lambda) * M_c) + log1p(lambda * M_d / ((1 - lambda) * M_c))
+                missingScore += weight * Math.log((1.0 - lambda) * M_c);
+                tfScales[i] = lambda / ((1.0 - lambda) * M_c);
             }
+        }
+    }
+
+    @Override
+    protected double scoreDocument() throws IOException {
+        double L_d = docLength();
+        /*
+         * sum the log of the contribution of every term to avoid underflow,
+         * see Manning et al., "Information Retrieval", Chapter 12, Equation
+         * 12.12 (link: http://nlp.stanford.edu/IR-book/)
+         */
+        double score = missingScore;
+        for (int i = 0; i < tfScales.length; i++) {
+            // the postings of terms that can't change the score are not read
+            int tf = tfScales[i] == 0.0 ? 0 : tf(i);
+            if (tf != 0) {
+                double scaled = dirichlet() ? tf * tfScales[i] : tf * tfScales[i] / L_d;
+                score += query.weight(i) * Math.log1p(scaled);
+            }
+        }
+        if (dirichlet()) {
+            score -= weightSum * Math.log(L_d + mu);
+        }
+        return score;
+    }
 
-        } catch (IOException ex) {
-            throw new ScriptException("Could not compute language model score: " +  ex.getMessage() , null, Collections.emptyList(),
+    private double docLength() {
+        if (docLengthField == null) {
+            // no document of the segment has the field otherwise
+            return norms == null ? 0 : NORM_LENGTHS[(int) norms.get(docId()) & 0xFF];
+        }
+        /*
+         * document length cannot be obtained by the shardTerms, we use the
+         * word_count field instead (link:
+         * http://www.elasticsearch.org/guide
+         * /en/elasticsearch/reference/current/mapping-core-types.html)
+         */
+        docLengths.setNextDocId(docId());
+        if (docLengths.isEmpty()) {
+            throw new ScriptException("Could not compute language model score, word count field missing.", null, Collections.emptyList(),
                 "exception on unknown var", LanguageModelScoreScript.SCRIPT_NAME);
         }
+        return docLengths.getValue();
     }
 
 }
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.script.CompiledScript;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.script.LeafSearchScript;
+import org.elasticsearch.script.NativeScriptEngineService;
+import org.elasticsearch.script.NativeScriptFactory;
+import org.elasticsearch.script.ScriptEngineService;
+import org.elasticsearch.script.SearchScript;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the native scripts of the plugin under the {@code native_leaf} language.
+ * <p>
+ * The scripts are created and bound to their lookups by the built-in native engine, this engine only hands the
+ * segment of every {@link LeafSearchScript} to the scripts that extend {@link AbstractLeafSearchScript}, which
+ * the native engine keeps to itself.
+ */
+public class LeafScriptEngineService implements ScriptEngineService {
+
+    public static final String NAME = "native_leaf";
+
+    private final NativeScriptEngineService scripts;
+
+    public LeafScriptEngineService(Settings settings, List<NativeScriptFactory> factories) {
+        this.scripts = new NativeScriptEngineService(settings,
+            factories.stream().collect(Collectors.toMap(NativeScriptFactory::getName, Function.identity())));
+    }
+
+    @Override
+    public String getType() {
+        return NAME;
+    }
+
+    @Override
+    public String getExtension() {
+        return NAME;
+    }
+
+    @Override
+    public Object compile(String scriptName, String scriptSource, Map<String, String> params) {
+        return scripts.compile(scriptName, scriptSource, params);
+    }
+
+    @Override
+    public ExecutableScript executable(CompiledScript compiledScript, Map<String, Object> vars) {
+        return scripts.executable(compiledScript, vars);
+    }
+
+    @Override
+    public SearchScript search(CompiledScript compiledScript, SearchLookup lookup, Map<String, Object> vars) {
+        SearchScript script = scripts.search(compiledScript, lookup, vars);
+        return new SearchScript() {
+            @Override
+            public LeafSearchScript getLeafSearchScript(LeafReaderContext context) throws IOException {
+                LeafSearchScript leafScript = script.getLeafSearchScript(context);
+                if (leafScript instanceof AbstractLeafSearchScript) {
+                    ((AbstractLeafSearchScript) leafScript).setNextReader(context);
+                }
+                return leafScript;
+            }
+
+            @Override
+            public boolean needsScores() {
+                return script.needsScores();
+            }
+        };
+    }
+
+    @Override
+    public boolean isInlineScriptEnabled() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        scripts.close();
+    }
+}
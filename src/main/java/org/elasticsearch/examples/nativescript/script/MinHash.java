@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import java.util.Arrays;
+
+/**
+ * MinHash signatures of term sets, see Leskovec et al., "Mining of Massive
+ * Datasets", Chapter 3.3 (link: http://www.mmds.org/).
+ * <p>
+ * Every term is hashed once with murmur3, the {@code numHashes} hash functions are
+ * derived from that hash by mixing it with a fixed seed per function. The signature
+ * keeps the minimum of every hash function over the terms of the set. The fraction
+ * of equal positions in the signatures of two sets is an unbiased estimate of their
+ * Jaccard similarity J with a standard error of sqrt(J * (1 - J) / numHashes),
+ * at most 1 / (2 * sqrt(numHashes)).
+ * <p>
+ * Signatures are encoded as {@code numHashes} big endian ints, both the ingest
+ * processor that computes them at index time and the
+ * {@link MinHashJaccardScoreScript} rely on this class, so they always agree.
+ */
+public final class MinHash {
+
+    public static final int DEFAULT_NUM_HASHES = 128;
+
+    public static final int MAX_NUM_HASHES = 1024;
+
+    // seeds of the hash functions, generated with splitmix64 so they never change between versions
+    private static final long[] SEEDS = new long[MAX_NUM_HASHES];
+
+    static {
+        long state = 0x5DEECE66DL;
+        for (int i = 0; i < SEEDS.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(state);
+        }
+    }
+
+    private MinHash() {
+    }
+
+    /**
+     * Computes the signature of a set of terms, duplicate terms don't change it.
+     *
+     * @throws IllegalArgumentException if the number of hashes is out of range
+     */
+    public static int[] signature(Iterable<?> terms, int numHashes) {
+        checkNumHashes(numHashes);
+        int[] signature = new int[numHashes];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        MurmurHash3.Hash128 hash = new MurmurHash3.Hash128();
+        for (Object term : terms) {
+            BytesRef bytes = new BytesRef(term.toString());
+            long termHash = MurmurHash3.hash128(bytes.bytes, bytes.offset, bytes.length, 0, hash).h1;
+            for (int i = 0; i < numHashes; i++) {
+                int value = (int) (mix(termHash ^ SEEDS[i]) >>> 32);
+                if (value < signature[i]) {
+                    signature[i] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    public static void checkNumHashes(int numHashes) {
+        if (numHashes < 1 || numHashes > MAX_NUM_HASHES) {
+            throw new IllegalArgumentException("number of hashes must be between 1 and " + MAX_NUM_HASHES + " but was [" + numHashes + "]");
+        }
+    }
+
+    /**
+     * Encodes the signature as big endian ints
+     */
+    public static byte[] encode(int[] signature) {
+        byte[] bytes = new byte[signature.length * Integer.BYTES];
+        for (int i = 0; i < signature.length; i++) {
+            int value = signature[i];
+            bytes[i * 4] = (byte) (value >>> 24);
+            bytes[i * 4 + 1] = (byte) (value >>> 16);
+            bytes[i * 4 + 2] = (byte) (value >>> 8);
+            bytes[i * 4 + 3] = (byte) value;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the estimated Jaccard similarity of the query signature and an encoded
+     * document signature that starts at {@code offset}. The encoded signature must have
+     * the same number of hashes.
+     */
+    public static double similarity(int[] query, byte[] bytes, int offset) {
+        int matches = 0;
+        for (int i = 0, o = offset; i < query.length; i++, o += 4) {
+            int value = ((bytes[o] & 0xFF) << 24) | ((bytes[o + 1] & 0xFF) << 16) | ((bytes[o + 2] & 0xFF) << 8) | (bytes[o + 3] & 0xFF);
+            if (value == query[i]) {
+                matches++;
+            }
+        }
+        return (double) matches / query.length;
+    }
+
+    // finalizer of murmur3 / splitmix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
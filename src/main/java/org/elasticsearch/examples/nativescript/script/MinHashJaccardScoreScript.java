@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.script.NativeScriptFactory;
+import org.elasticsearch.script.ScriptException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Script that estimates the Jaccard similarity between the query terms and a set
+ * of terms from their MinHash signatures, see {@link MinHash}. The signature of
+ * every document is computed at index time by the {@code minhash} ingest processor
+ * and stored in a {@code binary} field with doc values, so the cost per document
+ * only depends on the number of hashes and not on the size of the sets.
+ * <p>
+ * The {@code num_hashes} parameter must be the same as the one of the processor
+ * (128 by default). The estimation error is sqrt(J * (1 - J) / num_hashes) for a
+ * similarity J, so at most 0.0625 with 64 hashes, 0.044 with 128 and 0.031 with 256.
+ * Documents without signature score 0.
+ */
+public class MinHashJaccardScoreScript extends AbstractScoreScript {
+
+    // binary field holding the signatures of the documents
+    final String field;
+    // signature of the query terms
+    final int[] signature;
+
+    // doc values of the current segment
+    BinaryFieldValues values;
+
+    final static public String SCRIPT_NAME = "minhash_jaccard_script_score";
+
+    /**
+     * Factory that is registered in
+     * {@link org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin#getNativeScripts()}
+     * method when the plugin is loaded.
+     */
+    public static class Factory implements NativeScriptFactory {
+
+        private final ScriptMetrics metrics;
+
+        public Factory(ScriptMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /**
+         * This method is called for every search on every shard.
+         *
+         * @param params
+         *            list of script parameters passed with the query
+         * @return new native script
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public ExecutableScript newScript(@Nullable Map<String, Object> params) throws ScriptException {
+            String field = params == null ? null : (String) params.get("field");
+            List<Object> terms = params == null ? null : (List<Object>) params.get("terms");
+            if (field == null || terms == null) {
+                throw new ScriptException(
+                    "cannot initialize " + MinHashJaccardScoreScript.SCRIPT_NAME + ": field or terms parameter missing!", null, Collections.emptyList(),
+                    "exception on unknown var", MinHashJaccardScoreScript.SCRIPT_NAME
+                );
+            }
+            int numHashes = XContentMapValues.nodeIntegerValue(params.get("num_hashes"), MinHash.DEFAULT_NUM_HASHES);
+            int[] signature;
+            try {
+                signature = MinHash.signature(terms, numHashes);
+            } catch (IllegalArgumentException ex) {
+                throw new ScriptException("cannot initialize " + MinHashJaccardScoreScript.SCRIPT_NAME + ": " + ex.getMessage(), ex,
+                    Collections.emptyList(), "exception on unknown var", MinHashJaccardScoreScript.SCRIPT_NAME);
+            }
+            return new MinHashJaccardScoreScript(metrics.recorder(MinHashJaccardScoreScript.SCRIPT_NAME), field, signature);
+        }
+
+        @Override
+        public String getName() {
+            return MinHashJaccardScoreScript.SCRIPT_NAME;
+        }
+
+        /**
+         * Indicates if document scores may be needed by the produced scripts.
+         *
+         * @return {@code true} if scores are needed.
+         */
+        @Override
+        public boolean needsScores() {
+            return false;
+        }
+    }
+
+    /**
+     * @param recorder
+     *            metrics of this script instance
+     * @param field
+     *            the binary field that holds the document signatures
+     * @param signature
+     *            signature of the query terms
+     */
+    private MinHashJaccardScoreScript(ScriptMetrics.ScriptRecorder recorder, String field, int[] signature) {
+        super(SCRIPT_NAME, recorder);
+        this.field = field;
+        this.signature = signature;
+    }
+
+    @Override
+    protected void onNextReader() throws IOException {
+        values = BinaryFieldValues.of(leafContext().reader(), field, SCRIPT_NAME);
+    }
+
+    @Override
+    protected double scoreDocument() throws IOException {
+        if (values.advance(docId()) == false) {
+            return 0.0;
+        }
+        if (values.length() != signature.length * Integer.BYTES) {
+            throw new ScriptException("Could not compute " + SCRIPT_NAME + ": signature of " + (values.length() / Integer.BYTES)
+                + " hashes found in field [" + field + "] but the query has " + signature.length,
+                null, Collections.emptyList(), "exception on unknown var", SCRIPT_NAME);
+        }
+        return MinHash.similarity(signature, values.bytes(), values.offset());
+    }
+
+}
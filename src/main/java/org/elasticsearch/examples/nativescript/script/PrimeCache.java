@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process wide cache of the values recently tested by {@link Primes#isPrime(long)}, shared by the
+ * {@code is_prime} script and query so that the same numbers aren't tested again on every request.
+ * <p>
+ * The cache is direct mapped: every value hashes to a single slot, which only remembers the last
+ * prime and the last composite value that were tested there. This approximates an LRU without
+ * locks or allocations, a lookup is two reads. Small and even values are cheaper to test than to
+ * look up and never go through the cache.
+ */
+public final class PrimeCache {
+
+    // 2^16 slots of two longs, 1MB
+    static final int SLOTS = 1 << 16;
+
+    // 0 is never stored, it is below the sieve size, so it marks empty slots
+    private static final AtomicLongArray PRIMES = new AtomicLongArray(SLOTS);
+
+    private static final AtomicLongArray COMPOSITES = new AtomicLongArray(SLOTS);
+
+    private PrimeCache() {
+    }
+
+    /**
+     * Returns {@code true} if the absolute value of {@code value} is a prime number.
+     */
+    public static boolean isPrime(long value) {
+        if ((value > -Primes.SIEVE_SIZE && value < Primes.SIEVE_SIZE) || (value & 1) == 0) {
+            return Primes.isPrime(value);
+        }
+        int slot = (int) ((value * 0x9E3779B97F4A7C15L) >>> (64 - Long.numberOfTrailingZeros(SLOTS)));
+        if (PRIMES.get(slot) == value) {
+            return true;
+        }
+        if (COMPOSITES.get(slot) == value) {
+            return false;
+        }
+        boolean prime = Primes.isPrime(value);
+        // readers only need to eventually see the value, a missed update just tests the value again
+        (prime ? PRIMES : COMPOSITES).lazySet(slot, value);
+        return prime;
+    }
+}
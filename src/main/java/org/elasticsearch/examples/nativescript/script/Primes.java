@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+/**
+ * Exact primality test for 64 bit values that doesn't allocate.
+ * <p>
+ * Values below {@link #SIEVE_SIZE} are looked up in a sieve of Eratosthenes, larger values are
+ * first divided by the small primes and then go through a deterministic Miller-Rabin test. The
+ * bases 2, 7 and 61 are enough below 4,759,123,141 and the seven bases found by Jim Sinclair are
+ * enough for every 64 bit value, so the result is never probabilistic. Values above 2^31 use
+ * Montgomery multiplication to compute the products modulo n without overflowing a long.
+ * <p>
+ * Like {@link java.math.BigInteger#isProbablePrime(int)} the sign of the value is ignored.
+ */
+public final class Primes {
+
+    static final int SIEVE_SIZE = 1 << 16;
+
+    // bit i is set if i is composite
+    private static final long[] COMPOSITES = new long[SIEVE_SIZE / 64];
+
+    private static final int[] SMALL_PRIMES = new int[]{3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53};
+
+    private static final long[] INT_BASES = new long[]{2, 7, 61};
+
+    private static final long[] LONG_BASES = new long[]{2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+
+    static {
+        COMPOSITES[0] |= 3L; // 0 and 1
+        for (int i = 2; i * i < SIEVE_SIZE; i++) {
+            if ((COMPOSITES[i >>> 6] & (1L << i)) == 0) {
+                for (int j = i * i; j < SIEVE_SIZE; j += i) {
+                    COMPOSITES[j >>> 6] |= 1L << j;
+                }
+            }
+        }
+    }
+
+    private Primes() {
+    }
+
+    /**
+     * Returns {@code true} if the absolute value of {@code value} is a prime number.
+     */
+    public static boolean isPrime(long value) {
+        long n = Math.abs(value);
+        if (n < SIEVE_SIZE) {
+            // Long.MIN_VALUE stays negative, it is even anyway
+            return n >= 0 && (COMPOSITES[(int) (n >>> 6)] & (1L << n)) == 0;
+        }
+        if ((n & 1) == 0) {
+            return false;
+        }
+        for (int prime : SMALL_PRIMES) {
+            if (n % prime == 0) {
+                return false;
+            }
+        }
+        if (n < (1L << 31)) {
+            // products of two residues fit in a long
+            return millerRabin(n, INT_BASES);
+        }
+        return montgomeryMillerRabin(n, n < 4_759_123_141L ? INT_BASES : LONG_BASES);
+    }
+
+    private static boolean millerRabin(long n, long[] bases) {
+        long d = n - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>= s;
+        for (long base : bases) {
+            long x = powMod(base % n, d, n);
+            if (x == 1 || x == n - 1) {
+                continue;
+            }
+            int r = 1;
+            for (; r < s; r++) {
+                x = x * x % n;
+                if (x == n - 1) {
+                    break;
+                }
+            }
+            if (r == s) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long powMod(long base, long exponent, long n) {
+        long result = 1;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) {
+                result = result * base % n;
+            }
+            base = base * base % n;
+            exponent >>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Miller-Rabin for odd {@code n} between 2^31 and 2^63. Residues are kept in Montgomery form
+     * {@code x * 2^64 mod n}, so every product modulo n is two multiplications and no division.
+     */
+    private static boolean montgomeryMillerRabin(long n, long[] bases) {
+        // -n^-1 mod 2^64, every Newton iteration doubles the number of correct low bits
+        long inverse = n;
+        for (int i = 0; i < 5; i++) {
+            inverse *= 2 - n * inverse;
+        }
+        long negInverse = -inverse;
+        // 2^64 mod n, then 2^128 mod n by doubling it 64 times
+        long one = Long.remainderUnsigned(-n, n);
+        long r2 = one;
+        for (int i = 0; i < 64; i++) {
+            r2 <<= 1;
+            if (r2 < 0 || r2 >= n) {
+                r2 -= n;
+            }
+        }
+        long minusOne = n - one;
+
+        long d = n - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>= s;
+        for (long base : bases) {
+            long a = base % n;
+            if (a == 0) {
+                continue;
+            }
+            long x = one;
+            long power = multiply(a, r2, n, negInverse);
+            for (long exponent = d; exponent > 0; exponent >>= 1) {
+                if ((exponent & 1) != 0) {
+                    x = multiply(x, power, n, negInverse);
+                }
+                power = multiply(power, power, n, negInverse);
+            }
+            if (x == one || x == minusOne) {
+                continue;
+            }
+            int r = 1;
+            for (; r < s; r++) {
+                x = multiply(x, x, n, negInverse);
+                if (x == minusOne) {
+                    break;
+                }
+            }
+            if (r == s) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Montgomery product a * b * 2^-64 mod n for a, b < n < 2^63
+    private static long multiply(long a, long b, long n, long negInverse) {
+        long high = multiplyHigh(a, b);
+        long low = a * b;
+        long m = low * negInverse;
+        // low + m * n is a multiple of 2^64, it only carries into the high word if low isn't 0
+        long result = high + multiplyHigh(m, n) + (low != 0 ? 1 : 0);
+        // the result is below 2n < 2^64, compare it as an unsigned value
+        return result < 0 || result >= n ? result - n : result;
+    }
+
+    // high 64 bits of the unsigned 128 bit product, Math.multiplyHigh isn't available before Java 9
+    static long multiplyHigh(long x, long y) {
+        long x0 = x & 0xFFFFFFFFL;
+        long x1 = x >>> 32;
+        long y0 = y & 0xFFFFFFFFL;
+        long y1 = y >>> 32;
+        long t = x1 * y0 + ((x0 * y0) >>> 32);
+        long w1 = (t & 0xFFFFFFFFL) + x0 * y1;
+        return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+/**
+ * Dense vectors quantized to one signed byte per dimension. Every vector is quantized
+ * with its own linear mapping: a component x is stored as the byte b with
+ * x ~ offset + scale * b, where the 256 values of b cover the range between the
+ * smallest and the largest component of the vector.
+ * <p>
+ * With d = offsetD + scaleD * bD and q = offsetQ + scaleQ * bQ the dot product of
+ * two vectors of n dimensions is
+ * <pre>
+ * n * offsetD * offsetQ + offsetD * scaleQ * sum(bQ) + offsetQ * scaleD * sum(bD) + scaleD * scaleQ * sum(bD * bQ)
+ * </pre>
+ * so scoring a document only needs the integer dot product of the bytes, the sums
+ * are computed when the vectors are encoded. The encoding is the header
+ * {@code [scale float][offset float][sum of the bytes int][norm float]} followed by
+ * the bytes, the norm is the exact L2 norm of the float vector.
+ */
+public final class QuantizedVector {
+
+    static final int HEADER_BYTES = 16;
+
+    private final float scale;
+    private final float offset;
+    private final int sum;
+    private final float norm;
+    private final byte[] values;
+
+    private QuantizedVector(float scale, float offset, int sum, float norm, byte[] values) {
+        this.scale = scale;
+        this.offset = offset;
+        this.sum = sum;
+        this.norm = norm;
+        this.values = values;
+    }
+
+    /**
+     * Quantizes a float vector
+     */
+    public static QuantizedVector quantize(float[] vector) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float value : vector) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        byte[] values = new byte[vector.length];
+        if (vector.length == 0) {
+            return new QuantizedVector(0, 0, 0, 0, values);
+        }
+        float scale = (max - min) / 255;
+        // the byte -128 maps to the smallest component
+        float offset = min + 128 * scale;
+        int sum = 0;
+        for (int i = 0; i < vector.length; i++) {
+            int value = scale == 0 ? -128 : Math.round((vector[i] - min) / scale) - 128;
+            values[i] = (byte) Math.max(-128, Math.min(127, value));
+            sum += values[i];
+        }
+        return new QuantizedVector(scale, offset, sum, DenseVector.norm(vector), values);
+    }
+
+    public int dims() {
+        return values.length;
+    }
+
+    /**
+     * The exact L2 norm of the vector before quantization
+     */
+    public float norm() {
+        return norm;
+    }
+
+    /**
+     * Returns the number of dimensions of an encoded vector of the given length in bytes
+     */
+    public static int dims(int length) {
+        return length - HEADER_BYTES;
+    }
+
+    public byte[] encode() {
+        byte[] bytes = new byte[HEADER_BYTES + values.length];
+        writeInt(bytes, 0, Float.floatToIntBits(scale));
+        writeInt(bytes, 4, Float.floatToIntBits(offset));
+        writeInt(bytes, 8, sum);
+        writeInt(bytes, 12, Float.floatToIntBits(norm));
+        System.arraycopy(values, 0, bytes, HEADER_BYTES, values.length);
+        return bytes;
+    }
+
+    /**
+     * Returns the exact norm of an encoded vector
+     */
+    public static float decodeNorm(byte[] bytes, int offset) {
+        return Float.intBitsToFloat(readInt(bytes, offset + 12));
+    }
+
+    /**
+     * Approximate dot product of this vector and an encoded vector of the same dimensions
+     */
+    public double dotProduct(byte[] bytes, int offset) {
+        float docScale = Float.intBitsToFloat(readInt(bytes, offset));
+        float docOffset = Float.intBitsToFloat(readInt(bytes, offset + 4));
+        int docSum = readInt(bytes, offset + 8);
+        int start = offset + HEADER_BYTES;
+        // at most 128 * 128 per dimension, an int doesn't overflow below 131072 dimensions
+        int dot = 0;
+        for (int i = 0; i < values.length; i++) {
+            dot += bytes[start + i] * values[i];
+        }
+        return (double) values.length * docOffset * this.offset + (double) docOffset * scale * sum
+            + (double) this.offset * docScale * docSum + (double) docScale * scale * dot;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8)
+            | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.script.NativeScriptFactory;
+import org.elasticsearch.script.ScriptException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scripts that score documents by the approximate similarity of a quantized dense
+ * vector stored in a {@code binary} field with doc values and the query vector
+ * passed in the {@code vector} parameter. The document vectors are encoded by the
+ * {@code dense_vector} ingest processor with {@code "quantize": true}, see
+ * {@link QuantizedVector}. The query vector is quantized the same way once per
+ * search, so documents are scored with an integer dot product over one byte per
+ * dimension.
+ * <p>
+ * Two scripts are registered: {@code quantized_dot_product} returns the dot product
+ * of the vectors and {@code quantized_cosine} their cosine similarity, using the
+ * exact norms. The quantization error can be corrected by rescoring the top
+ * documents with the {@link DenseVectorScoreScript} on the float vectors.
+ * Documents without a vector or with a zero vector score 0, vectors with a
+ * different number of dimensions than the query fail the search.
+ */
+public class QuantizedVectorScoreScript extends AbstractScoreScript {
+
+    public static final String DOT_PRODUCT_SCRIPT_NAME = "quantized_dot_product";
+
+    public static final String COSINE_SCRIPT_NAME = "quantized_cosine";
+
+    // binary field holding the quantized document vectors
+    final String field;
+    // the quantized query vector
+    final QuantizedVector query;
+    // divide the dot product by the norms
+    final boolean cosine;
+    final String scriptName;
+
+    // doc values of the current segment
+    BinaryFieldValues values;
+
+    /**
+     * Factory that is registered in
+     * {@link org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin#getNativeScripts()}
+     * method when the plugin is loaded, once for every similarity.
+     */
+    public static class Factory implements NativeScriptFactory {
+
+        private final ScriptMetrics metrics;
+
+        private final boolean cosine;
+
+        /**
+         * @param metrics metrics of the node
+         * @param cosine  {@code true} for the {@code quantized_cosine} script, {@code false} for {@code quantized_dot_product}
+         */
+        public Factory(ScriptMetrics metrics, boolean cosine) {
+            this.metrics = metrics;
+            this.cosine = cosine;
+        }
+
+        /**
+         * This method is called for every search on every shard.
+         *
+         * @param params
+         *            list of script parameters passed with the query
+         * @return new native script
+         */
+        @Override
+        public ExecutableScript newScript(@Nullable Map<String, Object> params) throws ScriptException {
+            String field = params == null ? null : (String) params.get("field");
+            List<?> vector = params == null ? null : (List<?>) params.get("vector");
+            if (field == null || vector == null) {
+                throw new ScriptException("cannot initialize " + getName() + ": field or vector parameter missing!", null,
+                    Collections.emptyList(), "exception on unknown var", getName());
+            }
+            float[] query;
+            try {
+                query = DenseVector.parse(vector);
+            } catch (IllegalArgumentException ex) {
+                throw new ScriptException("cannot initialize " + getName() + ": " + ex.getMessage(), ex,
+                    Collections.emptyList(), "exception on unknown var", getName());
+            }
+            return new QuantizedVectorScoreScript(getName(), metrics.recorder(getName()), field, QuantizedVector.quantize(query), cosine);
+        }
+
+        @Override
+        public String getName() {
+            return cosine ? COSINE_SCRIPT_NAME : DOT_PRODUCT_SCRIPT_NAME;
+        }
+
+        /**
+         * Indicates if document scores may be needed by the produced scripts.
+         *
+         * @return {@code true} if scores are needed.
+         */
+        @Override
+        public boolean needsScores() {
+            return false;
+        }
+    }
+
+    /**
+     * @param scriptName
+     *            name of the script
+     * @param recorder
+     *            metrics of this script instance
+     * @param field
+     *            the binary field that holds the quantized document vectors
+     * @param query
+     *            the quantized query vector
+     * @param cosine
+     *            whether the dot product is normalized by the norms of the vectors
+     */
+    private QuantizedVectorScoreScript(String scriptName, ScriptMetrics.ScriptRecorder recorder, String field, QuantizedVector query,
+                                       boolean cosine) {
+        super(scriptName, recorder);
+        this.scriptName = scriptName;
+        this.field = field;
+        this.query = query;
+        this.cosine = cosine;
+    }
+
+    @Override
+    protected void onNextReader() throws IOException {
+        values = BinaryFieldValues.of(leafContext().reader(), field, scriptName);
+    }
+
+    @Override
+    protected double scoreDocument() throws IOException {
+        if (values.advance(docId()) == false) {
+            return 0.0;
+        }
+        if (QuantizedVector.dims(values.length()) != query.dims()) {
+            throw new ScriptException("Could not compute " + scriptName + ": vector of " + QuantizedVector.dims(values.length())
+                + " dimensions found in field [" + field + "] but the query vector has " + query.dims(),
+                null, Collections.emptyList(), "exception on unknown var", scriptName);
+        }
+        if (cosine == false) {
+            return query.dotProduct(values.bytes(), values.offset());
+        }
+        float norm = QuantizedVector.decodeNorm(values.bytes(), values.offset());
+        if (norm == 0 || query.norm() == 0) {
+            return 0.0;
+        }
+        return query.dotProduct(values.bytes(), values.offset()) / ((double) norm * query.norm());
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.script.ScriptException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled query side of the term based scoring scripts: the query terms, their weights and the L2 norm of
+ * the weight vector.
+ * <p>
+ * The vector is built once per search from the script parameters and is immutable afterwards, so a single
+ * instance can be used for every document of every segment. Terms are kept both as strings and as
+ * {@link BytesRef}s and can be looked up by their bytes through an open addressing hash table, which
+ * doesn't allocate and is safe to use from several threads. Vectors that are
+ * used again by later searches are kept in the {@link QueryVectorCache}.
+ */
+public final class QueryVector implements Accountable {
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(QueryVector.class);
+    private static final long STRING_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(String.class);
+    private static final long BYTES_REF_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(BytesRef.class);
+
+    private final String[] terms;
+    private final BytesRef[] bytes;
+    private final double[] weights;
+    private final double norm;
+
+    // open addressing table, holds ordinal + 1 of the term in the slot or 0 if the slot is empty
+    private final int[] slots;
+    private final int mask;
+
+    /**
+     * Creates the vector, weights of terms that are listed more than once are added up.
+     */
+    public QueryVector(String[] terms, double[] weights) {
+        if (terms.length != weights.length) {
+            throw new IllegalArgumentException("terms and weights must have the same length");
+        }
+        int size = Integer.highestOneBit(Math.max(2, terms.length) * 2 - 1) << 1;
+        this.slots = new int[size];
+        this.mask = size - 1;
+        String[] uniqueTerms = new String[terms.length];
+        BytesRef[] uniqueBytes = new BytesRef[terms.length];
+        double[] uniqueWeights = new double[terms.length];
+        int count = 0;
+        for (int i = 0; i < terms.length; i++) {
+            BytesRef term = new BytesRef(terms[i]);
+            int ord = ord(uniqueBytes, term);
+            if (ord >= 0) {
+                uniqueWeights[ord] += weights[i];
+                continue;
+            }
+            int slot = term.hashCode() & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = count + 1;
+            uniqueTerms[count] = terms[i];
+            uniqueBytes[count] = term;
+            uniqueWeights[count] = weights[i];
+            count++;
+        }
+        this.terms = Arrays.copyOf(uniqueTerms, count);
+        this.bytes = Arrays.copyOf(uniqueBytes, count);
+        this.weights = Arrays.copyOf(uniqueWeights, count);
+        double squares = 0.0;
+        for (double weight : this.weights) {
+            squares += weight * weight;
+        }
+        this.norm = Math.sqrt(squares);
+    }
+
+    /**
+     * Parses the {@code terms} and {@code weights} script parameters.
+     *
+     * @param scriptName      name of the script used in error messages
+     * @param params          script parameters
+     * @param weightsRequired if {@code false}, every term gets the weight 1.0 when {@code weights} is missing
+     */
+    @SuppressWarnings("unchecked")
+    public static QueryVector parse(String scriptName, Map<String, Object> params, boolean weightsRequired) {
+        List<Object> terms = params == null ? null : (List<Object>) params.get("terms");
+        List<Object> weights = params == null ? null : (List<Object>) params.get("weights");
+        if (terms == null || (weights == null && weightsRequired)) {
+            throw new ScriptException("cannot initialize " + scriptName + ": terms or weights parameter missing!", null,
+                Collections.emptyList(), "exception on unknown var", scriptName);
+        }
+        if (weights != null && weights.size() != terms.size()) {
+            throw new ScriptException("cannot initialize " + scriptName + ": terms and weights array must have same length!", null,
+                Collections.emptyList(), "exception on unknown var", scriptName);
+        }
+        String[] termArray = new String[terms.size()];
+        double[] weightArray = new double[terms.size()];
+        for (int i = 0; i < termArray.length; i++) {
+            termArray[i] = terms.get(i).toString();
+            weightArray[i] = weights == null ? 1.0 : ((Number) weights.get(i)).doubleValue();
+        }
+        return new QueryVector(termArray, weightArray);
+    }
+
+    /**
+     * Returns the ordinal of the term or -1 if the term is not part of the query.
+     */
+    public int ord(BytesRef term) {
+        return ord(bytes, term);
+    }
+
+    private int ord(BytesRef[] bytes, BytesRef term) {
+        int slot = term.hashCode() & mask;
+        int ord;
+        while ((ord = slots[slot]) != 0) {
+            if (bytes[ord - 1].bytesEquals(term)) {
+                return ord - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    public String term(int ord) {
+        return terms[ord];
+    }
+
+    public BytesRef bytes(int ord) {
+        return bytes[ord];
+    }
+
+    public double weight(int ord) {
+        return weights[ord];
+    }
+
+    /**
+     * L2 norm of the query weights
+     */
+    public double norm() {
+        return norm;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long bytesUsed = BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(weights) + RamUsageEstimator.sizeOf(slots)
+            + RamUsageEstimator.shallowSizeOf(terms) + RamUsageEstimator.shallowSizeOf(bytes);
+        for (int i = 0; i < terms.length; i++) {
+            bytesUsed += STRING_RAM_BYTES_USED + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                + (long) Character.BYTES * terms[i].length()) + BYTES_REF_RAM_BYTES_USED + RamUsageEstimator.sizeOf(bytes[i].bytes);
+        }
+        return bytesUsed;
+    }
+}
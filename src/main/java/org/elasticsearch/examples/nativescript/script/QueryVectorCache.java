@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Node level cache of the {@link QueryVector}s compiled from the {@code terms} and {@code weights} script
+ * parameters.
+ * <p>
+ * Scripts are created for every shard of every search, and the same query vectors are often sent again by
+ * later searches, so the compiled vectors are kept by the parameter lists they were built from. The lists are
+ * compared by value, their hash codes are computed once per lookup. The cache is bounded by the estimated heap
+ * used by the vectors, least recently used vectors are evicted first. A maximum of 0 bytes disables it.
+ */
+public final class QueryVectorCache implements ToXContent {
+
+    public static final Setting<ByteSizeValue> MAX_BYTES_SETTING = Setting.byteSizeSetting("my_scripts.query_vector_cache.max_bytes",
+        new ByteSizeValue(10, ByteSizeUnit.MB), Setting.Property.NodeScope);
+
+    // references to the parameter lists and boxed weights kept by the key, per term
+    private static final long KEY_BYTES_PER_TERM = 2 * RamUsageEstimator.NUM_BYTES_OBJECT_REF
+        + RamUsageEstimator.shallowSizeOfInstance(Double.class);
+
+    private final long maxBytes;
+    // null if disabled
+    private final Cache<Key, QueryVector> cache;
+
+    public QueryVectorCache(ByteSizeValue maxBytes) {
+        this.maxBytes = maxBytes.getBytes();
+        if (this.maxBytes > 0) {
+            this.cache = CacheBuilder.<Key, QueryVector>builder()
+                .setMaximumWeight(this.maxBytes)
+                .weigher((key, vector) -> key.ramBytesUsed() + vector.ramBytesUsed())
+                .build();
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Returns the query vector of the {@code terms} and {@code weights} script parameters, see
+     * {@link QueryVector#parse(String, Map, boolean)}.
+     */
+    @SuppressWarnings("unchecked")
+    public QueryVector get(String scriptName, Map<String, Object> params, boolean weightsRequired) {
+        List<Object> terms = params == null ? null : (List<Object>) params.get("terms");
+        List<Object> weights = params == null ? null : (List<Object>) params.get("weights");
+        if (cache == null || terms == null || (weights == null && weightsRequired)) {
+            // fails on missing parameters
+            return QueryVector.parse(scriptName, params, weightsRequired);
+        }
+        try {
+            return cache.computeIfAbsent(new Key(terms, weights), key -> QueryVector.parse(scriptName, params, weightsRequired));
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("cannot compile the query vector of " + scriptName, ex.getCause());
+        }
+    }
+
+    /**
+     * Returns the number of cached vectors, mostly useful in tests.
+     */
+    public int count() {
+        return cache == null ? 0 : cache.count();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the cache, mostly useful in tests.
+     */
+    public Cache.CacheStats stats() {
+        return cache == null ? new Cache.CacheStats(0, 0, 0) : cache.stats();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        Cache.CacheStats stats = stats();
+        builder.startObject("query_vector_cache");
+        builder.field("count", count());
+        builder.field("bytes", cache == null ? 0 : cache.weight());
+        builder.field("max_bytes", maxBytes);
+        builder.field("hits", stats.getHits());
+        builder.field("misses", stats.getMisses());
+        builder.field("evictions", stats.getEvictions());
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * The parameters a vector was compiled from, the lists are not modified once the script is parsed
+     */
+    private static final class Key {
+
+        private final List<Object> terms;
+        private final List<Object> weights;
+        private final int hashCode;
+
+        private Key(List<Object> terms, List<Object> weights) {
+            this.terms = terms;
+            this.weights = weights;
+            this.hashCode = 31 * terms.hashCode() + (weights == null ? 0 : weights.hashCode());
+        }
+
+        long ramBytesUsed() {
+            return terms.size() * KEY_BYTES_PER_TERM;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hashCode == key.hashCode && terms.equals(key.terms)
+                && (weights == null ? key.weights == null : weights.equals(key.weights));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
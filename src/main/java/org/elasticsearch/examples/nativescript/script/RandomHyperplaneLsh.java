@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Random hyperplane locality sensitive hashing for the cosine similarity, see
+ * Charikar, "Similarity Estimation Techniques from Rounding Algorithms", STOC 2002.
+ * <p>
+ * Every bit of a signature is the side of a random hyperplane the vector lies on. Two
+ * vectors at an angle theta get the same bit with probability 1 - theta / pi, so they
+ * share the signature of a table of {@code bits} bits with probability
+ * p = (1 - theta / pi) ^ bits and at least one of {@code tables} signatures with
+ * probability 1 - (1 - p) ^ tables. More bits make the buckets smaller and the
+ * candidates fewer, more tables find more of the similar vectors.
+ * <p>
+ * The signature of every table is turned into a bucket token {@code <table>_<signature>}
+ * that is indexed in a {@code keyword} field, the tokens of the query vector then select
+ * the candidate documents with a {@code terms} query. The hyperplanes are never stored:
+ * their components are derived from a hash of the dimension, or of the term for term
+ * vectors, and of the index of the hyperplane. The ingest processor and the query
+ * both rely on this class, so they always agree.
+ */
+public final class RandomHyperplaneLsh {
+
+    public static final int DEFAULT_TABLES = 8;
+
+    public static final int DEFAULT_BITS = 8;
+
+    public static final int MAX_TABLES = 64;
+
+    public static final int MAX_BITS = 32;
+
+    // seeds of the hyperplanes, generated with splitmix64 so they never change between versions
+    private static final long[] SEEDS = new long[MAX_TABLES * MAX_BITS];
+
+    static {
+        long state = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < SEEDS.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(state);
+        }
+    }
+
+    private RandomHyperplaneLsh() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the number of tables or bits is out of range
+     */
+    public static void checkParameters(int tables, int bits) {
+        if (tables < 1 || tables > MAX_TABLES) {
+            throw new IllegalArgumentException("number of tables must be between 1 and " + MAX_TABLES + " but was [" + tables + "]");
+        }
+        if (bits < 1 || bits > MAX_BITS) {
+            throw new IllegalArgumentException("number of bits must be between 1 and " + MAX_BITS + " but was [" + bits + "]");
+        }
+    }
+
+    /**
+     * Returns the bucket tokens of a dense vector, none for the zero vector.
+     */
+    public static List<String> buckets(float[] vector, int tables, int bits) {
+        checkParameters(tables, bits);
+        double[] projections = new double[tables * bits];
+        boolean zero = true;
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] != 0) {
+                zero = false;
+                project(mix((i + 1) * 0x9E3779B97F4A7C15L), vector[i], projections);
+            }
+        }
+        return zero ? Collections.emptyList() : tokens(projections, tables, bits);
+    }
+
+    /**
+     * Returns the bucket tokens of a term vector given as the weight of every term,
+     * none if all weights are 0.
+     */
+    public static List<String> buckets(Map<String, ? extends Number> weights, int tables, int bits) {
+        checkParameters(tables, bits);
+        double[] projections = new double[tables * bits];
+        boolean zero = true;
+        MurmurHash3.Hash128 hash = new MurmurHash3.Hash128();
+        for (Map.Entry<String, ? extends Number> entry : weights.entrySet()) {
+            double weight = entry.getValue().doubleValue();
+            if (weight != 0) {
+                zero = false;
+                BytesRef bytes = new BytesRef(entry.getKey());
+                project(MurmurHash3.hash128(bytes.bytes, bytes.offset, bytes.length, 0, hash).h1, weight, projections);
+            }
+        }
+        return zero ? Collections.emptyList() : tokens(projections, tables, bits);
+    }
+
+    // adds the contribution of one dimension to the projections of the vector on all hyperplanes
+    private static void project(long dimensionHash, double value, double[] projections) {
+        for (int i = 0; i < projections.length; i++) {
+            projections[i] += value * gaussian(dimensionHash ^ SEEDS[i]);
+        }
+    }
+
+    private static List<String> tokens(double[] projections, int tables, int bits) {
+        List<String> tokens = new ArrayList<>(tables);
+        for (int table = 0; table < tables; table++) {
+            int signature = 0;
+            for (int bit = 0; bit < bits; bit++) {
+                if (projections[table * bits + bit] >= 0) {
+                    signature |= 1 << bit;
+                }
+            }
+            tokens.add(table + "_" + Integer.toHexString(signature));
+        }
+        return tokens;
+    }
+
+    // standard normal value derived from a hash with the Box-Muller transform
+    private static double gaussian(long hash) {
+        long first = mix(hash);
+        long second = mix(first + 0x9E3779B97F4A7C15L);
+        // uniform in (0, 1] and [0, 1)
+        double u1 = ((first >>> 11) + 1) * 0x1.0p-53;
+        double u2 = (second >>> 11) * 0x1.0p-53;
+        return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+    }
+
+    // finalizer of murmur3 / splitmix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -15,42 +15,49 @@
 package org.elasticsearch.examples.nativescript.script;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Map;
 import java.util.Collections;
+import java.util.Map;
 
-import org.apache.lucene.search.Scorer;
 import org.elasticsearch.common.Nullable;
-import org.elasticsearch.script.AbstractSearchScript;
+import org.elasticsearch.examples.nativescript.metrics.ScriptMetrics;
 import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.NativeScriptFactory;
 import org.elasticsearch.script.ScriptException;
-import org.elasticsearch.search.lookup.IndexField;
-import org.elasticsearch.search.lookup.IndexFieldTerm;
 
 /**
  * Script that scores documents as sum_t(tf_t * (#docs+2)/(df_t+1)), which
  * equals ntn in SMART notation, see Manning et al., "Information Retrieval",
  * Chapter 6, Figure 6.15 (link: http://nlp.stanford.edu/IR-book/) This
  * implementation only scores a list of terms on one field.
+ * <p>
+ * The document frequencies and the number of documents are statistics of the
+ * shard, so the idf of the query terms is computed once per search, on the
+ * first document, and multiplied with the optional {@code weights} of the
+ * terms. Scoring a document only reads the frequencies of the query terms from
+ * their postings, see {@link AbstractPostingsScoreScript}.
  */
-public class TFIDFScoreScript extends AbstractSearchScript {
+public class TFIDFScoreScript extends AbstractPostingsScoreScript {
 
-    // the field containing the terms that should be scored, must be initialized
-    // in constructor from parameters.
-    String field = null;
-    // terms that are used for scoring
-    ArrayList<String> terms = null;
+    // idf times the weight of the query terms, computed on the first document of the shard
+    double[] idfWeights = null;
 
     final static public String SCRIPT_NAME = "tfidf_script_score";
 
     /**
      * Factory that is registered in
-     * {@link org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin#onModule(org.elasticsearch.script.ScriptModule)}
+     * {@link org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin#getNativeScripts()}
      * method when the plugin is loaded.
      */
     public static class Factory implements NativeScriptFactory {
 
+        private final ScriptMetrics metrics;
+        private final QueryVectorCache queryVectors;
+
+        public Factory(ScriptMetrics metrics, QueryVectorCache queryVectors) {
+            this.metrics = metrics;
+            this.queryVectors = queryVectors;
+        }
+
         /**
          * This method is called for every search on every shard.
          *
@@ -59,7 +66,13 @@ public class TFIDFScoreScript extends AbstractSearchScript {
          */
         @Override
         public ExecutableScript newScript(@Nullable Map<String, Object> params) {
-            return new TFIDFScoreScript(params);
+            // get the field
+            String field = params == null ? null : (String) params.get("field");
+            if (field == null || params.get("terms") == null) {
+                throw new ScriptException("cannot initialize " + SCRIPT_NAME + ": field or terms parameter missing!", null, Collections.emptyList(),
+                    "exception on unknown var", TFIDFScoreScript.SCRIPT_NAME);
+            }
+            return new TFIDFScoreScript(metrics.recorder(SCRIPT_NAME), field, queryVectors.get(SCRIPT_NAME, params, false));
         }
 
         /**
@@ -79,44 +92,32 @@ public class TFIDFScoreScript extends AbstractSearchScript {
     }
 
     /**
-     * @param params terms that a scored are placed in this parameter. Initialize
-     *               them here.
+     * @param recorder metrics of this script instance
+     * @param field    the field that holds the terms
+     * @param query    compiled query terms, with weight 1.0 unless weights are given
      */
-    private TFIDFScoreScript(Map<String, Object> params) {
-        params.entrySet();
-        // get the terms
-        terms = (ArrayList<String>) params.get("terms");
-        // get the field
-        field = (String) params.get("field");
-        if (field == null || terms == null) {
-            throw new ScriptException("cannot initialize " + SCRIPT_NAME + ": field or terms parameter missing!", null, Collections.emptyList(),
-                "exception on unknown var", TFIDFScoreScript.SCRIPT_NAME);
-        }
+    private TFIDFScoreScript(ScriptMetrics.ScriptRecorder recorder, String field, QueryVector query) {
+        super(SCRIPT_NAME, recorder, field, query);
     }
 
     @Override
-    public Object run() {
-        try {
-            float score = 0;
-            // first, get the IndexField object for the field.
-            IndexField indexField = indexLookup().get(field);
-
-            for (int i = 0; i < terms.size(); i++) {
-                // Now, get the IndexFieldTerm object that can be used to access all
-                // the term statistics
-                IndexFieldTerm indexFieldTerm = indexField.get(terms.get(i));
-                // compute the most naive tfidf and add to current score
-                int df = (int) indexFieldTerm.df();
-                int tf = indexFieldTerm.tf();
-                if (df != 0 && tf != 0) {
-                    score += (float) indexFieldTerm.tf() * Math.log(((float) indexField.docCount() + 2.0) / ((float) df + 1.0));
-                }
+    protected void onNextReader() throws IOException {
+        super.onNextReader();
+        if (idfWeights == null) {
+            idfWeights = new double[query.size()];
+            for (int i = 0; i < idfWeights.length; i++) {
+                idfWeights[i] = Math.log(((double) docCount() + 2.0) / ((double) df(i) + 1.0)) * query.weight(i);
             }
-            return score;
-        } catch (IOException ex) {
-            throw new ScriptException("Could not compute tfidf: "+ ex.getMessage(), null, Collections.emptyList(),
-                "exception on unknown var", TFIDFScoreScript.SCRIPT_NAME);
         }
     }
 
+    @Override
+    protected double scoreDocument() throws IOException {
+        double score = 0;
+        for (int i = 0; i < idfWeights.length; i++) {
+            score += tf(i) * idfWeights[i];
+        }
+        return score;
+    }
+
 }
@@ -19,7 +19,7 @@ import org.elasticsearch.script.AbstractExecutableScript;
 import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.NativeScriptFactory;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -27,14 +27,20 @@ import java.util.Map;
  * https://www.elastic.co/guide/en/elasticsearch/reference/current/search-aggregations-metrics-scripted-metric-aggregation.html
  * <p>
  * profit = 0; for (t in _agg.transactions) { profit += t }; return profit
+ * <p>
+ * The transactions are already summed up by the map script, so this only returns the profit. If the
+ * transactions are also summarized, the amounts are decimals or the profit overflowed a long, it returns
+ * a map with the profit as a {@link WideSum}, the decimal places and the {@link StockStats} of the shard.
  */
 public class CombineScriptFactory implements NativeScriptFactory {
 
+    static final String PROFIT_WRAPS_FIELD = "profit_wraps";
+
     @Override
     @SuppressWarnings("unchecked")
     public ExecutableScript newScript(final @Nullable Map<String, Object> params) {
         Map<String, Object> agg = (Map<String, Object>) params.get("_agg");
-        return new CombineScript(agg);
+        return new CombineScript(agg, InitScriptFactory.decimalPlaces(params));
     }
 
     @Override
@@ -50,20 +56,27 @@ public class CombineScriptFactory implements NativeScriptFactory {
     private static class CombineScript extends AbstractExecutableScript {
 
         private final Map<String, Object> agg;
+        private final int decimalPlaces;
 
-        private CombineScript(Map<String, Object> agg) {
+        private CombineScript(Map<String, Object> agg, int decimalPlaces) {
             this.agg = agg;
+            this.decimalPlaces = decimalPlaces;
         }
 
         @Override
-        @SuppressWarnings("unchecked")
         public Object run() {
-            long profit = 0;
-            final ArrayList<Long> transactions = (ArrayList<Long>) agg.get(InitScriptFactory.TRANSACTIONS_FIELD);
-            for (long t : transactions) {
-                profit += t;
+            long[] profit = (long[]) agg.get(InitScriptFactory.PROFIT_FIELD);
+            StockStats stats = (StockStats) agg.get(InitScriptFactory.STATS_FIELD);
+            if (stats == null && decimalPlaces < 0 && WideSum.fitsInLong(profit)) {
+                return profit[0];
+            }
+            Map<String, Object> shardResult = stats == null ? new HashMap<>() : stats.toShardResult();
+            shardResult.put(InitScriptFactory.PROFIT_FIELD, profit[0]);
+            shardResult.put(PROFIT_WRAPS_FIELD, profit[1]);
+            if (decimalPlaces >= 0) {
+                shardResult.put(InitScriptFactory.DECIMAL_PLACES_PARAM, decimalPlaces);
             }
-            return profit;
+            return shardResult;
         }
     }
 }
@@ -15,11 +15,11 @@
 package org.elasticsearch.examples.nativescript.script.stockaggs;
 
 import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.script.AbstractExecutableScript;
 import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.NativeScriptFactory;
 
-import java.util.ArrayList;
 import java.util.Map;
 
 /**
@@ -27,10 +27,30 @@ import java.util.Map;
  * https://www.elastic.co/guide/en/elasticsearch/reference/current/search-aggregations-metrics-scripted-metric-aggregation.html
  *
  * _agg['transactions'] = []
+ * <p>
+ * Instead of a list of every transaction the map script adds the transactions to a running
+ * profit as they are collected, so the state of a shard is a single {@link WideSum} whatever
+ * the number of documents, which stays exact if the profit overflows a long. An array keeps the value
+ * mutable without boxing and can still be serialized if the shard state is sent to the reduce phase as is.
+ * <p>
+ * If the {@code decimal_places} parameter of the aggregation is set, the amounts are decimals: the
+ * amounts of floating point fields are rounded to that many decimal places and integral amounts are in
+ * units of the last decimal place, like cents. The scripts sum them up as longs in units of the last
+ * decimal place and the reduce script returns the exact profit as a string.
+ * <p>
+ * If the {@code stats} parameter of the aggregation is {@code true} the map script also adds the
+ * transactions to a {@link StockStats} summary.
  */
 public class InitScriptFactory implements NativeScriptFactory {
 
-    public static final String TRANSACTIONS_FIELD = "transactions";
+    public static final String PROFIT_FIELD = "profit";
+    public static final String STATS_FIELD = "stats";
+
+    public static final String STATS_PARAM = "stats";
+    public static final String DECIMAL_PLACES_PARAM = "decimal_places";
+
+    // 10^18 is the largest power of ten that is a long
+    private static final int MAX_DECIMAL_PLACES = 18;
 
     @Override
     @SuppressWarnings("unchecked")
@@ -38,12 +58,31 @@ public class InitScriptFactory implements NativeScriptFactory {
         return new AbstractExecutableScript() {
             @Override
             public Object run() {
-                ((Map<String, Object>)params.get("_agg")).put(TRANSACTIONS_FIELD, new ArrayList<>());
+                Map<String, Object> agg = (Map<String, Object>) params.get("_agg");
+                agg.put(PROFIT_FIELD, WideSum.newSum());
+                if (XContentMapValues.nodeBooleanValue(params.getOrDefault(STATS_PARAM, false))) {
+                    agg.put(STATS_FIELD, new StockStats());
+                }
                 return null;
             }
         };
     }
 
+    /**
+     * Returns the {@code decimal_places} parameter of the aggregation, -1 if the amounts are integral
+     */
+    static int decimalPlaces(Map<String, Object> params) {
+        Object decimalPlaces = params.get(DECIMAL_PLACES_PARAM);
+        if (decimalPlaces == null) {
+            return -1;
+        }
+        if (decimalPlaces instanceof Integer == false || (Integer) decimalPlaces < 0 || (Integer) decimalPlaces > MAX_DECIMAL_PLACES) {
+            throw new IllegalArgumentException("[" + DECIMAL_PLACES_PARAM + "] must be an integer between 0 and " + MAX_DECIMAL_PLACES
+                + " but was [" + decimalPlaces + "]");
+        }
+        return (Integer) decimalPlaces;
+    }
+
     @Override
     public String getName() {
         return "stockaggs_init";
@@ -14,13 +14,22 @@
 
 package org.elasticsearch.examples.nativescript.script.stockaggs;
 
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.common.Nullable;
+import org.elasticsearch.examples.nativescript.script.AbstractLeafSearchScript;
 import org.elasticsearch.index.fielddata.ScriptDocValues;
-import org.elasticsearch.script.AbstractSearchScript;
 import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.NativeScriptFactory;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -28,14 +37,73 @@ import java.util.Map;
  * https://www.elastic.co/guide/en/elasticsearch/reference/current/search-aggregations-metrics-scripted-metric-aggregation.html
  * <p>
  * if (doc['type'].value == \"sale\") { _agg.transactions.add(doc['amount'].value) } else {_agg.transactions.add(-1 * doc['amount'].value)}
+ * <p>
+ * The optional {@code signs} parameter of the aggregation maps the types of the transactions to the sign their amount is added
+ * to the profit with, for example {@code {"sale": 1, "buy": -1, "fee": -1}}, and defaults to
+ * {@code {"sale": 1}}. Transactions with another type or no type at all are subtracted. The amounts and types
+ * are read from the {@code amount} and {@code type} fields, unless the {@code amount_field} and
+ * {@code type_field} parameters of the aggregation name other fields. The ordinals of the
+ * mapped types are looked up once per segment, so the documents are classified by comparing ordinals and
+ * their type is never turned into a string.
  */
 public class MapScriptFactory implements NativeScriptFactory {
 
+    public static final String SIGNS_PARAM = "signs";
+    public static final String AMOUNT_FIELD_PARAM = "amount_field";
+    public static final String TYPE_FIELD_PARAM = "type_field";
+
+    public static final String DEFAULT_AMOUNT_FIELD = "amount";
+    public static final String DEFAULT_TYPE_FIELD = "type";
+
     @Override
     @SuppressWarnings("unchecked")
     public ExecutableScript newScript(final @Nullable Map<String, Object> params) {
         Map<String, Object> agg = (Map<String, Object>) params.get("_agg");
-        return new MapScript(agg);
+        Map<String, Integer> signs = parseSigns((Map<String, Object>) params.get(SIGNS_PARAM));
+        BytesRef[] types = new BytesRef[signs.size()];
+        int[] typeSigns = new int[signs.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> sign : signs.entrySet()) {
+            types[i] = new BytesRef(sign.getKey());
+            typeSigns[i] = sign.getValue();
+            i++;
+        }
+        String amountField = (String) params.getOrDefault(AMOUNT_FIELD_PARAM, DEFAULT_AMOUNT_FIELD);
+        String typeField = (String) params.getOrDefault(TYPE_FIELD_PARAM, DEFAULT_TYPE_FIELD);
+        return new MapScript(agg, amountField, typeField, types, typeSigns, InitScriptFactory.decimalPlaces(params));
+    }
+
+    /**
+     * Parses the mapping of the types of the transactions to the sign of their amount, {@code {"sale": 1}} if
+     * {@code null}
+     */
+    public static Map<String, Integer> parseSigns(@Nullable Map<String, Object> signs) {
+        if (signs == null) {
+            return Collections.singletonMap("sale", 1);
+        }
+        Map<String, Integer> parsed = new HashMap<>();
+        for (Map.Entry<String, Object> sign : signs.entrySet()) {
+            parsed.put(sign.getKey(), parseSign(sign.getKey(), sign.getValue()));
+        }
+        return parsed;
+    }
+
+    private static int parseSign(String type, Object sign) {
+        if (sign instanceof Number) {
+            int value = ((Number) sign).intValue();
+            if (value == ((Number) sign).doubleValue() && Math.abs(value) <= 1) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("the sign of [" + type + "] in [" + SIGNS_PARAM + "] must be 1, 0 or -1 but was ["
+            + sign + "]");
+    }
+
+    /**
+     * Returns the sign of the amount of a transaction, -1 if its type is not mapped or if it has no type
+     */
+    public static int sign(Map<String, Integer> signs, @Nullable String type) {
+        return type == null ? -1 : signs.getOrDefault(type, -1);
     }
 
     @Override
@@ -48,26 +116,118 @@ public class MapScriptFactory implements NativeScriptFactory {
         return false;
     }
 
-    private static class MapScript extends AbstractSearchScript {
+    private static class MapScript extends AbstractLeafSearchScript {
 
         private final Map<String, Object> agg;
+        private final String amountField;
+        private final String typeField;
+        private final BytesRef[] types;
+        private final int[] signs;
+        // multiplier of the amounts of floating point fields to units of the last decimal place, 0 for integral amounts only
+        private final double decimalScale;
+
+        // the profit holder and the optional summary of the init script, which runs after the map script is created
+        private long[] profit;
+        private StockStats stats;
+
+        private SortedNumericDocValues amountValues;
+        private NumericDocValues singleAmounts;
+        // the amounts if they are decimals in a floating point field
+        private ScriptDocValues.Doubles decimalAmounts;
+        private SortedSetDocValues typeValues;
+        private SortedDocValues singleTypes;
+        // ordinals of the mapped types in the current segment, -1 if no document of the segment has the type
+        private final long[] typeOrds;
 
-        private MapScript(Map<String, Object> agg) {
+        private MapScript(Map<String, Object> agg, String amountField, String typeField, BytesRef[] types, int[] signs,
+                          int decimalPlaces) {
+            super("stockaggs_map");
             this.agg = agg;
+            this.amountField = amountField;
+            this.typeField = typeField;
+            this.types = types;
+            this.signs = signs;
+            this.decimalScale = decimalPlaces < 0 ? 0 : Math.pow(10, decimalPlaces);
+            this.typeOrds = new long[types.length];
+        }
+
+        @Override
+        protected void onNextReader() throws IOException {
+            // the doc values are read directly, the lookup only checks that the fields are mapped as expected
+            ScriptDocValues<?> amounts = doc().get(amountField);
+            if (decimalScale > 0 && amounts instanceof ScriptDocValues.Doubles) {
+                // floating point amounts are encoded in the doc values, only the lookup decodes them for every type
+                decimalAmounts = (ScriptDocValues.Doubles) amounts;
+            } else if (amounts instanceof ScriptDocValues.Longs) {
+                decimalAmounts = null;
+            } else {
+                throw new IllegalArgumentException("[" + amountField + "] must be an integral field"
+                    + (decimalScale > 0 ? " or a floating point field" : ""));
+            }
+            if (doc().get(typeField) instanceof ScriptDocValues.Strings == false) {
+                throw new IllegalArgumentException("[" + typeField + "] must be a keyword field");
+            }
+            LeafReader reader = leafContext().reader();
+            amountValues = DocValues.getSortedNumeric(reader, amountField);
+            singleAmounts = DocValues.unwrapSingleton(amountValues);
+            typeValues = DocValues.getSortedSet(reader, typeField);
+            singleTypes = DocValues.unwrapSingleton(typeValues);
+            for (int i = 0; i < types.length; i++) {
+                typeOrds[i] = Math.max(-1, typeValues.lookupTerm(types[i]));
+            }
         }
 
         @Override
-        @SuppressWarnings("unchecked")
         public Object run() {
-            ArrayList<Long> transactions = (ArrayList<Long>) agg.get(InitScriptFactory.TRANSACTIONS_FIELD);
-            ScriptDocValues.Longs amount = (ScriptDocValues.Longs) doc().get("amount");
-            ScriptDocValues.Strings type = (ScriptDocValues.Strings) doc().get("type");
-            if ("sale".equals(type.getValue())) {
-                transactions.add(amount.getValue());
+            if (profit == null) {
+                profit = (long[]) agg.get(InitScriptFactory.PROFIT_FIELD);
+                stats = (StockStats) agg.get(InitScriptFactory.STATS_FIELD);
+            }
+            int doc = docId();
+            long amount;
+            if (decimalAmounts != null) {
+                decimalAmounts.setNextDocId(doc);
+                amount = toFixedPoint(decimalAmounts.getValue());
+            } else if (singleAmounts != null) {
+                // 0 if the document has no amount
+                amount = singleAmounts.get(doc);
             } else {
-                transactions.add(-amount.getValue());
+                amountValues.setDocument(doc);
+                amount = amountValues.count() == 0 ? 0 : amountValues.valueAt(0);
+            }
+            long typeOrd;
+            if (singleTypes != null) {
+                typeOrd = singleTypes.getOrd(doc);
+            } else {
+                typeValues.setDocument(doc);
+                typeOrd = typeValues.nextOrd();
+            }
+            int sign = -1;
+            if (typeOrd >= 0) {
+                for (int i = 0; i < typeOrds.length; i++) {
+                    if (typeOrds[i] == typeOrd) {
+                        sign = signs[i];
+                        break;
+                    }
+                }
+            }
+            if (sign > 0) {
+                WideSum.add(profit, amount);
+            } else if (sign < 0) {
+                WideSum.subtract(profit, amount);
+            }
+            if (stats != null) {
+                stats.add(amount);
             }
             return null;
         }
+
+        private long toFixedPoint(double amount) {
+            double scaled = amount * decimalScale;
+            if (Math.abs(scaled) >= 0x1p63) {
+                throw new IllegalArgumentException("[" + amountField + "] is too large for its decimal places: [" + amount + "]");
+            }
+            return Math.round(scaled);
+        }
     }
 }
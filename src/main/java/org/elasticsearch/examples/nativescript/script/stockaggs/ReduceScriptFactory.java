@@ -19,22 +19,48 @@ import org.elasticsearch.script.AbstractExecutableScript;
 import org.elasticsearch.script.ExecutableScript;
 import org.elasticsearch.script.NativeScriptFactory;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Combine script from
+ * Reduce script from
  * https://www.elastic.co/guide/en/elasticsearch/reference/current/search-aggregations-metrics-scripted-metric-aggregation.html
  * <p>
  * profit = 0; for (t in _agg.transactions) { profit += t }; return profit
+ * <p>
+ * If the shards summarized their transactions, the summaries are merged and the script returns a map with the
+ * {@code profit} and the {@code count}, {@code min}, {@code max} and {@code percentiles} of the transaction
+ * sizes. The percentiles are set with the {@code percents} parameter of the script and default to 50 and 99.
+ * <p>
+ * The profits of the shards are added up in a {@link WideSum}, so the profit is exact even if it does not fit in
+ * a long. It is returned as a long if it does, as a string otherwise. The profit of decimal amounts is always a
+ * string with the requested number of decimal places, and the transaction sizes are scaled to doubles.
  */
 public class ReduceScriptFactory implements NativeScriptFactory {
 
+    public static final String PERCENTS_PARAM = "percents";
+
+    private static final double[] DEFAULT_PERCENTS = {50, 99};
+
     @Override
     @SuppressWarnings("unchecked")
     public ExecutableScript newScript(final @Nullable Map<String, Object> params) {
-        final ArrayList<Long> aggs = (ArrayList<Long>) params.get("_aggs");
-        return new ReduceScript(aggs);
+        final ArrayList<Object> aggs = (ArrayList<Object>) params.get("_aggs");
+        double[] percents = DEFAULT_PERCENTS;
+        List<Number> percentsParam = (List<Number>) params.get(PERCENTS_PARAM);
+        if (percentsParam != null) {
+            percents = new double[percentsParam.size()];
+            for (int i = 0; i < percents.length; i++) {
+                percents[i] = percentsParam.get(i).doubleValue();
+                if (percents[i] < 0 || percents[i] > 100) {
+                    throw new IllegalArgumentException("[" + PERCENTS_PARAM + "] must be between 0 and 100 but got [" + percents[i] + "]");
+                }
+            }
+        }
+        return new ReduceScript(aggs, percents);
     }
 
     @Override
@@ -49,19 +75,53 @@ public class ReduceScriptFactory implements NativeScriptFactory {
 
     private static class ReduceScript extends AbstractExecutableScript {
 
-        private final ArrayList<Long> aggs;
+        private final ArrayList<Object> aggs;
+        private final double[] percents;
 
-        private ReduceScript(ArrayList<Long> aggs) {
+        private ReduceScript(ArrayList<Object> aggs, double[] percents) {
             this.aggs = aggs;
+            this.percents = percents;
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public Object run() {
-            long profit = 0;
-            for (long t : aggs) {
-                profit += t;
+            long[] profit = WideSum.newSum();
+            int decimalPlaces = -1;
+            StockStats stats = null;
+            for (Object t : aggs) {
+                if (t instanceof Map) {
+                    Map<String, Object> shardResult = (Map<String, Object>) t;
+                    WideSum.add(profit, ((Number) shardResult.get(InitScriptFactory.PROFIT_FIELD)).longValue(),
+                        ((Number) shardResult.get(CombineScriptFactory.PROFIT_WRAPS_FIELD)).longValue());
+                    if (shardResult.containsKey(InitScriptFactory.DECIMAL_PLACES_PARAM)) {
+                        decimalPlaces = ((Number) shardResult.get(InitScriptFactory.DECIMAL_PLACES_PARAM)).intValue();
+                    }
+                    if (shardResult.containsKey(StockStats.SIZES_FIELD)) {
+                        StockStats shardStats = StockStats.fromShardResult(shardResult);
+                        if (stats == null) {
+                            stats = shardStats;
+                        } else {
+                            stats.merge(shardStats);
+                        }
+                    }
+                } else {
+                    WideSum.add(profit, ((Number) t).longValue());
+                }
+            }
+            Object profitValue;
+            if (decimalPlaces >= 0) {
+                profitValue = new BigDecimal(WideSum.toBigInteger(profit), decimalPlaces).toPlainString();
+            } else {
+                profitValue = WideSum.toValue(profit);
+            }
+            if (stats == null) {
+                return profitValue;
             }
-            return profit;
+            Map<String, Object> result = new HashMap<>();
+            result.put(InitScriptFactory.PROFIT_FIELD, profitValue);
+            stats.toResult(result, percents, decimalPlaces);
+            return result;
         }
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script.stockaggs;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.script.AbstractExecutableScript;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.script.NativeScriptFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Update script that adds the profit and the number of the transactions of a time bucket to its rollup
+ * document, see {@link org.elasticsearch.examples.nativescript.ingest.StockRollupProcessor}.
+ * <p>
+ * ctx._source.profit += params.profit; ctx._source.count += params.count
+ * <p>
+ * The profit is a {@link WideSum} like the shard results of the {@link CombineScriptFactory}: {@code profit} holds
+ * its wrapped 64 bits and {@code profit_wraps} the number of times it wrapped around, so a rollup is exact even
+ * if its profit does not fit in a long.
+ * <p>
+ * Updates are idempotent: every update carries the id of the node that sent it, the {@code writer}, and the sequence number
+ * of its flush, and the document keeps the last sequence number of every writer in {@code flushes}. An update
+ * that was already applied, because it was retried after a timeout for example, does nothing.
+ */
+public class RollupScriptFactory implements NativeScriptFactory {
+
+    public static final String NAME = "stockaggs_rollup";
+
+    public static final String PROFIT_FIELD = "profit";
+    public static final String PROFIT_WRAPS_FIELD = "profit_wraps";
+    public static final String COUNT_FIELD = "count";
+    public static final String FLUSHES_FIELD = "flushes";
+
+    public static final String WRITER_PARAM = "writer";
+    public static final String SEQ_PARAM = "seq";
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ExecutableScript newScript(final @Nullable Map<String, Object> params) {
+        long profit = ((Number) params.get(PROFIT_FIELD)).longValue();
+        long profitWraps = ((Number) params.get(PROFIT_WRAPS_FIELD)).longValue();
+        long count = ((Number) params.get(COUNT_FIELD)).longValue();
+        String writer = (String) params.get(WRITER_PARAM);
+        long seq = ((Number) params.get(SEQ_PARAM)).longValue();
+        return new AbstractExecutableScript() {
+
+            private Map<String, Object> ctx;
+
+            @Override
+            public void setNextVar(String name, Object value) {
+                if ("ctx".equals(name)) {
+                    ctx = (Map<String, Object>) value;
+                }
+            }
+
+            @Override
+            public Object run() {
+                Map<String, Object> source = (Map<String, Object>) ctx.get("_source");
+                List<String> flushes = recordFlush((List<String>) source.get(FLUSHES_FIELD), writer, seq);
+                if (flushes == null) {
+                    ctx.put("op", "none");
+                    return null;
+                }
+                source.put(FLUSHES_FIELD, flushes);
+                long[] sum = profit(source);
+                WideSum.add(sum, profit, profitWraps);
+                source.put(PROFIT_FIELD, sum[0]);
+                source.put(PROFIT_WRAPS_FIELD, sum[1]);
+                source.put(COUNT_FIELD, Math.addExact(((Number) source.get(COUNT_FIELD)).longValue(), count));
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns the flushes of a rollup document with the sequence number of a writer, or {@code null} if the
+     * document already has this or a later flush of the writer
+     */
+    public static List<String> recordFlush(@Nullable List<String> flushes, String writer, long seq) {
+        List<String> recorded = new ArrayList<>();
+        String prefix = writer + ":";
+        if (flushes != null) {
+            for (String flush : flushes) {
+                if (flush.startsWith(prefix)) {
+                    if (Long.parseLong(flush.substring(prefix.length())) >= seq) {
+                        return null;
+                    }
+                } else {
+                    recorded.add(flush);
+                }
+            }
+        }
+        recorded.add(prefix + seq);
+        return recorded;
+    }
+
+    /**
+     * Returns the profit of a rollup document as a {@link WideSum}
+     */
+    public static long[] profit(Map<String, Object> source) {
+        long[] sum = WideSum.newSum();
+        Object wraps = source.get(PROFIT_WRAPS_FIELD);
+        WideSum.add(sum, ((Number) source.get(PROFIT_FIELD)).longValue(), wraps == null ? 0 : ((Number) wraps).longValue());
+        return sum;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+}
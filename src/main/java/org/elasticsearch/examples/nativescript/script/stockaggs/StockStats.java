@@ -0,0 +1,162 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script.stockaggs;
+
+import org.HdrHistogram.Histogram;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+/**
+ * Mergeable summary of the sizes of the transactions, the absolute values of their amounts.
+ * <p>
+ * The count, min and max are exact, the percentiles come from an HDR histogram with a relative error of
+ * 0.1%. The histogram only has a bucket for every distinguishable size, so the summary of a shard is a few
+ * kilobytes once compressed whatever the number of transactions, and summaries are merged by adding
+ * their histograms.
+ */
+public final class StockStats {
+
+    static final String COUNT_FIELD = "count";
+    static final String MIN_FIELD = "min";
+    static final String MAX_FIELD = "max";
+    static final String SIZES_FIELD = "sizes";
+    static final String PERCENTILES_FIELD = "percentiles";
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private final Histogram sizes;
+
+    public StockStats() {
+        this(new Histogram(SIGNIFICANT_DIGITS));
+    }
+
+    private StockStats(Histogram sizes) {
+        this.sizes = sizes;
+        // grows to the largest size of the merged summaries
+        sizes.setAutoResize(true);
+    }
+
+    /**
+     * Adds a transaction, the size of {@link Long#MIN_VALUE} is counted as {@link Long#MAX_VALUE}
+     */
+    public void add(long amount) {
+        // Math.abs(Long.MIN_VALUE) is negative, which the histogram rejects
+        long size = amount == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(amount);
+        count++;
+        min = Math.min(min, size);
+        max = Math.max(max, size);
+        sizes.recordValue(size);
+    }
+
+    /**
+     * Adds the transactions of another summary to this one
+     */
+    public void merge(StockStats other) {
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sizes.add(other.sizes);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest size, {@link Long#MAX_VALUE} if there are no transactions
+     */
+    public long min() {
+        return min;
+    }
+
+    /**
+     * Returns the largest size, {@link Long#MIN_VALUE} if there are no transactions
+     */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Returns the size that {@code percent}% of the transactions are smaller than or equal to
+     */
+    public long percentile(double percent) {
+        // the histogram returns the upper bound of the bucket, which can be out of the exact range
+        return Math.max(min, Math.min(max, sizes.getValueAtPercentile(percent)));
+    }
+
+    /**
+     * Returns the summary as the map of plain values that the combine script sends to the reduce phase
+     */
+    public Map<String, Object> toShardResult() {
+        ByteBuffer buffer = ByteBuffer.allocate(sizes.getNeededByteBufferCapacity());
+        int length = sizes.encodeIntoCompressedByteBuffer(buffer);
+        Map<String, Object> result = new HashMap<>();
+        result.put(COUNT_FIELD, count);
+        result.put(MIN_FIELD, min);
+        result.put(MAX_FIELD, max);
+        result.put(SIZES_FIELD, Arrays.copyOf(buffer.array(), length));
+        return result;
+    }
+
+    /**
+     * Reads the summary of a shard back from {@link #toShardResult()}
+     */
+    public static StockStats fromShardResult(Map<String, Object> shardResult) {
+        Histogram sizes;
+        try {
+            sizes = Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap((byte[]) shardResult.get(SIZES_FIELD)), 0);
+        } catch (DataFormatException ex) {
+            throw new IllegalArgumentException("cannot decode the transaction sizes of a shard", ex);
+        }
+        StockStats stats = new StockStats(sizes);
+        stats.count = ((Number) shardResult.get(COUNT_FIELD)).longValue();
+        stats.min = ((Number) shardResult.get(MIN_FIELD)).longValue();
+        stats.max = ((Number) shardResult.get(MAX_FIELD)).longValue();
+        return stats;
+    }
+
+    /**
+     * Adds the count, min, max and the requested percentiles of the sizes to the result of the reduce script,
+     * the min, max and percentiles are {@code null} if there are no transactions. If the amounts are decimals,
+     * {@code decimalPlaces} is their number of decimal places and the sizes are scaled back to doubles,
+     * otherwise it is negative.
+     */
+    public void toResult(Map<String, Object> result, double[] percents, int decimalPlaces) {
+        result.put(COUNT_FIELD, count);
+        result.put(MIN_FIELD, size(min, decimalPlaces));
+        result.put(MAX_FIELD, size(max, decimalPlaces));
+        Map<String, Object> percentiles = new LinkedHashMap<>();
+        for (double percent : percents) {
+            percentiles.put(String.valueOf(percent), count == 0 ? null : size(percentile(percent), decimalPlaces));
+        }
+        result.put(PERCENTILES_FIELD, percentiles);
+    }
+
+    private Object size(long size, int decimalPlaces) {
+        if (count == 0) {
+            return null;
+        }
+        return decimalPlaces < 0 ? (Object) size : (Object) (size / Math.pow(10, decimalPlaces));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script.stockaggs;
+
+import java.math.BigInteger;
+
+/**
+ * Exact sum of longs in a {@code long[2]}: {@code sum[0]} holds the wrapped 64 bits sum and {@code sum[1]}
+ * the number of times it wrapped around, so the exact value is {@code sum[1] * 2^64 + sum[0]}.
+ * <p>
+ * Adding a value is a plain addition and a test of the sign bits that is almost never taken, the wrap
+ * around counter only changes when the sum overflows. As long as it is 0 the sum is {@code sum[0]}.
+ */
+public final class WideSum {
+
+    private WideSum() {
+    }
+
+    /**
+     * Returns an empty sum
+     */
+    public static long[] newSum() {
+        return new long[2];
+    }
+
+    /**
+     * Adds a value to the sum
+     */
+    public static void add(long[] sum, long value) {
+        long low = sum[0];
+        sum[1] += addWraps(low, value);
+        sum[0] = low + value;
+    }
+
+    /**
+     * Subtracts a value from the sum
+     */
+    public static void subtract(long[] sum, long value) {
+        long low = sum[0];
+        sum[1] += subtractWraps(low, value);
+        sum[0] = low - value;
+    }
+
+    /**
+     * Returns by how much the wrap around counter changes when a value is added to the wrapped 64 bits of a sum,
+     * for sums that are not kept in a {@code long[2]}
+     */
+    public static long addWraps(long low, long value) {
+        long result = low + value;
+        // the result has the wrong sign if both operands have the same sign and the result a different one
+        if (((low ^ result) & (value ^ result)) < 0) {
+            return value < 0 ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns by how much the wrap around counter changes when a value is subtracted from the wrapped 64 bits of
+     * a sum
+     */
+    public static long subtractWraps(long low, long value) {
+        long result = low - value;
+        if (((low ^ value) & (low ^ result)) < 0) {
+            return value < 0 ? 1 : -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Adds another sum to the sum
+     */
+    public static void add(long[] sum, long low, long wraps) {
+        add(sum, low);
+        sum[1] += wraps;
+    }
+
+    /**
+     * Returns whether the exact value of the sum fits in a long
+     */
+    public static boolean fitsInLong(long[] sum) {
+        return sum[1] == 0;
+    }
+
+    /**
+     * Returns the sum as a long if it fits, as the string of its exact value otherwise
+     */
+    public static Object toValue(long[] sum) {
+        return fitsInLong(sum) ? (Object) sum[0] : toBigInteger(sum).toString();
+    }
+
+    /**
+     * Returns the exact value of the sum, rounded to the closest double
+     */
+    public static double toDouble(long[] sum) {
+        return sum[1] * 0x1p64 + sum[0];
+    }
+
+    /**
+     * Returns the exact value of the sum
+     */
+    public static BigInteger toBigInteger(long[] sum) {
+        return BigInteger.valueOf(sum[1]).shiftLeft(64).add(BigInteger.valueOf(sum[0]));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.aggregation;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.examples.nativescript.script.AbstractSearchScriptTestCase;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.elasticsearch.search.aggregations.AggregationBuilders.terms;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+/**
+ */
+public class PrimeStatsAggregationTests extends AbstractSearchScriptTestCase {
+
+    private void createIndex() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("group").field("type", "keyword").endObject()
+            .startObject("number").field("type", "long").endObject()
+            .startObject("price").field("type", "double").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+    }
+
+    public void testStatsPerBucket() throws Exception {
+        createIndex();
+        int groups = randomIntBetween(1, 50);
+        long[] counts = new long[groups];
+        long[] valueCounts = new long[groups];
+        long[] mins = new long[groups];
+        long[] maxes = new long[groups];
+        for (int group = 0; group < groups; group++) {
+            mins[group] = Long.MAX_VALUE;
+            maxes[group] = Long.MIN_VALUE;
+        }
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        int numDocs = randomIntBetween(200, 500);
+        for (int i = 0; i < numDocs; i++) {
+            int group = randomInt(groups - 1);
+            long[] numbers = new long[randomIntBetween(0, 3)];
+            for (int j = 0; j < numbers.length; j++) {
+                numbers[j] = randomBoolean() ? randomIntBetween(-1000, 1000) : randomLong();
+            }
+            for (long number : numbers) {
+                valueCounts[group]++;
+                if (BigInteger.valueOf(number).isProbablePrime(100)) {
+                    counts[group]++;
+                    mins[group] = Math.min(mins[group], number);
+                    maxes[group] = Math.max(maxes[group], number);
+                }
+            }
+            indexBuilders.add(client().prepareIndex("test", "type", Integer.toString(i))
+                .setSource("group", "g" + group, "number", numbers));
+        }
+        indexRandom(true, indexBuilders);
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setSize(0)
+            .addAggregation(terms("groups").field("group").size(groups)
+                .order(Terms.Order.aggregation("primes.count", false))
+                .subAggregation(new PrimeStatsAggregationBuilder("primes").field("number")))
+            .get();
+        assertNoFailures(searchResponse);
+
+        Terms terms = searchResponse.getAggregations().get("groups");
+        assertThat(terms, notNullValue());
+        long previousCount = Long.MAX_VALUE;
+        for (Terms.Bucket bucket : terms.getBuckets()) {
+            int group = Integer.parseInt(bucket.getKeyAsString().substring(1));
+            InternalPrimeStats stats = bucket.getAggregations().get("primes");
+            assertThat(stats.getCount(), equalTo(counts[group]));
+            assertThat(stats.getValueCount(), equalTo(valueCounts[group]));
+            assertThat(stats.getMin(), equalTo(mins[group]));
+            assertThat(stats.getMax(), equalTo(maxes[group]));
+            if (valueCounts[group] > 0) {
+                assertThat(stats.getDensity(), closeTo((double) counts[group] / valueCounts[group], 1e-9));
+            }
+            // ordered by the count metric
+            assertThat(previousCount, greaterThanOrEqualTo(stats.getCount()));
+            previousCount = stats.getCount();
+        }
+    }
+
+    public void testUnmappedAndFloatingPointFields() throws Exception {
+        createIndex();
+        indexRandom(true, client().prepareIndex("test", "type", "1").setSource("number", 7, "price", 7.0));
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .addAggregation(new PrimeStatsAggregationBuilder("primes").field("unmapped"))
+            .get();
+        assertNoFailures(searchResponse);
+        InternalPrimeStats stats = searchResponse.getAggregations().get("primes");
+        assertThat(stats.getCount(), equalTo(0L));
+        assertThat(stats.getValueCount(), equalTo(0L));
+
+        expectThrows(SearchPhaseExecutionException.class, () -> client().prepareSearch("test")
+            .addAggregation(new PrimeStatsAggregationBuilder("primes").field("price")).get());
+    }
+}
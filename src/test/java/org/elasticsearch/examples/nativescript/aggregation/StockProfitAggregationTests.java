@@ -0,0 +1,263 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.aggregation;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.examples.nativescript.script.AbstractSearchScriptTestCase;
+import org.elasticsearch.examples.nativescript.script.LeafScriptEngineService;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.scripted.ScriptedMetricAggregationBuilder;
+import org.joda.time.DateTime;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.search.aggregations.AggregationBuilders.dateHistogram;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.scriptedMetric;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.terms;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ */
+public class StockProfitAggregationTests extends AbstractSearchScriptTestCase {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private void createIndex() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("stock")
+            .startObject("properties")
+            .startObject("type").field("type", "keyword").endObject()
+            .startObject("amount").field("type", "long").endObject()
+            .startObject("desk").field("type", "keyword").endObject()
+            .startObject("date").field("type", "date").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("transactions").addMapping("stock", mapping, XContentType.JSON));
+    }
+
+    public void testMatchesScripts() throws Exception {
+        createIndex();
+        int desks = randomIntBetween(1, 20);
+        int days = randomIntBetween(1, 10);
+        long[] deskProfits = new long[desks];
+        long[] dayProfits = new long[days];
+        long profit = 0;
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        int numDocs = randomIntBetween(100, 500);
+        for (int i = 0; i < numDocs; i++) {
+            int desk = randomInt(desks - 1);
+            int day = randomInt(days - 1);
+            boolean sale = randomBoolean();
+            long amount = randomIntBetween(0, 1000);
+            long signed = sale ? amount : -amount;
+            deskProfits[desk] += signed;
+            dayProfits[day] += signed;
+            profit += signed;
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i)).setSource(
+                "type", sale ? "sale" : randomFrom("cost", "fee"), "amount", amount, "desk", "d" + desk, "date", day * DAY));
+        }
+        // no sale on this desk, and no type on the transaction
+        indexBuilders.add(client().prepareIndex("transactions", "stock", "untyped").setSource("amount", 5, "desk", "untyped", "date", 0));
+        profit -= 5;
+        dayProfits[0] -= 5;
+        indexRandom(true, indexBuilders);
+
+        SearchResponse searchResponse = client().prepareSearch("transactions")
+            .setSize(0)
+            .addAggregation(new StockProfitAggregationBuilder("profit"))
+            .addAggregation(scriptedMetric("script_profit")
+                .initScript(new Script(ScriptType.INLINE, "native", "stockaggs_init", Collections.emptyMap()))
+                .mapScript(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, "stockaggs_map", Collections.emptyMap()))
+                .combineScript(new Script(ScriptType.INLINE, "native", "stockaggs_combine", Collections.emptyMap()))
+                .reduceScript(new Script(ScriptType.INLINE, "native", "stockaggs_reduce", Collections.emptyMap())))
+            .addAggregation(terms("desks").field("desk").size(desks + 1)
+                .subAggregation(new StockProfitAggregationBuilder("profit")))
+            .addAggregation(dateHistogram("days").field("date").dateHistogramInterval(DateHistogramInterval.DAY)
+                .subAggregation(new StockProfitAggregationBuilder("profit")))
+            .get();
+        assertNoFailures(searchResponse);
+
+        InternalStockProfit total = searchResponse.getAggregations().get("profit");
+        assertThat(total.getProfit(), equalTo(BigInteger.valueOf(profit)));
+        assertThat(((InternalAggregation) searchResponse.getAggregations().get("script_profit")).getProperty("value"), equalTo(profit));
+
+        Terms terms = searchResponse.getAggregations().get("desks");
+        for (Terms.Bucket bucket : terms.getBuckets()) {
+            InternalStockProfit deskProfit = bucket.getAggregations().get("profit");
+            if ("untyped".equals(bucket.getKeyAsString())) {
+                assertThat(deskProfit.getProfit(), equalTo(BigInteger.valueOf(-5)));
+            } else {
+                assertThat(deskProfit.getProfit(),
+                    equalTo(BigInteger.valueOf(deskProfits[Integer.parseInt(bucket.getKeyAsString().substring(1))])));
+            }
+        }
+        Histogram histogram = searchResponse.getAggregations().get("days");
+        for (Histogram.Bucket bucket : histogram.getBuckets()) {
+            int day = (int) (((DateTime) bucket.getKey()).getMillis() / DAY);
+            InternalStockProfit dayProfit = bucket.getAggregations().get("profit");
+            assertThat(dayProfit.getProfit(), equalTo(BigInteger.valueOf(dayProfits[day])));
+        }
+    }
+
+    public void testCustomFields() throws Exception {
+        createIndex();
+        indexRandom(true,
+            client().prepareIndex("transactions", "stock", "1").setSource("desk", "buy", "amount", 80),
+            client().prepareIndex("transactions", "stock", "2").setSource("desk", "sell", "amount", 10),
+            client().prepareIndex("transactions", "stock", "3").setSource("desk", "buy", "amount", 30));
+
+        SearchResponse searchResponse = client().prepareSearch("transactions")
+            .setSize(0)
+            .addAggregation(new StockProfitAggregationBuilder("profit").typeField("desk").saleType("buy"))
+            .addAggregation(new StockProfitAggregationBuilder("unmapped").amountField("unmapped"))
+            .get();
+        assertNoFailures(searchResponse);
+        assertThat(((InternalStockProfit) searchResponse.getAggregations().get("profit")).getProfit(), equalTo(BigInteger.valueOf(100)));
+        assertThat(((InternalStockProfit) searchResponse.getAggregations().get("unmapped")).getProfit(), equalTo(BigInteger.ZERO));
+    }
+
+    public void testSigns() throws Exception {
+        createIndex();
+        Map<String, Integer> signs = new HashMap<>();
+        signs.put("sale", 1);
+        signs.put("buy", -1);
+        signs.put("transfer", 0);
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        long profit = 0;
+        int numDocs = randomIntBetween(50, 200);
+        for (int i = 0; i < numDocs; i++) {
+            String type = randomFrom("sale", "buy", "transfer", "fee");
+            long amount = randomIntBetween(0, 1000);
+            profit += type.equals("sale") ? amount : type.equals("transfer") ? 0 : -amount;
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i)).setSource("type", type, "amount", amount));
+        }
+        indexRandom(true, indexBuilders);
+
+        SearchResponse searchResponse = client().prepareSearch("transactions")
+            .setSize(0)
+            .addAggregation(new StockProfitAggregationBuilder("profit").signs(signs))
+            .addAggregation(scriptProfit("script_profit", signs))
+            .get();
+        assertNoFailures(searchResponse);
+        assertThat(((InternalStockProfit) searchResponse.getAggregations().get("profit")).getProfit(), equalTo(BigInteger.valueOf(profit)));
+        assertThat(((InternalAggregation) searchResponse.getAggregations().get("script_profit")).getProperty("value"), equalTo(profit));
+
+        SearchPhaseExecutionException e = expectThrows(SearchPhaseExecutionException.class, () -> client().prepareSearch("transactions")
+            .addAggregation(new StockProfitAggregationBuilder("profit").signs(signs).saleType("sale")).get());
+        assertThat(e.shardFailures()[0].reason(), containsString("[sale_type] and [signs] cannot both be set"));
+    }
+
+    public void testOverflow() throws Exception {
+        createIndex();
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        BigInteger profit = BigInteger.ZERO;
+        int numDocs = randomIntBetween(2, 20);
+        for (int i = 0; i < numDocs; i++) {
+            // the first two sales overflow
+            boolean sale = i < 2 || randomBoolean();
+            long amount = i < 2 ? Long.MAX_VALUE : randomFrom(Long.MAX_VALUE, Long.MIN_VALUE, randomLong());
+            profit = sale ? profit.add(BigInteger.valueOf(amount)) : profit.subtract(BigInteger.valueOf(amount));
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i))
+                .setSource("type", sale ? "sale" : "cost", "amount", amount, "desk", "d" + (i % 2)));
+        }
+        indexRandom(true, indexBuilders);
+
+        SearchResponse searchResponse = client().prepareSearch("transactions")
+            .setSize(0)
+            .addAggregation(new StockProfitAggregationBuilder("profit"))
+            .addAggregation(scriptProfit("script_profit", null))
+            .get();
+        assertNoFailures(searchResponse);
+        InternalStockProfit total = searchResponse.getAggregations().get("profit");
+        assertThat(total.getProfit(), equalTo(profit));
+        assertThat(total.value(), equalTo(profit.doubleValue()));
+        // the scripts return the profit as a string if it does not fit in a long
+        Object scriptProfit = ((InternalAggregation) searchResponse.getAggregations().get("script_profit")).getProperty("value");
+        assertThat(new BigInteger(scriptProfit.toString()), equalTo(profit));
+    }
+
+    private static ScriptedMetricAggregationBuilder scriptProfit(String name, Map<String, Integer> signs) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("_agg", new HashMap<>());
+        if (signs != null) {
+            params.put("signs", signs);
+        }
+        return scriptedMetric(name)
+            .params(params)
+            .initScript(new Script(ScriptType.INLINE, "native", "stockaggs_init", Collections.emptyMap()))
+            .mapScript(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, "stockaggs_map", Collections.emptyMap()))
+            .combineScript(new Script(ScriptType.INLINE, "native", "stockaggs_combine", Collections.emptyMap()))
+            .reduceScript(new Script(ScriptType.INLINE, "native", "stockaggs_reduce", Collections.emptyMap()));
+    }
+
+    public void testSampling() throws Exception {
+        createIndex();
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        long profit = 0;
+        int numDocs = randomIntBetween(1000, 3000);
+        for (int i = 0; i < numDocs; i++) {
+            boolean sale = randomBoolean();
+            long amount = randomIntBetween(0, 1000);
+            profit += sale ? amount : -amount;
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i))
+                .setSource("type", sale ? "sale" : "cost", "amount", amount));
+        }
+        indexRandom(true, indexBuilders);
+
+        double sampleRate = randomFrom(0.1, 0.25, 0.5, 0.9);
+        SearchResponse searchResponse = client().prepareSearch("transactions")
+            .setSize(0)
+            .addAggregation(new StockProfitAggregationBuilder("sampled").sampleRate(sampleRate))
+            .addAggregation(new StockProfitAggregationBuilder("exact").sampleRate(1))
+            .get();
+        assertNoFailures(searchResponse);
+
+        InternalStockProfit exact = searchResponse.getAggregations().get("exact");
+        assertFalse(exact.isSampled());
+        assertThat(exact.getProfit(), equalTo(BigInteger.valueOf(profit)));
+        assertThat(exact.getError(), equalTo(0.0));
+
+        InternalStockProfit sampled = searchResponse.getAggregations().get("sampled");
+        assertTrue(sampled.isSampled());
+        assertThat(sampled.getSampleRate(), equalTo(sampleRate));
+        assertThat(sampled.getError(), greaterThan(0.0));
+        // the documents are sampled deterministically but their layout is random, 5 standard errors away is very unlikely
+        assertThat(sampled.value(), closeTo(profit, 5 * sampled.getError()));
+    }
+
+    public void testInvalidSampleRate() {
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class,
+            () -> new StockProfitAggregationBuilder("profit").sampleRate(randomFrom(0.0, -0.5, 1.5, Double.NaN)));
+        assertThat(e.getMessage(), containsString("[sample_rate] must be greater than 0 and at most 1"));
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.ingest;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.examples.nativescript.script.AbstractSearchScriptTestCase;
+import org.elasticsearch.examples.nativescript.script.stockaggs.RollupScriptFactory;
+import org.elasticsearch.script.ExecutableScript;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ */
+public class StockRollupTests extends AbstractSearchScriptTestCase {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return Settings.builder().put(super.nodeSettings(nodeOrdinal))
+            .put(StockRollups.FLUSH_INTERVAL_SETTING.getKey(), "100ms").build();
+    }
+
+    private void putPipeline(String processor) {
+        String pipeline = "{\"processors\": [{\"stock_rollup\": " + processor + "}]}";
+        assertAcked(client().admin().cluster().preparePutPipeline("rollup", new BytesArray(pipeline), XContentType.JSON).get());
+    }
+
+    public void testRollups() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("stock")
+            .startObject("properties")
+            .startObject("kind").field("type", "keyword").endObject()
+            .startObject("value").field("type", "long").endObject()
+            // numbers below 10000 would be parsed as years first
+            .startObject("date").field("type", "date").field("format", "epoch_millis||strict_date_optional_time").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("transactions").addMapping("stock", mapping, XContentType.JSON).get());
+        // the open buckets must be aggregated from the same fields as the rollups
+        putPipeline("{\"rollup_index\": \"rollups\", \"interval\": \"1h\", \"amount_field\": \"value\", \"type_field\": \"kind\", "
+            + "\"signs\": {\"sale\": 1, \"cost\": -1, \"transfer\": 0}}");
+
+        int hours = randomIntBetween(2, 10);
+        SortedMap<Long, BigInteger> expected = new TreeMap<>();
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        int numDocs = randomIntBetween(50, 200);
+        for (int i = 0; i < numDocs; i++) {
+            long date = randomInt(hours - 1) * HOUR + randomInt((int) HOUR - 1);
+            String type = randomFrom("sale", "cost", "transfer", "fee");
+            long amount = randomIntBetween(0, 1000);
+            long sign = type.equals("sale") ? 1 : type.equals("transfer") ? 0 : -1;
+            expected.merge(date / HOUR * HOUR, BigInteger.valueOf(sign * amount), BigInteger::add);
+            // the processor parses the dates itself
+            Object source = randomBoolean() ? date : new DateTime(date, DateTimeZone.UTC).toString();
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i)).setPipeline("rollup")
+                .setSource("kind", type, "value", amount, "date", source));
+        }
+        indexRandom(true, indexBuilders);
+
+        assertBusy(() -> {
+            // created by the first flush
+            assertTrue(indexExists("rollups"));
+            refresh("rollups");
+            assertHitCount(client().prepareSearch("rollups").setSize(0).get(), expected.size());
+            long count = 0;
+            for (Map<String, Object> rollup : sources("rollups")) {
+                count += ((Number) rollup.get("count")).longValue();
+            }
+            assertThat(count, equalTo((long) numDocs));
+        });
+        for (Map<String, Object> rollup : sources("rollups")) {
+            long start = ((Number) rollup.get("start")).longValue();
+            assertThat(((Number) rollup.get("end")).longValue(), equalTo(start + HOUR));
+            assertThat(BigInteger.valueOf(((Number) rollup.get("profit")).longValue()), equalTo(expected.get(start)));
+        }
+
+        Map<String, Integer> signs = new HashMap<>();
+        signs.put("sale", 1);
+        signs.put("cost", -1);
+        signs.put("transfer", 0);
+        StockRollupSearch search = new StockRollupSearch(client(), "transactions", "rollups", TimeValue.timeValueHours(1),
+            TimeValue.timeValueMinutes(1), "date", "value", "kind", signs);
+        // all buckets closed, all open, and a mix of both
+        assertThat(search.profits(0, hours * HOUR, hours * HOUR + HOUR), equalTo(expected));
+        assertThat(search.profits(0, hours * HOUR, 0), equalTo(expected));
+        long now = randomIntBetween(1, hours - 1) * HOUR + HOUR / 2;
+        assertThat(search.profits(0, hours * HOUR, now), equalTo(expected));
+        assertThat(search.profits(HOUR, 2 * HOUR, now), equalTo(expected.subMap(HOUR, 2 * HOUR)));
+    }
+
+    public void testProfitOverflow() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("stock")
+            .startObject("properties")
+            .startObject("type").field("type", "keyword").endObject()
+            .startObject("amount").field("type", "long").endObject()
+            // numbers below 10000 would be parsed as years first
+            .startObject("date").field("type", "date").field("format", "epoch_millis||strict_date_optional_time").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("transactions").addMapping("stock", mapping, XContentType.JSON).get());
+        putPipeline("{\"rollup_index\": \"rollups\", \"interval\": \"1h\"}");
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        int numDocs = randomIntBetween(2, 10);
+        BigInteger expected = BigInteger.ZERO;
+        for (int i = 0; i < numDocs; i++) {
+            // the first two sales overflow
+            String type = i < 2 ? "sale" : randomFrom("sale", "cost");
+            long amount = i < 2 ? Long.MAX_VALUE : randomFrom(Long.MAX_VALUE, Long.MIN_VALUE, randomLong());
+            expected = type.equals("sale") ? expected.add(BigInteger.valueOf(amount)) : expected.subtract(BigInteger.valueOf(amount));
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i)).setPipeline("rollup")
+                .setSource("type", type, "amount", amount, "date", randomInt((int) HOUR - 1)));
+        }
+        indexRandom(true, indexBuilders);
+        assertBusy(() -> {
+            // created by the first flush
+            assertTrue(indexExists("rollups"));
+            refresh("rollups");
+            List<Map<String, Object>> rollups = sources("rollups");
+            assertThat(rollups.size(), equalTo(1));
+            assertThat(((Number) rollups.get(0).get("count")).longValue(), equalTo((long) numDocs));
+        });
+
+        StockRollupSearch search = new StockRollupSearch(client(), "transactions", "rollups", TimeValue.timeValueHours(1),
+            TimeValue.timeValueMinutes(1), "date", "amount", "type", Collections.singletonMap("sale", 1));
+        // the rollup counts the wrap arounds and the reduce script returns the profit as a string once it overflows
+        assertThat(search.profits(0, HOUR, 2 * HOUR), equalTo(Collections.singletonMap(0L, expected)));
+        assertThat(search.profits(0, HOUR, 0), equalTo(Collections.singletonMap(0L, expected)));
+    }
+
+    private List<Map<String, Object>> sources(String index) {
+        List<Map<String, Object>> sources = new ArrayList<>();
+        client().prepareSearch(index).setSize(100).get().getHits().forEach(hit -> sources.add(hit.getSourceAsMap()));
+        return sources;
+    }
+
+    public void testIntervalsShareIndex() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("stock")
+            .startObject("properties")
+            .startObject("type").field("type", "keyword").endObject()
+            .startObject("amount").field("type", "long").endObject()
+            .startObject("date").field("type", "date").field("format", "epoch_millis||strict_date_optional_time").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("transactions").addMapping("stock", mapping, XContentType.JSON).get());
+        // the first hourly and daily buckets start at the same time
+        String pipeline = "{\"processors\": [{\"stock_rollup\": {\"rollup_index\": \"rollups\", \"interval\": \"1h\"}}, "
+            + "{\"stock_rollup\": {\"rollup_index\": \"rollups\", \"interval\": \"1d\"}}]}";
+        assertAcked(client().admin().cluster().preparePutPipeline("rollup", new BytesArray(pipeline), XContentType.JSON).get());
+
+        int hours = randomIntBetween(1, 5);
+        SortedMap<Long, BigInteger> hourly = new TreeMap<>();
+        BigInteger daily = BigInteger.ZERO;
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        int numDocs = randomIntBetween(10, 50);
+        for (int i = 0; i < numDocs; i++) {
+            long date = randomInt(hours - 1) * HOUR + randomInt((int) HOUR - 1);
+            String type = randomFrom("sale", "cost");
+            long amount = randomIntBetween(0, 1000);
+            BigInteger profit = BigInteger.valueOf(type.equals("sale") ? amount : -amount);
+            hourly.merge(date / HOUR * HOUR, profit, BigInteger::add);
+            daily = daily.add(profit);
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i)).setPipeline("rollup")
+                .setSource("type", type, "amount", amount, "date", date));
+        }
+        indexRandom(true, indexBuilders);
+        assertBusy(() -> {
+            assertTrue(indexExists("rollups"));
+            refresh("rollups");
+            long count = 0;
+            for (Map<String, Object> rollup : sources("rollups")) {
+                count += ((Number) rollup.get("count")).longValue();
+            }
+            // every transaction is counted in its hourly and its daily bucket
+            assertThat(count, equalTo(2L * numDocs));
+        });
+
+        long day = 24 * HOUR;
+        StockRollupSearch hourlySearch = new StockRollupSearch(client(), "transactions", "rollups", TimeValue.timeValueHours(1),
+            TimeValue.timeValueMinutes(1), "date", "amount", "type", Collections.singletonMap("sale", 1));
+        assertThat(hourlySearch.profits(0, hours * HOUR, 2 * day), equalTo(hourly));
+        StockRollupSearch dailySearch = new StockRollupSearch(client(), "transactions", "rollups", TimeValue.timeValueHours(24),
+            TimeValue.timeValueMinutes(1), "date", "amount", "type", Collections.singletonMap("sale", 1));
+        assertThat(dailySearch.profits(0, day, 2 * day), equalTo(Collections.singletonMap(0L, daily)));
+    }
+
+    public void testRollupUpdateIsIdempotent() {
+        Map<String, Object> params = new HashMap<>();
+        params.put(RollupScriptFactory.PROFIT_FIELD, 5L);
+        params.put(RollupScriptFactory.PROFIT_WRAPS_FIELD, 0L);
+        params.put(RollupScriptFactory.COUNT_FIELD, 2L);
+        params.put(RollupScriptFactory.WRITER_PARAM, "node");
+        params.put(RollupScriptFactory.SEQ_PARAM, 3L);
+        Map<String, Object> source = new HashMap<>();
+        source.put(RollupScriptFactory.PROFIT_FIELD, 10L);
+        source.put(RollupScriptFactory.COUNT_FIELD, 1L);
+        source.put(RollupScriptFactory.FLUSHES_FIELD, new ArrayList<>(Arrays.asList("other:7", "node:2")));
+        Map<String, Object> ctx = new HashMap<>();
+        ctx.put("_source", source);
+        ExecutableScript script = new RollupScriptFactory().newScript(params);
+        script.setNextVar("ctx", ctx);
+        script.run();
+        assertThat(source.get(RollupScriptFactory.PROFIT_FIELD), equalTo(15L));
+        assertThat(source.get(RollupScriptFactory.COUNT_FIELD), equalTo(3L));
+        assertThat(source.get(RollupScriptFactory.FLUSHES_FIELD), equalTo(Arrays.asList("other:7", "node:3")));
+        assertThat(ctx.get("op"), nullValue());
+
+        // the same update sent again after a timeout is not applied twice
+        script.run();
+        assertThat(source.get(RollupScriptFactory.PROFIT_FIELD), equalTo(15L));
+        assertThat(source.get(RollupScriptFactory.COUNT_FIELD), equalTo(3L));
+        assertThat(ctx.get("op"), equalTo("none"));
+    }
+
+    public void testInvalidConfig() {
+        Exception e = expectThrows(Exception.class,
+            () -> putPipeline("{\"rollup_index\": \"rollups\", \"interval\": \"0s\"}"));
+        assertThat(e.getMessage(), containsString("must be positive"));
+        e = expectThrows(Exception.class,
+            () -> putPipeline("{\"rollup_index\": \"rollups\", \"signs\": {\"sale\": 2}}"));
+        assertThat(e.getMessage(), containsString("must be 1, 0 or -1"));
+    }
+
+    public void testNonIntegralAmount() {
+        putPipeline("{\"rollup_index\": \"rollups\"}");
+        Exception e = expectThrows(Exception.class, () -> client().prepareIndex("transactions", "stock", "1").setPipeline("rollup")
+            .setSource("type", "sale", "amount", 1.5, "date", 0).get());
+        assertThat(e.getMessage(), containsString("must be an integral amount"));
+    }
+}
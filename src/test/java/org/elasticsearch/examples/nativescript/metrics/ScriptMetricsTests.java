@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.metrics;
+
+import org.elasticsearch.action.explain.ExplainResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.examples.nativescript.plugin.NativeScriptExamplesPlugin;
+import org.elasticsearch.examples.nativescript.script.AbstractSearchScriptTestCase;
+import org.elasticsearch.examples.nativescript.script.CosineSimilarityScoreScript;
+import org.elasticsearch.examples.nativescript.script.LeafScriptEngineService;
+import org.elasticsearch.index.shard.SearchOperationListener;
+import org.elasticsearch.plugins.PluginsService;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.scriptFunction;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ */
+public class ScriptMetricsTests extends AbstractSearchScriptTestCase {
+
+    public void testDocumentsAndErrorsAreCounted() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("text").field("type", "text").endObject()
+            .startObject("norm").field("type", "double").endObject()
+            .startObject("name").field("type", "keyword").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            indexBuilders.add(client().prepareIndex("test", "type", Integer.toString(i))
+                .setSource("text", "rec " + i, "norm", Math.sqrt(2), "name", "rec " + i));
+        }
+        indexRandom(true, indexBuilders);
+
+        // the index has a single shard on the only data node
+        ScriptMetrics metrics = internalCluster().getDataNodeInstance(PluginsService.class)
+            .filterPlugins(NativeScriptExamplesPlugin.class).get(0).getMetrics();
+        long documents = metrics.documents(CosineSimilarityScoreScript.SCRIPT_NAME);
+        long errors = metrics.errors(CosineSimilarityScoreScript.SCRIPT_NAME);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "text");
+        params.put("norm_field", "norm");
+        params.put("terms", Arrays.asList("rec", "1"));
+        params.put("weights", Arrays.asList(1.0, 1.0));
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(functionScoreQuery(matchAllQuery(),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME,
+                    CosineSimilarityScoreScript.SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .execute().actionGet();
+        assertNoFailures(searchResponse);
+
+        assertThat(metrics.documents(CosineSimilarityScoreScript.SCRIPT_NAME) - documents, equalTo(10L));
+        assertThat(metrics.errors(CosineSimilarityScoreScript.SCRIPT_NAME) - errors, equalTo(0L));
+
+        // the norm field isn't numeric, every document fails
+        params.put("norm_field", "name");
+        try {
+            client().prepareSearch("test")
+                .setQuery(functionScoreQuery(matchAllQuery(),
+                    scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME,
+                        CosineSimilarityScoreScript.SCRIPT_NAME, params)))
+                    .boostMode(CombineFunction.REPLACE))
+                .execute().actionGet();
+        } catch (Exception ex) {
+            // expected
+        }
+        assertThat(metrics.errors(CosineSimilarityScoreScript.SCRIPT_NAME) - errors, equalTo(1L));
+
+        String stats = XContentFactory.jsonBuilder().startObject().value(metrics).endObject().string();
+        assertThat(stats, containsString("\"" + CosineSimilarityScoreScript.SCRIPT_NAME + "\""));
+
+        // explain runs the script outside of the query and fetch phases
+        documents = metrics.documents(CosineSimilarityScoreScript.SCRIPT_NAME);
+        params.put("norm_field", "norm");
+        ExplainResponse explainResponse = client().prepareExplain("test", "type", "1")
+            .setQuery(functionScoreQuery(matchAllQuery(),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME,
+                    CosineSimilarityScoreScript.SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .get();
+        assertTrue(explainResponse.isMatch());
+        assertThat(metrics.documents(CosineSimilarityScoreScript.SCRIPT_NAME) - documents, equalTo(1L));
+    }
+
+    public void testRecordersOutsideOfSearchPhases() throws Exception {
+        ScriptMetrics metrics = new ScriptMetrics();
+        SearchOperationListener listener = metrics.searchOperationListener();
+
+        // no search phase runs on this thread, the documents are counted right away and nothing is kept for a phase
+        ScriptMetrics.ScriptRecorder recorder = metrics.recorder("script");
+        recorder.onNextReader();
+        recorder.onDocument();
+        recorder.onDocument();
+        assertThat(metrics.documents("script"), equalTo(2L));
+        listener.onQueryPhase(null, TimeUnit.MILLISECONDS.toNanos(5));
+        assertThat(XContentFactory.jsonBuilder().startObject().value(metrics).endObject().string(),
+            containsString("\"phase_took\":{\"count\":0}"));
+
+        // in a phase the documents are published and the phase is timed when it completes
+        listener.onPreQueryPhase(null);
+        recorder = metrics.recorder("script");
+        recorder.onNextReader();
+        recorder.onDocument();
+        assertThat(metrics.documents("script"), equalTo(2L));
+        listener.onQueryPhase(null, TimeUnit.MILLISECONDS.toNanos(5));
+        assertThat(metrics.documents("script"), equalTo(3L));
+        assertThat(XContentFactory.jsonBuilder().startObject().value(metrics).endObject().string(),
+            containsString("\"phase_took\":{\"count\":1"));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.query;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.examples.nativescript.script.AbstractSearchScriptTestCase;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.cache.query.QueryCacheStats;
+import org.elasticsearch.indices.IndicesQueryCache;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.elasticsearch.index.query.QueryBuilders.constantScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.scriptQuery;
+import static org.elasticsearch.index.query.QueryBuilders.wrapperQuery;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertSearchHits;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ */
+public class IsPrimeQueryBuilderTests extends AbstractSearchScriptTestCase {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        // the test segments are too small to be cached otherwise
+        return Settings.builder().put(super.nodeSettings(nodeOrdinal))
+            .put(IndicesQueryCache.INDICES_QUERIES_CACHE_ALL_SEGMENTS_SETTING.getKey(), true).build();
+    }
+
+    private void createIndex() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("number").field("type", "long").endObject()
+            .startObject("price").field("type", "double").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("test")
+            .setSettings(Settings.builder().put(IndexModule.INDEX_QUERY_CACHE_EVERYTHING_SETTING.getKey(), true))
+            .addMapping("type", mapping, XContentType.JSON));
+    }
+
+    public void testMatchesScript() throws Exception {
+        createIndex();
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        long primes = 0;
+        int numDocs = randomIntBetween(100, 300);
+        for (int i = 0; i < numDocs; i++) {
+            long number = randomBoolean() ? randomIntBetween(-1000, 1000) : randomLong();
+            if (BigInteger.valueOf(number).isProbablePrime(100)) {
+                primes++;
+            }
+            indexBuilders.add(client().prepareIndex("test", "type", Integer.toString(i)).setSource("number", number));
+        }
+        indexBuilders.add(client().prepareIndex("test", "type", "missing").setSource("price", 7.0));
+        indexRandom(true, indexBuilders);
+
+        SearchResponse expected = client().prepareSearch("test")
+            .setQuery(scriptQuery(new Script(ScriptType.INLINE, "native", "is_prime", Collections.singletonMap("field", "number"))))
+            .get();
+        assertNoFailures(expected);
+        assertHitCount(expected, primes);
+
+        for (int run = 0; run < 3; run++) {
+            SearchResponse searchResponse = client().prepareSearch("test")
+                .setQuery(constantScoreQuery(new IsPrimeQueryBuilder("number")))
+                .get();
+            assertNoFailures(searchResponse);
+            assertHitCount(searchResponse, primes);
+        }
+        // the matching documents of every segment are computed once and then served from the query cache
+        QueryCacheStats stats = client().admin().indices().prepareStats("test").setQueryCache(true).get().getTotal().getQueryCache();
+        assertThat(stats.getCacheCount(), greaterThan(0L));
+        assertThat(stats.getHitCount(), greaterThan(0L));
+    }
+
+    public void testMultiValued() throws Exception {
+        createIndex();
+        indexRandom(true,
+            client().prepareIndex("test", "type", "1").setSource("number", Arrays.asList(4, 6, 7)),
+            client().prepareIndex("test", "type", "2").setSource("number", Arrays.asList(4, 6, 8)),
+            client().prepareIndex("test", "type", "3").setSource("number", -13),
+            client().prepareIndex("test", "type", "4").setSource("number", 9223372036854775783L));
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(wrapperQuery("{\"is_prime\": {\"field\": \"number\"}}"))
+            .get();
+
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "3", "4");
+    }
+
+    public void testUnmappedAndFloatingPointFields() throws Exception {
+        createIndex();
+        indexRandom(true, client().prepareIndex("test", "type", "1").setSource("number", 7, "price", 7.0));
+
+        SearchResponse searchResponse = client().prepareSearch("test").setQuery(new IsPrimeQueryBuilder("unmapped")).get();
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 0);
+
+        expectThrows(SearchPhaseExecutionException.class, () -> client().prepareSearch("test")
+            .setQuery(new IsPrimeQueryBuilder("price")).get());
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.query;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.examples.nativescript.script.AbstractSearchScriptTestCase;
+import org.elasticsearch.examples.nativescript.script.DenseVectorScoreScript;
+import org.elasticsearch.examples.nativescript.script.LeafScriptEngineService;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.wrapperQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.scriptFunction;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertSearchHits;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.isOneOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+
+/**
+ */
+public class LshQueryBuilderTests extends AbstractSearchScriptTestCase {
+
+    private static final int DIMS = 16;
+
+    private void createIndex() throws Exception {
+        String pipeline = XContentFactory.jsonBuilder().startObject()
+            .startArray("processors")
+            .startObject().startObject("lsh")
+            .field("field", "embedding")
+            .field("tables", 4)
+            .field("bits", 8)
+            .field("ignore_missing", true)
+            .endObject().endObject()
+            .startObject().startObject("dense_vector")
+            .field("field", "embedding")
+            .field("ignore_missing", true)
+            .endObject().endObject()
+            .startObject().startObject("lsh")
+            .field("field", "tags")
+            .field("ignore_missing", true)
+            .endObject().endObject()
+            .endArray()
+            .endObject().string();
+        assertAcked(client().admin().cluster().preparePutPipeline("lsh", new BytesArray(pipeline), XContentType.JSON).get());
+
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("embedding").field("type", "float").field("index", false).endObject()
+            .startObject("embedding_lsh").field("type", "keyword").endObject()
+            .startObject("embedding_vector").field("type", "binary").field("doc_values", true).endObject()
+            .startObject("tags").field("type", "keyword").endObject()
+            .startObject("tags_lsh").field("type", "keyword").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+    }
+
+    public void testDenseVectorCandidates() throws Exception {
+        createIndex();
+        float[] query = randomVector();
+        float[] near = new float[DIMS];
+        float[] opposite = new float[DIMS];
+        for (int i = 0; i < DIMS; i++) {
+            near[i] = query[i] + (float) random().nextGaussian() * 0.001f;
+            opposite[i] = -query[i];
+        }
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        indexBuilders.add(client().prepareIndex("test", "type", "near").setPipeline("lsh").setSource("embedding", near));
+        indexBuilders.add(client().prepareIndex("test", "type", "opposite").setPipeline("lsh").setSource("embedding", opposite));
+        indexBuilders.add(client().prepareIndex("test", "type", "missing").setPipeline("lsh").setSource("other", "no vector"));
+        int numDocs = 200;
+        for (int i = 0; i < numDocs; i++) {
+            indexBuilders.add(client().prepareIndex("test", "type", Integer.toString(i)).setPipeline("lsh")
+                .setSource("embedding", randomVector()));
+        }
+        indexRandom(true, indexBuilders);
+
+        List<Double> vector = new ArrayList<>();
+        for (float value : query) {
+            vector.add((double) value);
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "embedding_vector");
+        params.put("vector", vector);
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(functionScoreQuery(new LshQueryBuilder("embedding_lsh", query).tables(4).bits(8),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME,
+                    DenseVectorScoreScript.COSINE_SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .get();
+
+        assertNoFailures(searchResponse);
+        // a random vector shares one of 4 buckets of 8 bits with a probability of about 1.6%
+        assertThat(searchResponse.getHits().getTotalHits(), lessThan((long) numDocs / 4));
+        assertThat(searchResponse.getHits().getAt(0).getId(), equalTo("near"));
+        assertThat((double) searchResponse.getHits().getAt(0).getScore(), closeTo(1.0, 1e-3));
+        for (SearchHit hit : searchResponse.getHits()) {
+            assertThat(hit.getId(), not(isOneOf("opposite", "missing")));
+        }
+    }
+
+    public void testTermVectorCandidates() throws Exception {
+        createIndex();
+        indexRandom(true,
+            client().prepareIndex("test", "type", "1").setPipeline("lsh").setSource("tags", Arrays.asList("red", "green", "blue")),
+            client().prepareIndex("test", "type", "2").setPipeline("lsh").setSource("tags", Arrays.asList("black", "white")),
+            client().prepareIndex("test", "type", "3").setPipeline("lsh").setSource("tags", Arrays.asList("blue", "red", "green")));
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(wrapperQuery("{\"lsh\": {\"field\": \"tags_lsh\", \"terms\": [\"green\", \"blue\", \"red\"], \"weights\": [2, 2, 2]}}"))
+            .get();
+
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "3");
+    }
+
+    public void testZeroVector() throws Exception {
+        createIndex();
+        indexRandom(true, client().prepareIndex("test", "type", "1").setPipeline("lsh").setSource("embedding", randomVector()));
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(new LshQueryBuilder("embedding_lsh", new float[DIMS]).tables(4).bits(8))
+            .get();
+
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 0);
+    }
+
+    private static float[] randomVector() {
+        float[] vector = new float[DIMS];
+        for (int i = 0; i < DIMS; i++) {
+            vector[i] = (float) random().nextGaussian();
+        }
+        return vector;
+    }
+}
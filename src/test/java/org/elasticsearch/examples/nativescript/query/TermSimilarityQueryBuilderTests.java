@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.query;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.examples.nativescript.script.AbstractSearchScriptTestCase;
+import org.elasticsearch.examples.nativescript.script.CosineSimilarityScoreScript;
+import org.elasticsearch.examples.nativescript.script.LeafScriptEngineService;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHits;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.idsQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
+import static org.elasticsearch.index.query.QueryBuilders.wrapperQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.scriptFunction;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ */
+public class TermSimilarityQueryBuilderTests extends AbstractSearchScriptTestCase {
+
+    private static final int VOCABULARY = 200;
+
+    private void indexDocuments() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("text").field("type", "text").field("analyzer", "whitespace").endObject()
+            .startObject("text_norm").field("type", "double").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        int numDocs = randomIntBetween(300, 600);
+        for (int i = 0; i < numDocs; i++) {
+            Map<String, Integer> counts = new HashMap<>();
+            StringBuilder text = new StringBuilder();
+            int length = randomIntBetween(1, 30);
+            for (int j = 0; j < length; j++) {
+                String word = randomWord();
+                counts.merge(word, 1, Integer::sum);
+                text.append(word).append(' ');
+            }
+            double squares = 0;
+            for (int count : counts.values()) {
+                squares += count * count;
+            }
+            indexBuilders.add(client().prepareIndex("test", "type", Integer.toString(i))
+                .setSource("text", text.toString(), "text_norm", Math.sqrt(squares)));
+        }
+        indexRandom(true, indexBuilders);
+    }
+
+    // frequent words have small numbers
+    private static String randomWord() {
+        double value = random().nextDouble();
+        return "w" + (int) (VOCABULARY * value * value);
+    }
+
+    public void testCosineMatchesScript() throws Exception {
+        indexDocuments();
+        for (int run = 0; run < 5; run++) {
+            String[] terms = new String[randomIntBetween(1, 10)];
+            double[] weights = new double[terms.length];
+            List<Double> weightList = new ArrayList<>();
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = randomWord();
+                weights[i] = randomIntBetween(1, 4);
+                weightList.add(weights[i]);
+            }
+            Map<String, Object> params = new HashMap<>();
+            params.put("field", "text");
+            params.put("terms", Arrays.asList(terms));
+            params.put("weights", weightList);
+            params.put("norm_field", "text_norm");
+            SearchResponse expected = search(functionScoreQuery(termsQuery("text", terms),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME,
+                    CosineSimilarityScoreScript.SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE));
+
+            // by default every matching document is scored, like by the script
+            TermSimilarityQueryBuilder query = new TermSimilarityQueryBuilder("text", terms, weights).normField("text_norm");
+            SearchResponse all = search(query);
+            assertSameTopHits(all, expected);
+            assertThat(all.getHits().getTotalHits(), equalTo(expected.getHits().getTotalHits()));
+            assertSameTopHits(search(query.k(10)), expected);
+        }
+    }
+
+    public void testTfIdfSkipping() throws Exception {
+        indexDocuments();
+        for (int run = 0; run < 5; run++) {
+            String[] terms = new String[randomIntBetween(1, 10)];
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = randomWord();
+            }
+            StringBuilder json = new StringBuilder("{\"term_similarity\": {\"field\": \"text\", \"similarity\": \"tfidf\", \"terms\": [");
+            for (int i = 0; i < terms.length; i++) {
+                json.append(i == 0 ? "" : ", ").append('"').append(terms[i]).append('"');
+            }
+            json.append("]");
+            // every matching document is scored unless k is set
+            SearchResponse expected = search(wrapperQuery(json + "}}"));
+            assertThat(expected.getHits().getTotalHits(), equalTo(search(termsQuery("text", terms)).getHits().getTotalHits()));
+            assertSameTopHits(search(wrapperQuery(json + ", \"k\": 10}}")), expected);
+        }
+    }
+
+    public void testSkippingIgnoresDeletedAndFilteredDocuments() throws Exception {
+        indexDocuments();
+        String[] terms = new String[randomIntBetween(1, 5)];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = randomWord();
+        }
+        TermSimilarityQueryBuilder query = new TermSimilarityQueryBuilder("text", terms, null)
+            .similarity(TermSimilarityQueryBuilder.Similarity.TFIDF);
+        SearchHits top = client().prepareSearch("test").setQuery(query.k(0)).setSize(20).get().getHits();
+        // the best documents are deleted or filtered out, they must not raise the threshold
+        List<String> filtered = new ArrayList<>();
+        for (int i = 0; i < top.getHits().length; i++) {
+            if (i % 2 == 0) {
+                client().prepareDelete("test", "type", top.getAt(i).getId()).get();
+            } else {
+                filtered.add(top.getAt(i).getId());
+            }
+        }
+        refresh();
+        SearchResponse expected = client().prepareSearch("test").setQuery(query.k(0)).setSize(10)
+            .setPostFilter(boolQuery().mustNot(idsQuery().addIds(filtered.toArray(new String[filtered.size()])))).get();
+        assertNoFailures(expected);
+        SearchResponse actual = client().prepareSearch("test").setQuery(query.k(10)).setSize(10)
+            .setPostFilter(boolQuery().mustNot(idsQuery().addIds(filtered.toArray(new String[filtered.size()])))).get();
+        assertNoFailures(actual);
+        assertSameTopHits(actual, expected);
+    }
+
+    private SearchResponse search(QueryBuilder query) {
+        SearchResponse searchResponse = client().prepareSearch("test").setQuery(query).setSize(10).get();
+        assertNoFailures(searchResponse);
+        return searchResponse;
+    }
+
+    private static void assertSameTopHits(SearchResponse actual, SearchResponse expected) {
+        assertThat(actual.getHits().getTotalHits(), lessThanOrEqualTo(expected.getHits().getTotalHits()));
+        assertThat(actual.getHits().getHits().length, equalTo(expected.getHits().getHits().length));
+        for (int i = 0; i < expected.getHits().getHits().length; i++) {
+            // documents with the same score may be returned in any order
+            assertThat((double) actual.getHits().getAt(i).getScore(), closeTo(expected.getHits().getAt(i).getScore(), 1e-4));
+        }
+    }
+}
@@ -43,4 +43,10 @@ public abstract class AbstractSearchScriptTestCase extends ESIntegTestCase {
     protected Collection<Class<? extends Plugin>> nodePlugins() {
         return Collections.singletonList(NativeScriptExamplesPlugin.class);
     }
+
+    @Override
+    protected Collection<Class<? extends Plugin>> transportClientPlugins() {
+        // the transport client needs the plugin to serialize its queries
+        return nodePlugins();
+    }
 }
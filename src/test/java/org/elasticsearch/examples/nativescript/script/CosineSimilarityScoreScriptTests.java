@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.scriptFunction;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ */
+public class CosineSimilarityScoreScriptTests extends AbstractSearchScriptTestCase {
+
+    public void testCosineSimilarity() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("text").field("type", "text").field("term_vector", "yes").endObject()
+            .endObject().endObject().endObject()
+            .string();
+
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        indexBuilders.add(client().prepareIndex("test", "type", "1").setSource("text", "sam i am"));
+        indexBuilders.add(client().prepareIndex("test", "type", "2").setSource("text", "sam sam green eggs"));
+        indexBuilders.add(client().prepareIndex("test", "type", "3").setSource("text", "i do not like them"));
+        indexRandom(true, indexBuilders);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "text");
+        params.put("terms", Arrays.asList("sam", "i", "am"));
+        params.put("weights", Arrays.asList(1.0, 1.0, 1.0));
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(functionScoreQuery(matchQuery("text", "sam i am"),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME,
+                    CosineSimilarityScoreScript.SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .execute().actionGet();
+
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 3);
+
+        // identical vectors first, then "sam sam green eggs": 2 / (sqrt(6) * sqrt(3)), then "i do not like them": 1 / (sqrt(5) * sqrt(3))
+        assertThat(searchResponse.getHits().getAt(0).getId(), equalTo("1"));
+        assertThat((double) searchResponse.getHits().getAt(0).getScore(), closeTo(1.0, 1e-6));
+        assertThat(searchResponse.getHits().getAt(1).getId(), equalTo("2"));
+        assertThat((double) searchResponse.getHits().getAt(1).getScore(), closeTo(2.0 / (Math.sqrt(6) * Math.sqrt(3)), 1e-6));
+        assertThat(searchResponse.getHits().getAt(2).getId(), equalTo("3"));
+        assertThat((double) searchResponse.getHits().getAt(2).getScore(), closeTo(1.0 / (Math.sqrt(5) * Math.sqrt(3)), 1e-6));
+    }
+
+    public void testCosineSimilarityWithNormField() throws Exception {
+        // no term vectors, the document norm is computed when the document is indexed
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("text").field("type", "text").endObject()
+            .startObject("text_norm").field("type", "double").endObject()
+            .endObject().endObject().endObject()
+            .string();
+
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        indexBuilders.add(client().prepareIndex("test", "type", "1").setSource("text", "sam i am", "text_norm", Math.sqrt(3)));
+        indexBuilders.add(client().prepareIndex("test", "type", "2").setSource("text", "sam sam green eggs", "text_norm", Math.sqrt(6)));
+        indexBuilders.add(client().prepareIndex("test", "type", "3").setSource("text", "i do not like them", "text_norm", Math.sqrt(5)));
+        indexRandom(true, indexBuilders);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "text");
+        params.put("norm_field", "text_norm");
+        params.put("terms", Arrays.asList("sam", "i", "am"));
+        params.put("weights", Arrays.asList(1.0, 1.0, 1.0));
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(functionScoreQuery(matchQuery("text", "sam i am"),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME,
+                    CosineSimilarityScoreScript.SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .execute().actionGet();
+
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 3);
+
+        assertThat(searchResponse.getHits().getAt(0).getId(), equalTo("1"));
+        assertThat((double) searchResponse.getHits().getAt(0).getScore(), closeTo(1.0, 1e-6));
+        assertThat(searchResponse.getHits().getAt(1).getId(), equalTo("2"));
+        assertThat((double) searchResponse.getHits().getAt(1).getScore(), closeTo(2.0 / (Math.sqrt(6) * Math.sqrt(3)), 1e-6));
+        assertThat(searchResponse.getHits().getAt(2).getId(), equalTo("3"));
+        assertThat((double) searchResponse.getHits().getAt(2).getScore(), closeTo(1.0 / (Math.sqrt(5) * Math.sqrt(3)), 1e-6));
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.scriptFunction;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ */
+public class DenseVectorScoreScriptTests extends AbstractSearchScriptTestCase {
+
+    private void indexVectors() throws Exception {
+        String pipeline = XContentFactory.jsonBuilder().startObject()
+            .startArray("processors").startObject().startObject("dense_vector")
+            .field("field", "embedding")
+            .field("target_field", "embedding_vector")
+            .field("dims", 3)
+            .field("ignore_missing", true)
+            .endObject().endObject().endArray()
+            .endObject().string();
+        assertAcked(client().admin().cluster().preparePutPipeline("vectors", new BytesArray(pipeline), XContentType.JSON).get());
+
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("embedding").field("type", "float").field("index", false).endObject()
+            .startObject("embedding_vector").field("type", "binary").field("doc_values", true).endObject()
+            .endObject().endObject().endObject()
+            .string();
+
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        indexBuilders.add(client().prepareIndex("test", "type", "1").setPipeline("vectors").setSource("embedding", new float[]{1, 2, 3}));
+        indexBuilders.add(client().prepareIndex("test", "type", "2").setPipeline("vectors").setSource("embedding", new float[]{2, 0, 0}));
+        indexBuilders.add(client().prepareIndex("test", "type", "3").setPipeline("vectors").setSource("embedding", new float[]{0, 0, 0}));
+        indexBuilders.add(client().prepareIndex("test", "type", "4").setPipeline("vectors").setSource("other", "no vector"));
+        indexRandom(true, indexBuilders);
+    }
+
+    public void testDotProduct() throws Exception {
+        indexVectors();
+        SearchResponse searchResponse = search(DenseVectorScoreScript.DOT_PRODUCT_SCRIPT_NAME, Arrays.asList(0.5, 1.0, 1.0));
+
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 4);
+
+        assertThat(searchResponse.getHits().getAt(0).getId(), equalTo("1"));
+        assertThat((double) searchResponse.getHits().getAt(0).getScore(), closeTo(5.5, 1e-6));
+        assertThat(searchResponse.getHits().getAt(1).getId(), equalTo("2"));
+        assertThat((double) searchResponse.getHits().getAt(1).getScore(), closeTo(1.0, 1e-6));
+        assertThat((double) searchResponse.getHits().getAt(2).getScore(), equalTo(0.0));
+        assertThat((double) searchResponse.getHits().getAt(3).getScore(), equalTo(0.0));
+    }
+
+    public void testCosine() throws Exception {
+        indexVectors();
+        SearchResponse searchResponse = search(DenseVectorScoreScript.COSINE_SCRIPT_NAME, Arrays.asList(1, 0, 0));
+
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 4);
+
+        // the same direction, then 1 / |(1, 2, 3)|, zero and missing vectors score 0
+        assertThat(searchResponse.getHits().getAt(0).getId(), equalTo("2"));
+        assertThat((double) searchResponse.getHits().getAt(0).getScore(), closeTo(1.0, 1e-6));
+        assertThat(searchResponse.getHits().getAt(1).getId(), equalTo("1"));
+        assertThat((double) searchResponse.getHits().getAt(1).getScore(), closeTo(1.0 / Math.sqrt(14), 1e-6));
+        assertThat((double) searchResponse.getHits().getAt(2).getScore(), equalTo(0.0));
+        assertThat((double) searchResponse.getHits().getAt(3).getScore(), equalTo(0.0));
+    }
+
+    public void testNativeLanguage() throws Exception {
+        indexVectors();
+        // the native engine doesn't pass the segment to the script
+        SearchPhaseExecutionException e = expectThrows(SearchPhaseExecutionException.class,
+            () -> search("native", DenseVectorScoreScript.COSINE_SCRIPT_NAME, Arrays.asList(1, 0, 0)));
+        assertThat(e.shardFailures()[0].reason(), containsString("must run with lang [native_leaf]"));
+    }
+
+    private SearchResponse search(String script, List<? extends Number> vector) {
+        return search(LeafScriptEngineService.NAME, script, vector);
+    }
+
+    private SearchResponse search(String lang, String script, List<? extends Number> vector) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "embedding_vector");
+        params.put("vector", vector);
+        return client().prepareSearch("test")
+            .setQuery(functionScoreQuery(matchAllQuery(),
+                scriptFunction(new Script(ScriptType.INLINE, lang, script, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .execute().actionGet();
+    }
+}
@@ -114,7 +114,7 @@ public class IsPrimeSearchScriptTests extends AbstractSearchScriptTestCase {
             params.put("field", fieldName);
         }
         params.put("certainty", 0);
-        // Check certainty parameter - with certainty == 0, it should return all numbers, but only if numbers are present
+        // The certainty parameter is ignored, the test is exact
         searchResponse = client().prepareSearch("test")
             .setQuery(scriptQuery(new Script(ScriptType.INLINE, "native", "is_prime", params)))
             .setFetchSource("name", null)
@@ -122,8 +122,7 @@ public class IsPrimeSearchScriptTests extends AbstractSearchScriptTestCase {
             .addSort(fieldName, SortOrder.ASC)
             .execute().actionGet();
         assertNoFailures(searchResponse);
-        // With certainty 0 no check is done so it should return all numbers
-        assertHitCount(searchResponse, 100);
+        assertHitCount(searchResponse, 25);
 
     }
 
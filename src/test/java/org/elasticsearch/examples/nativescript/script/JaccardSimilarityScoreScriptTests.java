@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.scriptFunction;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ */
+public class JaccardSimilarityScoreScriptTests extends AbstractSearchScriptTestCase {
+
+    public void testJaccardSimilarity() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("tags").field("type", "keyword").endObject()
+            .endObject().endObject().endObject()
+            .string();
+
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        indexBuilders.add(client().prepareIndex("test", "type", "1").setSource("tags", Arrays.asList("red", "green", "blue")));
+        indexBuilders.add(client().prepareIndex("test", "type", "2").setSource("tags", Arrays.asList("red", "yellow")));
+        indexBuilders.add(client().prepareIndex("test", "type", "3").setSource("tags", Arrays.asList("black")));
+        indexBuilders.add(client().prepareIndex("test", "type", "4").setSource("other", "no tags"));
+        indexRandom(true, indexBuilders);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "tags");
+        params.put("terms", Arrays.asList("red", "green"));
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(functionScoreQuery(matchAllQuery(),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME,
+                    JaccardSimilarityScoreScript.SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .execute().actionGet();
+
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 4);
+
+        // {red, green} against {red, green, blue}: 2 / 3, against {red, yellow}: 1 / 3, nothing in common with the others
+        assertThat(searchResponse.getHits().getAt(0).getId(), equalTo("1"));
+        assertThat((double) searchResponse.getHits().getAt(0).getScore(), closeTo(2.0 / 3.0, 1e-6));
+        assertThat(searchResponse.getHits().getAt(1).getId(), equalTo("2"));
+        assertThat((double) searchResponse.getHits().getAt(1).getScore(), closeTo(1.0 / 3.0, 1e-6));
+        assertThat((double) searchResponse.getHits().getAt(2).getScore(), closeTo(0.0, 1e-6));
+        assertThat((double) searchResponse.getHits().getAt(3).getScore(), closeTo(0.0, 1e-6));
+    }
+
+    public void testWeightedJaccardSimilarity() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("tags").field("type", "keyword").endObject()
+            .endObject().endObject().endObject()
+            .string();
+
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        indexBuilders.add(client().prepareIndex("test", "type", "1").setSource("tags", Arrays.asList("red", "green", "blue")));
+        indexBuilders.add(client().prepareIndex("test", "type", "2").setSource("tags", Arrays.asList("green", "yellow")));
+        indexRandom(true, indexBuilders);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "tags");
+        params.put("terms", Arrays.asList("red", "green", "purple"));
+        params.put("weights", Arrays.asList(3.0, 1.0, 1.0));
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(functionScoreQuery(matchAllQuery(),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME,
+                    JaccardSimilarityScoreScript.SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .execute().actionGet();
+
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 2);
+
+        // the union weighs the query weights plus 1.0 for every other document term
+        assertThat(searchResponse.getHits().getAt(0).getId(), equalTo("1"));
+        assertThat((double) searchResponse.getHits().getAt(0).getScore(), closeTo(4.0 / 6.0, 1e-6));
+        assertThat(searchResponse.getHits().getAt(1).getId(), equalTo("2"));
+        assertThat((double) searchResponse.getHits().getAt(1).getScore(), closeTo(1.0 / 6.0, 1e-6));
+    }
+
+}
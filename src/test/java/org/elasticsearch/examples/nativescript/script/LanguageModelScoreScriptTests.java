@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.apache.lucene.util.SmallFloat;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.scriptFunction;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.closeTo;
+
+/**
+ */
+public class LanguageModelScoreScriptTests extends AbstractSearchScriptTestCase {
+
+    private static final String[] WORDS = {"sam", "i", "am", "green", "eggs", "ham"};
+
+    private List<List<String>> docs;
+
+    private void indexDocs() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("text").field("type", "text").endObject()
+            .startObject("word_count").field("type", "long").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        int numDocs = randomIntBetween(10, 100);
+        docs = new ArrayList<>();
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        for (int i = 0; i < numDocs; i++) {
+            List<String> words = new ArrayList<>();
+            int numWords = randomIntBetween(1, 10);
+            for (int j = 0; j < numWords; j++) {
+                words.add(randomFrom(WORDS));
+            }
+            docs.add(words);
+            indexBuilders.add(client().prepareIndex("test", "type", Integer.toString(i))
+                .setSource("text", String.join(" ", words), "word_count", numWords));
+        }
+        indexRandom(true, indexBuilders);
+    }
+
+    private SearchResponse search(Map<String, Object> params) {
+        return client().prepareSearch("test")
+            .setSize(docs.size())
+            .setQuery(functionScoreQuery(matchAllQuery(),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, LanguageModelScoreScript.SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .get();
+    }
+
+    public void testSmoothing() throws Exception {
+        indexDocs();
+        // "sam" is listed twice, its log probability counts twice
+        List<String> terms = Arrays.asList("sam", "eggs", "sam", "unknown");
+        long sumttf = 0;
+        Map<String, Long> ttf = new HashMap<>();
+        for (List<String> words : docs) {
+            sumttf += words.size();
+            for (String word : words) {
+                ttf.merge(word, 1L, Long::sum);
+            }
+        }
+
+        boolean dirichlet = randomBoolean();
+        double lambda = randomFrom(0.0, 0.5, 0.9);
+        double mu = randomFrom(1.0, 10.0, 2000.0);
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "text");
+        params.put("terms", terms);
+        // the length is otherwise read from the norms of the field
+        boolean wordCount = randomBoolean();
+        if (wordCount) {
+            params.put("word_count_field", "word_count");
+        }
+        params.put(dirichlet ? "mu" : "lambda", dirichlet ? mu : lambda);
+        SearchResponse searchResponse = search(params);
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, docs.size());
+
+        for (SearchHit hit : searchResponse.getHits()) {
+            List<String> words = docs.get(Integer.parseInt(hit.getId()));
+            double expected = 0;
+            for (String term : terms) {
+                if (ttf.containsKey(term) == false) {
+                    continue;
+                }
+                double collection = (double) ttf.get(term) / sumttf;
+                double tf = Collections.frequency(words, term);
+                double length = wordCount ? words.size() : normLength(words.size());
+                expected += Math.log(dirichlet ? (tf + mu * collection) / (length + mu)
+                    : (1 - lambda) * collection + lambda * tf / length);
+            }
+            assertThat((double) hit.getScore(), closeTo(expected, 1e-4));
+        }
+    }
+
+    private static double normLength(int length) {
+        // the lossy encoding of the length by the default similarity
+        double norm = SmallFloat.byte315ToFloat(SmallFloat.floatToByte315((float) (1 / Math.sqrt(length))));
+        return 1 / (norm * norm);
+    }
+}
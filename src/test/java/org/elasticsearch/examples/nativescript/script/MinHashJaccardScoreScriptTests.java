@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.scriptFunction;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ */
+public class MinHashJaccardScoreScriptTests extends AbstractSearchScriptTestCase {
+
+    public void testMinHashJaccardSimilarity() throws Exception {
+        int numHashes = randomFrom(64, 128, 256);
+        String pipeline = XContentFactory.jsonBuilder().startObject()
+            .startArray("processors").startObject().startObject("minhash")
+            .field("field", "attributes")
+            .field("target_field", "attributes_minhash")
+            .field("num_hashes", numHashes)
+            .field("ignore_missing", true)
+            .endObject().endObject().endArray()
+            .endObject().string();
+        assertAcked(client().admin().cluster().preparePutPipeline("minhash", new BytesArray(pipeline), XContentType.JSON).get());
+
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("attributes").field("type", "keyword").endObject()
+            .startObject("attributes_minhash").field("type", "binary").field("doc_values", true).endObject()
+            .endObject().endObject().endObject()
+            .string();
+
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        // the query has the attributes 0 to 999, document i has the attributes 100 * i to 100 * i + 999
+        List<String> query = attributes(0, 1000);
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            indexBuilders.add(client().prepareIndex("test", "type", Integer.toString(i)).setPipeline("minhash")
+                .setSource("attributes", attributes(i * 100, i * 100 + 1000)));
+        }
+        indexBuilders.add(client().prepareIndex("test", "type", "none").setPipeline("minhash").setSource("other", "no attributes"));
+        indexRandom(true, indexBuilders);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "attributes_minhash");
+        params.put("terms", query);
+        params.put("num_hashes", numHashes);
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(functionScoreQuery(matchAllQuery(),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, MinHashJaccardScoreScript.SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .setSize(11)
+            .execute().actionGet();
+
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 11);
+
+        for (SearchHit hit : searchResponse.getHits()) {
+            if (hit.getId().equals("none")) {
+                assertThat((double) hit.getScore(), equalTo(0.0));
+                continue;
+            }
+            int overlap = 1000 - Integer.parseInt(hit.getId()) * 100;
+            double jaccard = (double) overlap / (2000 - overlap);
+            double standardError = Math.sqrt(jaccard * (1 - jaccard) / numHashes);
+            assertThat("document " + hit.getId(), (double) hit.getScore(), closeTo(jaccard, 5 * standardError + 1e-6));
+        }
+    }
+
+    private static List<String> attributes(int from, int to) {
+        List<String> attributes = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            attributes.add("attribute_" + i);
+        }
+        return attributes;
+    }
+}
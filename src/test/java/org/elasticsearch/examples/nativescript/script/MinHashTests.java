@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ */
+public class MinHashTests extends ESTestCase {
+
+    public void testIdenticalAndDisjointSets() {
+        int numHashes = randomIntBetween(16, 256);
+        List<String> set = Arrays.asList("red", "green", "blue");
+        int[] signature = MinHash.signature(set, numHashes);
+        assertThat(MinHash.similarity(signature, MinHash.encode(MinHash.signature(Arrays.asList("blue", "red", "green", "red"), numHashes)), 0),
+            equalTo(1.0));
+        assertThat(MinHash.similarity(signature, MinHash.encode(MinHash.signature(Arrays.asList("black", "white"), numHashes)), 0),
+            lessThan(0.05));
+    }
+
+    public void testEstimationError() {
+        for (int numHashes : new int[]{64, 128, 256}) {
+            double squaredErrors = 0;
+            int runs = 50;
+            for (int run = 0; run < runs; run++) {
+                // two sets of a few hundred terms with a random overlap
+                int common = randomIntBetween(0, 500);
+                int onlyA = randomIntBetween(1, 500);
+                int onlyB = randomIntBetween(1, 500);
+                List<String> a = new ArrayList<>();
+                List<String> b = new ArrayList<>();
+                for (int i = 0; i < common; i++) {
+                    a.add("common_" + run + "_" + i);
+                    b.add("common_" + run + "_" + i);
+                }
+                for (int i = 0; i < onlyA; i++) {
+                    a.add("a_" + run + "_" + i);
+                }
+                for (int i = 0; i < onlyB; i++) {
+                    b.add("b_" + run + "_" + i);
+                }
+                double jaccard = (double) common / (common + onlyA + onlyB);
+                double estimate = MinHash.similarity(MinHash.signature(a, numHashes), MinHash.encode(MinHash.signature(b, numHashes)), 0);
+                double standardError = Math.sqrt(jaccard * (1 - jaccard) / numHashes);
+                assertThat("jaccard " + jaccard + " with " + numHashes + " hashes", estimate, closeTo(jaccard, 5 * standardError + 1e-9));
+                squaredErrors += (estimate - jaccard) * (estimate - jaccard);
+            }
+            // the documented bound of the standard error
+            assertThat(Math.sqrt(squaredErrors / runs), lessThan(1.5 / (2 * Math.sqrt(numHashes))));
+        }
+    }
+
+    public void testInvalidNumberOfHashes() {
+        expectThrows(IllegalArgumentException.class, () -> MinHash.signature(Arrays.asList("a"), 0));
+        expectThrows(IllegalArgumentException.class, () -> MinHash.signature(Arrays.asList("a"), MinHash.MAX_NUM_HASHES + 1));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.math.BigInteger;
+
+/**
+ */
+public class PrimesTests extends ESTestCase {
+
+    public void testSmallValues() {
+        for (int i = -Primes.SIEVE_SIZE - 1000; i < Primes.SIEVE_SIZE + 1000; i++) {
+            assertEquals(Integer.toString(i), BigInteger.valueOf(i).isProbablePrime(100), Primes.isPrime(i));
+        }
+    }
+
+    public void testRandomValues() {
+        for (int i = 0; i < 10000; i++) {
+            long value;
+            switch (random().nextInt(3)) {
+                case 0:
+                    value = randomInt();
+                    break;
+                case 1:
+                    value = (1L << 31) + (randomLong() & ((1L << 40) - 1));
+                    break;
+                default:
+                    value = randomLong();
+            }
+            // odd values are more interesting
+            value |= 1;
+            assertEquals(Long.toString(value), BigInteger.valueOf(value).isProbablePrime(100), Primes.isPrime(value));
+        }
+    }
+
+    public void testPseudoPrimes() {
+        // Carmichael numbers and strong pseudoprimes to the first prime bases
+        long[] composites = new long[]{561, 1105, 2047, 1373653, 25326001, 3215031751L, 2152302898747L, 3474749660383L,
+            341550071728321L, 3825123056546413051L, Long.MIN_VALUE, Long.MAX_VALUE};
+        for (long composite : composites) {
+            assertFalse(Long.toString(composite), Primes.isPrime(composite));
+        }
+        // the largest primes below 2^16, 2^31, 2^32 and 2^63
+        long[] primes = new long[]{65521, 2147483647, 4294967291L, 9223372036854775783L, -9223372036854775783L};
+        for (long prime : primes) {
+            assertTrue(Long.toString(prime), Primes.isPrime(prime));
+        }
+    }
+
+    public void testMultiplyHigh() {
+        for (int i = 0; i < 1000; i++) {
+            long x = randomLong();
+            long y = randomLong();
+            BigInteger product = new BigInteger(Long.toUnsignedString(x)).multiply(new BigInteger(Long.toUnsignedString(y)));
+            assertEquals(product.shiftRight(64).longValue(), Primes.multiplyHigh(x, y));
+        }
+    }
+}
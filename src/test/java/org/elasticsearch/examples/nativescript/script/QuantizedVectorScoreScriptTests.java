@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.rescore.QueryRescorerBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.scriptFunction;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ */
+public class QuantizedVectorScoreScriptTests extends AbstractSearchScriptTestCase {
+
+    public void testQuantizedCosineWithRescore() throws Exception {
+        // the float and the quantized vector are stored side by side
+        String pipeline = XContentFactory.jsonBuilder().startObject()
+            .startArray("processors")
+            .startObject().startObject("dense_vector")
+            .field("field", "embedding").field("target_field", "embedding_vector")
+            .endObject().endObject()
+            .startObject().startObject("dense_vector")
+            .field("field", "embedding").field("target_field", "embedding_int8").field("quantize", true)
+            .endObject().endObject()
+            .endArray()
+            .endObject().string();
+        assertAcked(client().admin().cluster().preparePutPipeline("vectors", new BytesArray(pipeline), XContentType.JSON).get());
+
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("embedding").field("type", "float").field("index", false).endObject()
+            .startObject("embedding_vector").field("type", "binary").field("doc_values", true).endObject()
+            .startObject("embedding_int8").field("type", "binary").field("doc_values", true).endObject()
+            .endObject().endObject().endObject()
+            .string();
+
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        // document i points further away from the query the larger i is
+        int numDocs = 20;
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        for (int i = 0; i < numDocs; i++) {
+            double angle = i * Math.PI / (2 * numDocs);
+            indexBuilders.add(client().prepareIndex("test", "type", Integer.toString(i)).setPipeline("vectors")
+                .setSource("embedding", new float[]{(float) Math.cos(angle), (float) Math.sin(angle), 0.5f, -0.25f}));
+        }
+        indexRandom(true, indexBuilders);
+
+        List<Double> query = new ArrayList<>();
+        query.add(1.0);
+        query.add(0.0);
+        query.add(0.5);
+        query.add(-0.25);
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setQuery(vectorQuery(QuantizedVectorScoreScript.COSINE_SCRIPT_NAME, "embedding_int8", query))
+            .execute().actionGet();
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, numDocs);
+        for (int i = 0; i < 10; i++) {
+            int doc = Integer.parseInt(searchResponse.getHits().getAt(i).getId());
+            assertThat((double) searchResponse.getHits().getAt(i).getScore(), closeTo(cosine(doc, numDocs), 0.02));
+        }
+
+        // the top documents of the quantized vectors get the exact scores of the float vectors
+        searchResponse = client().prepareSearch("test")
+            .setQuery(vectorQuery(QuantizedVectorScoreScript.COSINE_SCRIPT_NAME, "embedding_int8", query))
+            .setRescorer(new QueryRescorerBuilder(vectorQuery(DenseVectorScoreScript.COSINE_SCRIPT_NAME, "embedding_vector", query))
+                .setQueryWeight(0.0f).setRescoreQueryWeight(1.0f), 10)
+            .setSize(5)
+            .execute().actionGet();
+        assertNoFailures(searchResponse);
+        for (int i = 0; i < 5; i++) {
+            assertThat(searchResponse.getHits().getAt(i).getId(), equalTo(Integer.toString(i)));
+            assertThat((double) searchResponse.getHits().getAt(i).getScore(), closeTo(cosine(i, numDocs), 1e-6));
+        }
+    }
+
+    private static QueryBuilder vectorQuery(String script, String field, List<Double> vector) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", field);
+        params.put("vector", vector);
+        return functionScoreQuery(matchAllQuery(), scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME,
+            script, params)))
+            .boostMode(CombineFunction.REPLACE);
+    }
+
+    private static double cosine(int doc, int numDocs) {
+        double angle = doc * Math.PI / (2 * numDocs);
+        double dot = Math.cos(angle) + 0.25 + 0.0625;
+        double norm = Math.sqrt(1 + 0.25 + 0.0625);
+        return dot / (norm * norm);
+    }
+}
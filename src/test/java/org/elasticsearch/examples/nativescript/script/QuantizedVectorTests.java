@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.test.ESTestCase;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ */
+public class QuantizedVectorTests extends ESTestCase {
+
+    public void testDotProduct() {
+        for (int run = 0; run < 100; run++) {
+            int dims = randomIntBetween(1, 512);
+            float[] a = randomVector(dims);
+            float[] b = randomVector(dims);
+            QuantizedVector quantizedA = QuantizedVector.quantize(a);
+            double exact = DenseVector.dotProduct(a, b);
+            double approximate = quantizedA.dotProduct(QuantizedVector.quantize(b).encode(), 0);
+            // every component is off by at most half a quantization step of its vector
+            double maxError = 0;
+            for (int i = 0; i < dims; i++) {
+                maxError += Math.abs(a[i]) * range(b) / 510 + Math.abs(b[i]) * range(a) / 510 + range(a) * range(b) / (510 * 510);
+            }
+            assertThat(approximate, closeTo(exact, maxError + 1e-3));
+            assertThat(QuantizedVector.decodeNorm(QuantizedVector.quantize(b).encode(), 0), equalTo(DenseVector.norm(b)));
+        }
+    }
+
+    public void testConstantVector() {
+        float[] constant = new float[]{2, 2, 2, 2};
+        byte[] encoded = QuantizedVector.quantize(constant).encode();
+        assertThat(QuantizedVector.dims(encoded.length), equalTo(4));
+        assertThat(QuantizedVector.quantize(new float[]{1, 0, 0, 1}).dotProduct(encoded, 0), closeTo(4.0, 1e-6));
+    }
+
+    private static float[] randomVector(int dims) {
+        float[] vector = new float[dims];
+        for (int i = 0; i < dims; i++) {
+            vector[i] = (float) randomDoubleBetween(-1, 1, true);
+        }
+        return vector;
+    }
+
+    private static double range(float[] vector) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float value : vector) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return max - min;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ */
+public class QueryVectorCacheTests extends ESTestCase {
+
+    private static Map<String, Object> params(List<String> terms, List<Double> weights) {
+        Map<String, Object> params = new HashMap<>();
+        // new lists, like the parameters of every search
+        params.put("terms", new ArrayList<>(terms));
+        if (weights != null) {
+            params.put("weights", new ArrayList<>(weights));
+        }
+        return params;
+    }
+
+    public void testHitsAndMisses() throws Exception {
+        QueryVectorCache cache = new QueryVectorCache(new ByteSizeValue(1 << 20));
+        List<String> terms = Arrays.asList("sam", "i", "am");
+        QueryVector vector = cache.get("test", params(terms, Arrays.asList(1.0, 2.0, 3.0)), true);
+        assertThat(vector.weight(1), equalTo(2.0));
+        assertThat(cache.get("test", params(terms, Arrays.asList(1.0, 2.0, 3.0)), true), sameInstance(vector));
+        // other weights, or none, are another vector
+        assertThat(cache.get("test", params(terms, Arrays.asList(1.0, 2.0, 4.0)), true).weight(2), equalTo(4.0));
+        assertThat(cache.get("test", params(terms, null), false).weight(2), equalTo(1.0));
+
+        assertThat(cache.count(), equalTo(3));
+        assertThat(cache.stats().getHits(), equalTo(1L));
+        assertThat(cache.stats().getMisses(), equalTo(3L));
+        assertThat(cache.stats().getEvictions(), equalTo(0L));
+
+        String stats = XContentFactory.jsonBuilder().startObject().value(cache).endObject().string();
+        assertThat(stats, containsString("\"query_vector_cache\":{\"count\":3,"));
+        assertThat(stats, containsString("\"max_bytes\":1048576,\"hits\":1,\"misses\":3,\"evictions\":0"));
+    }
+
+    public void testEviction() {
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            terms.add("term_" + i);
+        }
+        long vectorBytes = new QueryVector(terms.toArray(new String[terms.size()]), new double[terms.size()]).ramBytesUsed();
+        // room for a few vectors
+        QueryVectorCache cache = new QueryVectorCache(new ByteSizeValue(vectorBytes * 5));
+        int vectors = randomIntBetween(10, 20);
+        for (int i = 0; i < vectors; i++) {
+            cache.get("test", params(terms, Collections.nCopies(terms.size(), (double) i)), true);
+        }
+        assertThat(cache.count(), greaterThan(0));
+        assertThat(cache.count(), lessThan(5));
+        assertThat(cache.stats().getEvictions(), equalTo((long) (vectors - cache.count())));
+    }
+
+    public void testDisabled() {
+        QueryVectorCache cache = new QueryVectorCache(new ByteSizeValue(0));
+        List<String> terms = Arrays.asList("sam", "i", "am");
+        QueryVector vector = cache.get("test", params(terms, null), false);
+        assertThat(vector.size(), equalTo(3));
+        assertNotSame(vector, cache.get("test", params(terms, null), false));
+        assertThat(cache.count(), equalTo(0));
+    }
+
+    public void testInvalidParametersAreNotCached() {
+        QueryVectorCache cache = new QueryVectorCache(new ByteSizeValue(1 << 20));
+        expectThrows(RuntimeException.class, () -> cache.get("test", params(Arrays.asList("sam", "i"), Arrays.asList(1.0)), true));
+        expectThrows(RuntimeException.class, () -> cache.get("test", params(Arrays.asList("sam", "i"), null), true));
+        assertThat(cache.count(), equalTo(0));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+/**
+ */
+public class RandomHyperplaneLshTests extends ESTestCase {
+
+    public void testScaledAndOppositeVectors() {
+        int tables = randomIntBetween(1, RandomHyperplaneLsh.MAX_TABLES);
+        int bits = randomIntBetween(1, RandomHyperplaneLsh.MAX_BITS);
+        float[] vector = randomVector(randomIntBetween(1, 64));
+        float[] scaled = new float[vector.length];
+        float[] opposite = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            scaled[i] = vector[i] * 4;
+            opposite[i] = -vector[i];
+        }
+        List<String> buckets = RandomHyperplaneLsh.buckets(vector, tables, bits);
+        assertThat(buckets, hasSize(tables));
+        assertThat(RandomHyperplaneLsh.buckets(scaled, tables, bits), equalTo(buckets));
+        // every bit is flipped, so no table can collide
+        List<String> oppositeBuckets = RandomHyperplaneLsh.buckets(opposite, tables, bits);
+        for (int table = 0; table < tables; table++) {
+            assertNotEquals(buckets.get(table), oppositeBuckets.get(table));
+        }
+        assertThat(RandomHyperplaneLsh.buckets(new float[vector.length], tables, bits), empty());
+    }
+
+    public void testTermVectors() {
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put("red", 2);
+        counts.put("green", 1);
+        Map<String, Double> weights = new HashMap<>();
+        weights.put("green", 0.5);
+        weights.put("red", 1.0);
+        weights.put("blue", 0.0);
+        assertThat(RandomHyperplaneLsh.buckets(weights, 8, 16), equalTo(RandomHyperplaneLsh.buckets(counts, 8, 16)));
+        assertThat(RandomHyperplaneLsh.buckets(Collections.singletonMap("blue", 0), 8, 16), empty());
+    }
+
+    public void testCollisionProbability() {
+        // with one bit per table the fraction of equal buckets estimates 1 - theta / pi
+        int tables = RandomHyperplaneLsh.MAX_TABLES;
+        double error = 0;
+        int runs = 100;
+        for (int run = 0; run < runs; run++) {
+            float[] a = randomVector(32);
+            float[] b = randomVector(32);
+            List<String> bucketsA = RandomHyperplaneLsh.buckets(a, tables, 1);
+            List<String> bucketsB = RandomHyperplaneLsh.buckets(b, tables, 1);
+            int collisions = 0;
+            for (int table = 0; table < tables; table++) {
+                if (bucketsA.get(table).equals(bucketsB.get(table))) {
+                    collisions++;
+                }
+            }
+            double cosine = DenseVector.dotProduct(a, b) / (DenseVector.norm(a) * DenseVector.norm(b));
+            error += (double) collisions / tables - (1 - Math.acos(cosine) / Math.PI);
+        }
+        // the mean error of unbiased estimates with a standard deviation of at most 1 / 16
+        assertThat(error / runs, closeTo(0, 0.025));
+    }
+
+    public void testParameters() {
+        expectThrows(IllegalArgumentException.class, () -> RandomHyperplaneLsh.checkParameters(0, 8));
+        expectThrows(IllegalArgumentException.class, () -> RandomHyperplaneLsh.checkParameters(RandomHyperplaneLsh.MAX_TABLES + 1, 8));
+        expectThrows(IllegalArgumentException.class, () -> RandomHyperplaneLsh.checkParameters(8, 0));
+        expectThrows(IllegalArgumentException.class, () -> RandomHyperplaneLsh.checkParameters(8, RandomHyperplaneLsh.MAX_BITS + 1));
+    }
+
+    private static float[] randomVector(int dims) {
+        float[] vector = new float[dims];
+        for (int i = 0; i < dims; i++) {
+            vector[i] = (float) random().nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -18,14 +18,20 @@ import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.examples.nativescript.script.stockaggs.MapScriptFactory;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.search.aggregations.InternalAggregation;
 import org.elasticsearch.search.aggregations.metrics.scripted.ScriptedMetric;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
 import static org.elasticsearch.search.aggregations.AggregationBuilders.scriptedMetric;
@@ -67,7 +73,7 @@ public class ScriptedMetricAggsScriptTests extends AbstractSearchScriptTestCase
                 .setSize(0)
                 .addAggregation(scriptedMetric("profit")
                         .initScript(new Script(ScriptType.INLINE, "native", "stockaggs_init", Collections.emptyMap()))
-                        .mapScript(new Script(ScriptType.INLINE, "native", "stockaggs_map", Collections.emptyMap()))
+                        .mapScript(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, "stockaggs_map", Collections.emptyMap()))
                         .combineScript(new Script(ScriptType.INLINE, "native", "stockaggs_combine", Collections.emptyMap()))
                         .reduceScript(new Script(ScriptType.INLINE, "native", "stockaggs_reduce", Collections.emptyMap())))
                 .execute().actionGet();
@@ -81,5 +87,178 @@ public class ScriptedMetricAggsScriptTests extends AbstractSearchScriptTestCase
         assertThat(((InternalAggregation)searchResponse.getAggregations().get("profit")).getProperty("value"), equalTo(170L));
     }
 
+    public void testSigns() throws Exception {
+        String stockMapping = XContentFactory.jsonBuilder().startObject().startObject("stock")
+                .startObject("properties")
+                .startObject("type").field("type", "keyword").endObject()
+                .startObject("amount").field("type", "long").endObject()
+                .endObject().endObject().endObject()
+                .string();
+        assertAcked(prepareCreate("transactions").addMapping("stock", stockMapping, XContentType.JSON));
+
+        Map<String, Object> signs = new HashMap<>();
+        signs.put("sale", 1);
+        signs.put("buy", -1);
+        signs.put("transfer", 0);
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        long profit = 0;
+        int numDocs = randomIntBetween(10, 200);
+        for (int i = 0; i < numDocs; i++) {
+            String type = randomFrom("sale", "buy", "transfer", "fee");
+            long amount = randomIntBetween(0, 1000);
+            profit += type.equals("sale") ? amount : type.equals("transfer") ? 0 : -amount;
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i)).setSource("type", type, "amount", amount));
+        }
+        // documents without a type are subtracted
+        indexBuilders.add(client().prepareIndex("transactions", "stock", "untyped").setSource("amount", 7));
+        profit -= 7;
+        indexRandom(true, indexBuilders);
+
+        // the scripts only get the parameters of the aggregation, which must hold the state of the aggregation too
+        Map<String, Object> params = new HashMap<>();
+        params.put("_agg", new HashMap<>());
+        params.put("signs", signs);
+        SearchResponse searchResponse = client().prepareSearch("transactions")
+                .setSize(0)
+                .addAggregation(scriptedMetric("profit")
+                        .params(params)
+                        .initScript(new Script(ScriptType.INLINE, "native", "stockaggs_init", Collections.emptyMap()))
+                        .mapScript(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, "stockaggs_map", Collections.emptyMap()))
+                        .combineScript(new Script(ScriptType.INLINE, "native", "stockaggs_combine", Collections.emptyMap()))
+                        .reduceScript(new Script(ScriptType.INLINE, "native", "stockaggs_reduce", Collections.emptyMap())))
+                .get();
+
+        assertNoFailures(searchResponse);
+        assertThat(((InternalAggregation) searchResponse.getAggregations().get("profit")).getProperty("value"), equalTo(profit));
+    }
+
+    public void testInvalidSign() {
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> new MapScriptFactory().newScript(
+            Collections.singletonMap("signs", Collections.singletonMap("sale", 2))));
+        assertThat(e.getMessage(), equalTo("the sign of [sale] in [signs] must be 1, 0 or -1 but was [2]"));
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testStats() throws Exception {
+        String stockMapping = XContentFactory.jsonBuilder().startObject().startObject("stock")
+                .startObject("properties")
+                .startObject("type").field("type", "keyword").endObject()
+                .startObject("amount").field("type", "long").endObject()
+                .endObject().endObject().endObject()
+                .string();
+        assertAcked(prepareCreate("transactions").addMapping("stock", stockMapping, XContentType.JSON));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        long profit = 0;
+        long[] sizes = new long[randomIntBetween(10, 200)];
+        for (int i = 0; i < sizes.length; i++) {
+            boolean sale = randomBoolean();
+            sizes[i] = randomIntBetween(1, 100000);
+            profit += sale ? sizes[i] : -sizes[i];
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i))
+                .setSource("type", sale ? "sale" : "cost", "amount", sizes[i]));
+        }
+        indexRandom(true, indexBuilders);
+        Arrays.sort(sizes);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("_agg", new HashMap<>());
+        params.put("stats", true);
+        SearchResponse searchResponse = client().prepareSearch("transactions")
+                .setSize(0)
+                .addAggregation(scriptedMetric("profit")
+                        .params(params)
+                        .initScript(new Script(ScriptType.INLINE, "native", "stockaggs_init", Collections.emptyMap()))
+                        .mapScript(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, "stockaggs_map", Collections.emptyMap()))
+                        .combineScript(new Script(ScriptType.INLINE, "native", "stockaggs_combine", Collections.emptyMap()))
+                        .reduceScript(new Script(ScriptType.INLINE, "native", "stockaggs_reduce",
+                            Collections.singletonMap("percents", Collections.singletonList(100)))))
+                .get();
 
+        assertNoFailures(searchResponse);
+        Map<String, Object> result = (Map<String, Object>) ((InternalAggregation) searchResponse.getAggregations().get("profit"))
+            .getProperty("value");
+        assertThat(result.get("profit"), equalTo(profit));
+        assertThat(result.get("count"), equalTo((long) sizes.length));
+        assertThat(result.get("min"), equalTo(sizes[0]));
+        assertThat(result.get("max"), equalTo(sizes[sizes.length - 1]));
+        assertThat(((Map<String, Object>) result.get("percentiles")).get("100.0"), equalTo(sizes[sizes.length - 1]));
+    }
+
+    public void testOverflow() throws Exception {
+        String stockMapping = XContentFactory.jsonBuilder().startObject().startObject("stock")
+                .startObject("properties")
+                .startObject("type").field("type", "keyword").endObject()
+                .startObject("amount").field("type", "long").endObject()
+                .endObject().endObject().endObject()
+                .string();
+        assertAcked(prepareCreate("transactions").addMapping("stock", stockMapping, XContentType.JSON));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        boolean sale = randomBoolean();
+        BigInteger profit = BigInteger.ZERO;
+        int numDocs = randomIntBetween(2, 20);
+        for (int i = 0; i < numDocs; i++) {
+            long amount = Long.MAX_VALUE - randomInt(1000);
+            profit = sale ? profit.add(BigInteger.valueOf(amount)) : profit.subtract(BigInteger.valueOf(amount));
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i))
+                .setSource("type", sale ? "sale" : "cost", "amount", amount));
+        }
+        indexRandom(true, indexBuilders);
+
+        SearchResponse searchResponse = client().prepareSearch("transactions")
+                .setSize(0)
+                .addAggregation(scriptedMetric("profit")
+                        .initScript(new Script(ScriptType.INLINE, "native", "stockaggs_init", Collections.emptyMap()))
+                        .mapScript(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, "stockaggs_map", Collections.emptyMap()))
+                        .combineScript(new Script(ScriptType.INLINE, "native", "stockaggs_combine", Collections.emptyMap()))
+                        .reduceScript(new Script(ScriptType.INLINE, "native", "stockaggs_reduce", Collections.emptyMap())))
+                .get();
+
+        assertNoFailures(searchResponse);
+        // too large for a long, the exact value is returned as a string
+        assertThat(((InternalAggregation) searchResponse.getAggregations().get("profit")).getProperty("value"),
+            equalTo(profit.toString()));
+    }
+
+    public void testDecimalPlaces() throws Exception {
+        // decimal amounts in a floating point field, or in cents in an integral field
+        boolean floatingPoint = randomBoolean();
+        String stockMapping = XContentFactory.jsonBuilder().startObject().startObject("stock")
+                .startObject("properties")
+                .startObject("type").field("type", "keyword").endObject()
+                .startObject("amount").field("type", floatingPoint ? "double" : "long").endObject()
+                .endObject().endObject().endObject()
+                .string();
+        assertAcked(prepareCreate("transactions").addMapping("stock", stockMapping, XContentType.JSON));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        long cents = 0;
+        int numDocs = randomIntBetween(10, 200);
+        for (int i = 0; i < numDocs; i++) {
+            boolean sale = randomBoolean();
+            long amount = randomIntBetween(0, 1000000);
+            cents += sale ? amount : -amount;
+            indexBuilders.add(client().prepareIndex("transactions", "stock", Integer.toString(i))
+                .setSource("type", sale ? "sale" : "cost", "amount", floatingPoint ? amount / 100.0 : amount));
+        }
+        indexRandom(true, indexBuilders);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("_agg", new HashMap<>());
+        params.put("decimal_places", 2);
+        SearchResponse searchResponse = client().prepareSearch("transactions")
+                .setSize(0)
+                .addAggregation(scriptedMetric("profit")
+                        .params(params)
+                        .initScript(new Script(ScriptType.INLINE, "native", "stockaggs_init", Collections.emptyMap()))
+                        .mapScript(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, "stockaggs_map", Collections.emptyMap()))
+                        .combineScript(new Script(ScriptType.INLINE, "native", "stockaggs_combine", Collections.emptyMap()))
+                        .reduceScript(new Script(ScriptType.INLINE, "native", "stockaggs_reduce", Collections.emptyMap())))
+                .get();
+
+        assertNoFailures(searchResponse);
+        assertThat(((InternalAggregation) searchResponse.getAggregations().get("profit")).getProperty("value"),
+            equalTo(BigDecimal.valueOf(cents, 2).toPlainString()));
+    }
 }
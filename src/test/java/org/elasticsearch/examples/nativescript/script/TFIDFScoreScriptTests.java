@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.scriptFunction;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.closeTo;
+
+/**
+ */
+public class TFIDFScoreScriptTests extends AbstractSearchScriptTestCase {
+
+    private static final String[] WORDS = {"sam", "i", "am", "green", "eggs", "ham"};
+
+    public void testTFIDF() throws Exception {
+        String mapping = XContentFactory.jsonBuilder().startObject().startObject("type")
+            .startObject("properties")
+            .startObject("text").field("type", "text").endObject()
+            .endObject().endObject().endObject()
+            .string();
+        assertAcked(prepareCreate("test").addMapping("type", mapping, XContentType.JSON));
+
+        int numDocs = randomIntBetween(10, 100);
+        List<List<String>> docs = new ArrayList<>();
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        for (int i = 0; i < numDocs; i++) {
+            List<String> words = new ArrayList<>();
+            int numWords = randomIntBetween(1, 10);
+            for (int j = 0; j < numWords; j++) {
+                words.add(randomFrom(WORDS));
+            }
+            docs.add(words);
+            indexBuilders.add(client().prepareIndex("test", "type", Integer.toString(i)).setSource("text", String.join(" ", words)));
+        }
+        // the random refreshes spread the documents over several segments
+        indexRandom(true, indexBuilders);
+
+        List<String> terms = Arrays.asList("sam", "eggs", "unknown");
+        List<Double> weights = Arrays.asList(1.0, 2.0, 3.0);
+        double[] idf = new double[terms.size()];
+        for (int t = 0; t < terms.size(); t++) {
+            int df = 0;
+            for (List<String> words : docs) {
+                df += words.contains(terms.get(t)) ? 1 : 0;
+            }
+            idf[t] = Math.log((numDocs + 2.0) / (df + 1.0));
+        }
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "text");
+        params.put("terms", terms);
+        boolean weighted = randomBoolean();
+        if (weighted) {
+            params.put("weights", weights);
+        }
+        SearchResponse searchResponse = client().prepareSearch("test")
+            .setSize(numDocs)
+            .setQuery(functionScoreQuery(matchAllQuery(),
+                scriptFunction(new Script(ScriptType.INLINE, LeafScriptEngineService.NAME, TFIDFScoreScript.SCRIPT_NAME, params)))
+                .boostMode(CombineFunction.REPLACE))
+            .get();
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, numDocs);
+
+        for (SearchHit hit : searchResponse.getHits()) {
+            List<String> words = docs.get(Integer.parseInt(hit.getId()));
+            double expected = 0;
+            for (int t = 0; t < terms.size(); t++) {
+                int tf = 0;
+                for (String word : words) {
+                    tf += word.equals(terms.get(t)) ? 1 : 0;
+                }
+                expected += tf * idf[t] * (weighted ? weights.get(t) : 1.0);
+            }
+            assertThat((double) hit.getScore(), closeTo(expected, 1e-4));
+        }
+    }
+}
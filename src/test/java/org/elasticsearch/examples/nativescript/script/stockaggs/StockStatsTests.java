@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script.stockaggs;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ */
+public class StockStatsTests extends ESTestCase {
+
+    public void testMergedShardResults() {
+        int shards = randomIntBetween(1, 5);
+        long[] sizes = new long[randomIntBetween(1, 10000)];
+        StockStats[] shardStats = new StockStats[shards];
+        for (int i = 0; i < shards; i++) {
+            shardStats[i] = new StockStats();
+        }
+        long maxSize = randomBoolean() ? 1000 : Long.MAX_VALUE / 2;
+        for (int i = 0; i < sizes.length; i++) {
+            long amount = (long) (randomDouble() * maxSize);
+            sizes[i] = amount;
+            shardStats[randomInt(shards - 1)].add(randomBoolean() ? amount : -amount);
+        }
+        StockStats stats = null;
+        for (StockStats shard : shardStats) {
+            // what the combine script sends and the reduce script reads
+            StockStats read = StockStats.fromShardResult(shard.toShardResult());
+            if (stats == null) {
+                stats = read;
+            } else {
+                stats.merge(read);
+            }
+        }
+        Arrays.sort(sizes);
+        assertEquals(sizes.length, stats.count());
+        assertEquals(sizes[0], stats.min());
+        assertEquals(sizes[sizes.length - 1], stats.max());
+        for (double percent : new double[]{0, 1, 50, 90, 99, 99.9, 100}) {
+            // the histogram rounds the rank of the percentile to the nearest count
+            long exact = sizes[(int) Math.max(1, (long) (percent / 100 * sizes.length + 0.5)) - 1];
+            long percentile = stats.percentile(percent);
+            assertThat(Double.toString(percent), percentile, greaterThanOrEqualTo(exact));
+            assertThat(Double.toString(percent), (double) percentile, lessThanOrEqualTo(exact * 1.001 + 1));
+        }
+    }
+
+    public void testExtremeAmounts() {
+        StockStats stats = new StockStats();
+        stats.add(Long.MIN_VALUE);
+        stats.add(Long.MAX_VALUE);
+        stats.add(-1);
+        stats = StockStats.fromShardResult(stats.toShardResult());
+        assertEquals(3, stats.count());
+        assertEquals(1, stats.min());
+        // the size of Long.MIN_VALUE doesn't fit in a long
+        assertEquals(Long.MAX_VALUE, stats.max());
+        assertEquals(Long.MAX_VALUE, stats.percentile(100));
+        assertEquals(1, stats.percentile(0));
+    }
+
+    public void testEmpty() {
+        StockStats stats = StockStats.fromShardResult(new StockStats().toShardResult());
+        stats.merge(new StockStats());
+        Map<String, Object> result = new HashMap<>();
+        stats.toResult(result, new double[]{50}, -1);
+        assertEquals(0L, result.get("count"));
+        assertThat(result.get("min"), nullValue());
+        assertThat(result.get("max"), nullValue());
+        assertThat(((Map<?, ?>) result.get("percentiles")).get("50.0"), nullValue());
+    }
+}
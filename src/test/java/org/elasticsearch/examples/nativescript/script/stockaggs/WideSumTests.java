@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.elasticsearch.examples.nativescript.script.stockaggs;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.math.BigInteger;
+
+/**
+ */
+public class WideSumTests extends ESTestCase {
+
+    public void testRandomValues() {
+        long[] sum = WideSum.newSum();
+        BigInteger exact = BigInteger.ZERO;
+        for (int i = 0; i < 10000; i++) {
+            long value = randomBoolean() ? randomLong() : randomFrom(Long.MIN_VALUE, Long.MAX_VALUE, 0L, -1L);
+            if (randomBoolean()) {
+                WideSum.add(sum, value);
+                exact = exact.add(BigInteger.valueOf(value));
+            } else {
+                WideSum.subtract(sum, value);
+                exact = exact.subtract(BigInteger.valueOf(value));
+            }
+            assertEquals(exact, WideSum.toBigInteger(sum));
+            assertEquals(exact.bitLength() < 64, WideSum.fitsInLong(sum));
+        }
+    }
+
+    public void testMergedSums() {
+        long[] merged = WideSum.newSum();
+        BigInteger exact = BigInteger.ZERO;
+        for (int shard = 0; shard < 10; shard++) {
+            long[] sum = WideSum.newSum();
+            for (int i = 0; i < 100; i++) {
+                long value = randomLong();
+                WideSum.add(sum, value);
+                exact = exact.add(BigInteger.valueOf(value));
+            }
+            WideSum.add(merged, sum[0], sum[1]);
+        }
+        assertEquals(exact, WideSum.toBigInteger(merged));
+    }
+}